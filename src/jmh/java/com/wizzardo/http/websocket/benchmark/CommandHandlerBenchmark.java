@@ -0,0 +1,99 @@
+package com.wizzardo.http.websocket.benchmark;
+
+import com.wizzardo.http.websocket.Message;
+import com.wizzardo.http.websocket.extension.SimpleCommandHandler;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command dispatch without json parsing, reader returns a ready pojo
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandHandlerBenchmark {
+
+    public static class Ping implements SimpleCommandHandler.CommandPojo {
+    }
+
+    public static class Subscribe implements SimpleCommandHandler.CommandPojo {
+    }
+
+    public static class Unsubscribe implements SimpleCommandHandler.CommandPojo {
+    }
+
+    public static class OrderBookUpdate implements SimpleCommandHandler.CommandPojo {
+    }
+
+    @Param({"true", "false"})
+    boolean lengthPrefix;
+
+    @Param({"2", "256"})
+    int payloadSize;
+
+    @Param({"1", "4"})
+    int fragments;
+
+    SimpleCommandHandler<Blackhole> handler;
+    Message message;
+
+    @Setup
+    public void setup() {
+        final Object[] pojos = new Object[]{new Ping(), new Subscribe(), new Unsubscribe(), new OrderBookUpdate()};
+        handler = new SimpleCommandHandler<Blackhole>(new SimpleCommandHandler.Reader() {
+            @Override
+            public Object read(Class<?> clazz, byte[] bytes, int offset, int length) {
+                for (Object pojo : pojos) {
+                    if (pojo.getClass() == clazz)
+                        return pojo;
+                }
+                return null;
+            }
+        }, new SimpleCommandHandler.ErrorHandler() {
+            @Override
+            public void onError(Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        handler.addHandler(Ping.class, CommandHandlerBenchmark.<Ping>consumer());
+        handler.addHandler(Subscribe.class, CommandHandlerBenchmark.<Subscribe>consumer());
+        handler.addHandler(Unsubscribe.class, CommandHandlerBenchmark.<Unsubscribe>consumer());
+        handler.addHandler(OrderBookUpdate.class, CommandHandlerBenchmark.<OrderBookUpdate>consumer());
+
+        StringBuilder sb = new StringBuilder();
+        if (lengthPrefix)
+            sb.append("OrderBookUpdate".length());
+        sb.append("OrderBookUpdate{");
+        while (sb.length() < payloadSize + 16)
+            sb.append("\"a\":1,");
+        sb.append('}');
+        String command = sb.toString();
+
+        message = new Message();
+        int part = command.length() / fragments;
+        for (int i = 0; i < fragments; i++) {
+            int from = i * part;
+            message.append(command.substring(from, i == fragments - 1 ? command.length() : from + part));
+        }
+    }
+
+    protected static <C extends SimpleCommandHandler.CommandPojo> SimpleCommandHandler.CommandHandler<Blackhole, C> consumer() {
+        return new SimpleCommandHandler.CommandHandler<Blackhole, C>() {
+            @Override
+            public void handle(Blackhole client, C command) {
+                client.consume(command);
+            }
+        };
+    }
+
+    @Benchmark
+    public void onMessage(Blackhole blackhole) {
+        handler.onMessage(blackhole, message);
+    }
+}
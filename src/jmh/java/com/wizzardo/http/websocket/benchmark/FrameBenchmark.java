@@ -0,0 +1,84 @@
+package com.wizzardo.http.websocket.benchmark;
+
+import com.wizzardo.http.websocket.Frame;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frame codec: parsing, serialization and masking of a single frame
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameBenchmark {
+    protected static final OutputStream NULL_OUTPUT = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Param({"16", "125", "1024", "65536", "1048576"})
+    int size;
+
+    byte[] encoded;
+    byte[] unmaskedEncoded;
+    Frame frame;
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] payload = new byte[size];
+        ThreadLocalRandom.current().nextBytes(payload);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new Frame(payload, 0, payload.length).mask().write(out);
+        encoded = out.toByteArray();
+
+        out.reset();
+        new Frame(payload, 0, payload.length).write(out);
+        unmaskedEncoded = out.toByteArray();
+
+        frame = new Frame(payload, 0, payload.length);
+    }
+
+    @Benchmark
+    public Frame read() throws IOException {
+        Frame frame = new Frame();
+        frame.read(encoded, 0, encoded.length);
+        return frame;
+    }
+
+    @Benchmark
+    public Frame readView() throws IOException {
+        Frame frame = new Frame();
+        frame.readView(unmaskedEncoded, 0, unmaskedEncoded.length);
+        return frame;
+    }
+
+    @Benchmark
+    public Frame write() throws IOException {
+        frame.write(NULL_OUTPUT);
+        return frame;
+    }
+
+    @Benchmark
+    public Frame maskUnmask() {
+        return frame.mask().unmask();
+    }
+
+    @Benchmark
+    public boolean hasHeaders() {
+        return Frame.hasHeaders(encoded, 0, encoded.length);
+    }
+}
@@ -0,0 +1,102 @@
+package com.wizzardo.http.websocket.benchmark;
+
+import com.wizzardo.http.websocket.EventLoopGroup;
+import com.wizzardo.http.websocket.Message;
+import com.wizzardo.http.websocket.NioWebSocketClient;
+import com.wizzardo.http.websocket.SimpleWebSocketClient;
+import com.wizzardo.http.websocket.tools.EchoServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end round trips through loopback against in-process {@link EchoServer}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoopbackBenchmark {
+    protected static final int BATCH = 100;
+
+    @Param({"16", "1024", "65536"})
+    int size;
+
+    EchoServer server;
+    SimpleWebSocketClient blocking;
+    EventLoopGroup group;
+    NioWebSocketClient nio;
+    final Semaphore received = new Semaphore(0);
+    Message last;
+    byte[] payload;
+
+    @Setup
+    public void setup() throws IOException, URISyntaxException, InterruptedException {
+        payload = new byte[size];
+        ThreadLocalRandom.current().nextBytes(payload);
+        server = new EchoServer(0);
+
+        blocking = new SimpleWebSocketClient(server.getUrl()) {
+            @Override
+            public void onMessage(Message message) {
+                last = message;
+            }
+        };
+        blocking.connectIfNot();
+
+        group = new EventLoopGroup(1);
+        final Semaphore ready = new Semaphore(0);
+        nio = new NioWebSocketClient(group, server.getUrl()) {
+            @Override
+            public void onConnect() {
+                ready.release();
+            }
+
+            @Override
+            public void onMessage(Message message) {
+                received.release();
+            }
+        };
+        nio.connect();
+        if (!ready.tryAcquire(10, TimeUnit.SECONDS))
+            throw new IllegalStateException("Cannot connect to " + server.getUrl());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        blocking.close();
+        nio.close();
+        group.shutdown();
+        server.close();
+    }
+
+    @Benchmark
+    public Message blockingRoundTrip() throws IOException {
+        blocking.send(payload);
+        blocking.waitForMessage();
+        return last;
+    }
+
+    @Benchmark
+    public void nioRoundTrip() throws InterruptedException {
+        nio.send(payload);
+        received.acquire();
+    }
+
+    /**
+     * Sends {@link #BATCH} messages without waiting for responses, time is per batch
+     */
+    @Benchmark
+    public void nioPipelined() throws InterruptedException {
+        for (int i = 0; i < BATCH; i++) {
+            nio.send(payload);
+        }
+        received.acquire(BATCH);
+    }
+}
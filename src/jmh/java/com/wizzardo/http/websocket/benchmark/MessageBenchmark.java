@@ -0,0 +1,66 @@
+package com.wizzardo.http.websocket.benchmark;
+
+import com.wizzardo.http.websocket.Charsets;
+import com.wizzardo.http.websocket.Message;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Assembling of fragmented messages: joining frames and decoding text
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark {
+
+    @Param({"64", "4096", "262144"})
+    int size;
+
+    @Param({"1", "4", "16"})
+    int fragments;
+
+    @Param({"ascii", "utf8"})
+    String text;
+
+    Message message;
+
+    @Setup
+    public void setup() {
+        char[] chars = new char[size];
+        Arrays.fill(chars, 'a');
+        if (text.equals("utf8")) {
+            for (int i = 0; i < chars.length; i += 3) {
+                chars[i] = '\u0436';
+            }
+        }
+        byte[] bytes = new String(chars).getBytes(Charsets.UTF_8);
+
+        message = new Message();
+        int part = bytes.length / fragments;
+        for (int i = 0; i < fragments; i++) {
+            int offset = i * part;
+            int length = i == fragments - 1 ? bytes.length - offset : part;
+            message.append(bytes, offset, length);
+        }
+    }
+
+    @Benchmark
+    public byte[] asBytes() {
+        return message.asBytes();
+    }
+
+    @Benchmark
+    public String asString() {
+        return message.asString();
+    }
+
+    @Benchmark
+    public CharSequence asCharSequence() {
+        return message.asCharSequence();
+    }
+}
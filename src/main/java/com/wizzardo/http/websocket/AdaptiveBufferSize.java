@@ -0,0 +1,80 @@
+package com.wizzardo.http.websocket;
+
+/**
+ * Picks receive buffer size from a running log2 histogram of observed frame sizes.
+ * The buffer grows right away to fit 90% of frames and shrinks by half when it is 4 times bigger than needed.
+ * Not thread-safe, should be used by a single reader.
+ */
+public class AdaptiveBufferSize {
+    protected static final int WINDOW = 256;
+
+    protected final int min;
+    protected final int max;
+    protected final int[] histogram = new int[32];
+    protected int total;
+    protected int samples;
+    protected int size;
+
+    public AdaptiveBufferSize(int min, int max) {
+        if (min < 128)
+            throw new IllegalArgumentException("min must be >= 128");
+        if (max < min)
+            throw new IllegalArgumentException("max must be >= min");
+
+        this.min = min;
+        this.max = max;
+        this.size = min;
+    }
+
+    public void record(int frameSize) {
+        histogram[bucket(frameSize)]++;
+        total++;
+        if (++samples < WINDOW)
+            return;
+
+        samples = 0;
+        int needed = percentile(0.9);
+        if (needed > size)
+            size = Math.min(max, needed);
+        else if (needed <= size / 4)
+            size = Math.max(min, size / 2);
+
+        total = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] >>= 1;
+            total += histogram[i];
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    /**
+     * @return power of two that is >= than the given part of recorded sizes
+     */
+    public int percentile(double p) {
+        int threshold = (int) Math.ceil(total * p);
+        int count = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            count += histogram[i];
+            if (count >= threshold)
+                return i == 31 ? Integer.MAX_VALUE : 1 << i;
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    protected static int bucket(int size) {
+        if (size <= 1)
+            return 0;
+        return 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+}
@@ -5,4 +5,18 @@ package com.wizzardo.http.websocket;
  */
 public interface ByteArraySupplier {
     byte[] supply(int minLength);
+
+    /**
+     * Gives back an array previously returned by {@link #supply(int)}, it must not be used afterwards
+     */
+    default void release(byte[] bytes) {
+    }
+
+    /**
+     * @return supplier for one connection, a pooling supplier may return a view that keeps released arrays
+     * in the pool of that connection whatever thread releases them
+     */
+    default ByteArraySupplier forOwner() {
+        return this;
+    }
 }
@@ -0,0 +1,160 @@
+package com.wizzardo.http.websocket;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.wizzardo.http.websocket.Charsets.UTF_8;
+
+/**
+ * Outgoing frame with payload in a {@link ByteBuffer}, for example a direct one, and the header in a separate small array.
+ * Payload is sent without copying it into a heap array when the client writes to a channel.
+ * <p>
+ * Masking is done in place, so the buffer must not be read-only and should not be reused until the frame is sent.
+ * Accessors that need a heap array, like {@link #getData()}, copy the payload once and keep the copy masked the same way.
+ */
+public class ByteBufferFrame extends Frame {
+    protected final ByteBuffer payload;
+    protected final byte[] header = new byte[MAX_HEADER_LENGTH];
+
+    public ByteBufferFrame(ByteBuffer payload) {
+        this(OPCODE_BINARY_FRAME, payload);
+    }
+
+    /**
+     * @param payload bytes between position and limit are sent, position of the buffer is not changed
+     */
+    public ByteBufferFrame(byte opcode, ByteBuffer payload) {
+        super(opcode);
+        this.payload = payload.slice();
+        length = this.payload.remaining();
+        payloadLength = length;
+        offset = MAX_HEADER_LENGTH;
+        complete = true;
+    }
+
+    public ByteBuffer getPayload() {
+        return payload.duplicate();
+    }
+
+    /**
+     * Copies payload into a heap array with room for the header on first call
+     */
+    @Override
+    public byte[] getData() {
+        if (data == null) {
+            byte[] bytes = new byte[MAX_HEADER_LENGTH + length];
+            payload.duplicate().get(bytes, MAX_HEADER_LENGTH, length);
+            data = bytes;
+        }
+        return data;
+    }
+
+    @Override
+    public ByteBuffer asByteBuffer() {
+        return payload.duplicate();
+    }
+
+    @Override
+    public Frame mask() {
+        if (masked)
+            return this;
+
+        masked = true;
+        if (maskingKey == null)
+            maskingKey = intToBytes(ThreadLocalRandom.current().nextInt());
+        mask(payload, maskingKey);
+        if (data != null)
+            mask(data, maskingKey, offset, length);
+        return this;
+    }
+
+    @Override
+    public Frame unmask() {
+        if (!masked)
+            return this;
+
+        masked = false;
+        mask(payload, maskingKey);
+        if (data != null)
+            mask(data, maskingKey, offset, length);
+        return this;
+    }
+
+    protected void mask(ByteBuffer data, byte[] mask) {
+        int i = 0;
+        int to = length;
+        if (length >= 8) {
+            long key = ((mask[0] & 0xffL) << 24) | ((mask[1] & 0xffL) << 16) | ((mask[2] & 0xffL) << 8) | (mask[3] & 0xffL);
+            key |= key << 32;
+            for (; i + 8 <= to; i += 8) {
+                data.putLong(i, data.getLong(i) ^ key);
+            }
+        }
+        for (; i < to; i++) {
+            data.put(i, (byte) (data.get(i) ^ mask[i & 3]));
+        }
+    }
+
+    @Override
+    public byte[] getFrameBytes() {
+        getData();
+        return super.getFrameBytes();
+    }
+
+    @Override
+    public int getBufferCount() {
+        return length == 0 ? 1 : 2;
+    }
+
+    @Override
+    public int toByteBuffers(ByteBuffer[] buffers, int index) {
+        int headerOffset = getHeader(header);
+        buffers[index++] = ByteBuffer.wrap(header, headerOffset, MAX_HEADER_LENGTH - headerOffset);
+        if (length != 0)
+            buffers[index++] = payload.duplicate();
+        return index;
+    }
+
+    @Override
+    public int copyFrame(byte[] bytes, int offset) {
+        int headerOffset = getHeader(header);
+        System.arraycopy(header, headerOffset, bytes, offset, MAX_HEADER_LENGTH - headerOffset);
+        return asBytes(bytes, offset + MAX_HEADER_LENGTH - headerOffset);
+    }
+
+    @Override
+    public void write(OutputStream out) throws IOException {
+        int headerOffset = getHeader(header);
+        out.write(header, headerOffset, MAX_HEADER_LENGTH - headerOffset);
+        if (payload.hasArray()) {
+            out.write(payload.array(), payload.arrayOffset(), length);
+            return;
+        }
+
+        ByteBuffer bb = payload.duplicate();
+        byte[] chunk = new byte[Math.min(length, 8 * 1024)];
+        while (bb.hasRemaining()) {
+            int l = Math.min(chunk.length, bb.remaining());
+            bb.get(chunk, 0, l);
+            out.write(chunk, 0, l);
+        }
+    }
+
+    @Override
+    public int asBytes(byte[] result, int offset) {
+        payload.duplicate().get(result, offset, length);
+        return offset + length;
+    }
+
+    @Override
+    public String asString() {
+        return new String(asBytes(), UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return asString();
+    }
+}
@@ -7,4 +7,5 @@ import java.nio.charset.Charset;
  */
 public class Charsets {
     public static final Charset UTF_8 = Charset.forName("utf-8");
+    public static final Charset ISO_8859_1 = Charset.forName("iso-8859-1");
 }
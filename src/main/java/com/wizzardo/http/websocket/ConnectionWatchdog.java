@@ -0,0 +1,129 @@
+package com.wizzardo.http.websocket;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read and idle timeouts of one connection. Reads and messages only update timestamps,
+ * a single timeout on the {@link HashedWheelTimer} checks them when the earliest deadline comes and reschedules itself.
+ */
+public class ConnectionWatchdog implements Runnable {
+
+    public interface Connection {
+        /**
+         * Nothing was received for the read timeout
+         */
+        void onReadTimeout();
+
+        /**
+         * No data message was sent or received for the idle timeout
+         */
+        void onIdleTimeout();
+    }
+
+    protected final HashedWheelTimer timer;
+    protected final Connection connection;
+    protected volatile long readTimeout;
+    protected volatile long idleTimeout;
+    protected volatile long lastRead;
+    protected volatile long lastActivity;
+    protected volatile HashedWheelTimer.Timeout timeout;
+    protected volatile boolean started;
+
+    public ConnectionWatchdog(Connection connection) {
+        this(HashedWheelTimer.shared(), connection);
+    }
+
+    public ConnectionWatchdog(HashedWheelTimer timer, Connection connection) {
+        this.timer = timer;
+        this.connection = connection;
+    }
+
+    /**
+     * @param ms 0 disables read timeout
+     */
+    public void setReadTimeout(long ms) {
+        readTimeout = TimeUnit.MILLISECONDS.toNanos(ms);
+    }
+
+    public long getReadTimeout() {
+        return TimeUnit.NANOSECONDS.toMillis(readTimeout);
+    }
+
+    /**
+     * @param ms 0 disables idle timeout
+     */
+    public void setIdleTimeout(long ms) {
+        idleTimeout = TimeUnit.MILLISECONDS.toNanos(ms);
+    }
+
+    public long getIdleTimeout() {
+        return TimeUnit.NANOSECONDS.toMillis(idleTimeout);
+    }
+
+    public void onRead() {
+        if (started)
+            lastRead = System.nanoTime();
+    }
+
+    public void onActivity() {
+        if (started)
+            lastActivity = System.nanoTime();
+    }
+
+    /**
+     * Starts watching a new connection, does nothing if both timeouts are disabled
+     */
+    public synchronized void start() {
+        stop();
+        long now = System.nanoTime();
+        lastRead = now;
+        lastActivity = now;
+        if (readTimeout <= 0 && idleTimeout <= 0)
+            return;
+
+        started = true;
+        schedule(now);
+    }
+
+    public synchronized void stop() {
+        started = false;
+        HashedWheelTimer.Timeout timeout = this.timeout;
+        if (timeout != null)
+            timeout.cancel();
+        this.timeout = null;
+    }
+
+    @Override
+    public void run() {
+        boolean read;
+        synchronized (this) {
+            if (!started || timeout == null || !timeout.isExpired())
+                return;
+
+            long now = System.nanoTime();
+            read = readTimeout > 0 && now - lastRead >= readTimeout;
+            if (!read && (idleTimeout <= 0 || now - lastActivity < idleTimeout)) {
+                schedule(now);
+                return;
+            }
+            stop();
+        }
+
+        if (read)
+            connection.onReadTimeout();
+        else
+            connection.onIdleTimeout();
+    }
+
+    protected void schedule(long now) {
+        long delay = Long.MAX_VALUE;
+        if (readTimeout > 0)
+            delay = lastRead + readTimeout - now;
+        if (idleTimeout > 0)
+            delay = Math.min(delay, lastActivity + idleTimeout - now);
+        if (delay == Long.MAX_VALUE)
+            return;
+
+        timeout = timer.schedule(this, delay, TimeUnit.NANOSECONDS);
+    }
+}
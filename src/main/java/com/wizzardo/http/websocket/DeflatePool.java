@@ -0,0 +1,49 @@
+package com.wizzardo.http.websocket;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Reuses raw (nowrap) {@link Inflater}s and {@link Deflater}s, so native memory is not allocated for every message.
+ * Instances that do not fit into the pool are ended.
+ */
+public class DeflatePool {
+    public static final DeflatePool DEFAULT = new DeflatePool(Deflater.DEFAULT_COMPRESSION, 256);
+
+    protected final int level;
+    protected final ArrayBlockingQueue<Inflater> inflaters;
+    protected final ArrayBlockingQueue<Deflater> deflaters;
+
+    public DeflatePool(int level, int capacity) {
+        this.level = level;
+        inflaters = new ArrayBlockingQueue<Inflater>(capacity);
+        deflaters = new ArrayBlockingQueue<Deflater>(capacity);
+    }
+
+    public Inflater acquireInflater() {
+        Inflater inflater = inflaters.poll();
+        return inflater != null ? inflater : new Inflater(true);
+    }
+
+    public void release(Inflater inflater) {
+        inflater.reset();
+        if (!inflaters.offer(inflater))
+            inflater.end();
+    }
+
+    public Deflater acquireDeflater() {
+        Deflater deflater = deflaters.poll();
+        return deflater != null ? deflater : new Deflater(level, true);
+    }
+
+    public void release(Deflater deflater) {
+        deflater.reset();
+        if (!deflaters.offer(deflater))
+            deflater.end();
+    }
+
+    public int getLevel() {
+        return level;
+    }
+}
@@ -0,0 +1,93 @@
+package com.wizzardo.http.websocket;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single selector thread that drives many {@link NioWebSocketClient}s
+ */
+public class EventLoop extends Thread {
+    protected final Selector selector;
+    protected final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    protected volatile boolean running = true;
+
+    public EventLoop(String name) throws IOException {
+        super(name);
+        setDaemon(true);
+        selector = Selector.open();
+    }
+
+    public boolean inEventLoop() {
+        return Thread.currentThread() == this;
+    }
+
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop())
+            selector.wakeup();
+    }
+
+    /**
+     * Runs the task in this loop after the delay, waiting is done by the shared {@link HashedWheelTimer}
+     */
+    public HashedWheelTimer.Timeout schedule(final Runnable task, long delayMs) {
+        return HashedWheelTimer.shared().schedule(new Runnable() {
+            @Override
+            public void run() {
+                execute(task);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                if (tasks.isEmpty())
+                    selector.select();
+                else
+                    selector.selectNow();
+
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    ((NioWebSocketClient) key.attachment()).process(key);
+                }
+
+                runTasks();
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        }
+
+        for (SelectionKey key : selector.keys()) {
+            ((NioWebSocketClient) key.attachment()).closeChannel();
+        }
+        try {
+            selector.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    protected void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.wizzardo.http.websocket;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed set of {@link EventLoop}s, connections are assigned to them in round-robin
+ */
+public class EventLoopGroup {
+    protected final EventLoop[] loops;
+    protected final AtomicInteger counter = new AtomicInteger();
+
+    public EventLoopGroup() throws IOException {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public EventLoopGroup(int size) throws IOException {
+        if (size < 1)
+            throw new IllegalArgumentException("size must be > 0");
+
+        loops = new EventLoop[size];
+        for (int i = 0; i < size; i++) {
+            loops[i] = new EventLoop("websocket-event-loop-" + i);
+            loops[i].start();
+        }
+    }
+
+    public EventLoop next() {
+        return loops[(counter.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+    }
+
+    public int size() {
+        return loops.length;
+    }
+
+    public void shutdown() {
+        for (EventLoop loop : loops) {
+            loop.shutdown();
+        }
+    }
+}
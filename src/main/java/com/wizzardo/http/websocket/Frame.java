@@ -3,7 +3,11 @@ package com.wizzardo.http.websocket;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Random;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ThreadLocalRandom;
 
 import static com.wizzardo.http.websocket.Charsets.UTF_8;
 
@@ -13,6 +17,18 @@ import static com.wizzardo.http.websocket.Charsets.UTF_8;
  */
 public class Frame {
     public static final int MAX_HEADER_LENGTH = 14;
+    public static final int STATUS_MESSAGE_TOO_BIG = 1009;
+
+    /**
+     * Peer sent a frame bigger than the limit, the connection should be closed with {@link #STATUS_MESSAGE_TOO_BIG}
+     */
+    public static class TooBigException extends ProtocolException {
+        private static final long serialVersionUID = 1L;
+
+        public TooBigException(String message) {
+            super(message);
+        }
+    }
 
     public static final int FINAL_FRAME = 1 << 7;
     public static final int MASKED = 1 << 7;
@@ -28,7 +44,6 @@ public class Frame {
     public static final byte OPCODE_PONG = 10;
     public static final int LENGTH_FIRST_BYTE = 0x7f;
 
-    protected static final Random RANDOM = new Random();
     protected static final ByteArraySupplier DEFAULT_BYTE_ARRAY_SUPPLIER = new ByteArraySupplier() {
         @Override
         public byte[] supply(int minLength) {
@@ -41,13 +56,15 @@ public class Frame {
     protected byte opcode = OPCODE_TEXT_FRAME;
     protected boolean masked;
     protected int length;
+    protected long payloadLength;
     protected byte[] maskingKey;
     protected boolean complete;
     protected byte[] data;
     protected int offset;
     protected int read;
     protected boolean readHeaders = false;
-    protected int limit;
+    protected long limit;
+    protected boolean view;
     protected ByteArraySupplier byteArraySupplier;
 
     public Frame(byte[] data, int offset, int length) {
@@ -77,6 +94,7 @@ public class Frame {
             this.offset = offset;
             this.length = length;
         }
+        payloadLength = length;
         this.opcode = opcode;
         byteArraySupplier = DEFAULT_BYTE_ARRAY_SUPPLIER;
     }
@@ -87,12 +105,16 @@ public class Frame {
     }
 
     public Frame(int limit) {
+        this((long) limit);
+    }
+
+    public Frame(long limit) {
         this.limit = limit;
         byteArraySupplier = DEFAULT_BYTE_ARRAY_SUPPLIER;
     }
 
     public Frame() {
-        this(Integer.MAX_VALUE);
+        this(Long.MAX_VALUE);
     }
 
     public static Frame closeFrame(int status) {
@@ -120,7 +142,7 @@ public class Frame {
 
     @Override
     public String toString() {
-        return new String(data, offset, length);
+        return new String(data, offset, length, UTF_8);
     }
 
     public byte[] getData() {
@@ -135,8 +157,24 @@ public class Frame {
         return length;
     }
 
+    /**
+     * @return payload length from the header, can be bigger than {@link #getLength()} for frames that do not fit into memory
+     */
+    public long getPayloadLength() {
+        return payloadLength;
+    }
+
     public String asString() {
-        return new String(asBytes(), UTF_8);
+        return new String(data, offset, length, UTF_8);
+    }
+
+    /**
+     * @return payload without copying it
+     */
+    public ByteBuffer asByteBuffer() {
+        if (data == null)
+            return ByteBuffer.allocate(0);
+        return ByteBuffer.wrap(data, offset, length).slice();
     }
 
     public byte[] asBytes() {
@@ -162,6 +200,35 @@ public class Frame {
         return byteArraySupplier;
     }
 
+    /**
+     * Returns payload array to the {@link ByteArraySupplier}, frame must not be used afterwards
+     */
+    public void release() {
+        if (data != null && byteArraySupplier != null && !view)
+            byteArraySupplier.release(data);
+        data = null;
+        view = false;
+    }
+
+    public boolean isView() {
+        return view;
+    }
+
+    /**
+     * Copies payload of a frame created by {@link #readView(byte[], int, int)} into its own array
+     */
+    public Frame detach() {
+        if (!view)
+            return this;
+
+        byte[] bytes = byteArraySupplier.supply(MAX_HEADER_LENGTH + length);
+        System.arraycopy(data, offset, bytes, MAX_HEADER_LENGTH, length);
+        data = bytes;
+        offset = MAX_HEADER_LENGTH;
+        view = false;
+        return this;
+    }
+
     public void write(OutputStream out) throws IOException {
         if (data == null) {
             data = new byte[MAX_HEADER_LENGTH];
@@ -169,12 +236,61 @@ public class Frame {
         }
 
         int headerOffset = getHeader(data);
-        out.write(data, headerOffset, length + MAX_HEADER_LENGTH - headerOffset);
+        out.write(data, headerOffset, offset + length - headerOffset);
+    }
+
+    /**
+     * Writes the whole frame with a gathering write, the channel is expected to be in blocking mode
+     */
+    public void write(GatheringByteChannel channel) throws IOException {
+        ByteBuffer[] buffers = new ByteBuffer[getBufferCount()];
+        toByteBuffers(buffers, 0);
+        while (buffers[buffers.length - 1].hasRemaining()) {
+            channel.write(buffers);
+        }
+    }
+
+    /**
+     * @return number of buffers that {@link #toByteBuffers(ByteBuffer[], int)} puts into the array
+     */
+    public int getBufferCount() {
+        return 1;
+    }
+
+    /**
+     * Wraps header and payload into buffers for a gathering write
+     *
+     * @return index after the last added buffer
+     */
+    public int toByteBuffers(ByteBuffer[] buffers, int index) {
+        buffers[index] = ByteBuffer.wrap(getFrameBytes(), getFrameOffset(), getFrameLength());
+        return index + 1;
+    }
+
+    /**
+     * Copies header and payload into the array
+     *
+     * @return offset after the frame
+     */
+    public int copyFrame(byte[] bytes, int offset) {
+        int length = getFrameLength();
+        System.arraycopy(getFrameBytes(), getFrameOffset(), bytes, offset, length);
+        return offset + length;
     }
 
     protected void mask(byte[] data, byte[] mask, int offset, int length) {
-        for (int i = offset; i < length + offset; i++) {
-            data[i] = (byte) (data[i] ^ mask[(i - offset) % 4]);
+        int i = offset;
+        int to = offset + length;
+        if (length >= 8) {
+            long key = ((mask[0] & 0xffL) << 24) | ((mask[1] & 0xffL) << 16) | ((mask[2] & 0xffL) << 8) | (mask[3] & 0xffL);
+            key |= key << 32;
+            ByteBuffer bb = ByteBuffer.wrap(data);
+            for (; i + 8 <= to; i += 8) {
+                bb.putLong(i, bb.getLong(i) ^ key);
+            }
+        }
+        for (; i < to; i++) {
+            data[i] = (byte) (data[i] ^ mask[(i - offset) & 3]);
         }
     }
 
@@ -187,13 +303,37 @@ public class Frame {
         return this;
     }
 
+    /**
+     * Unmasks a part of the payload that is handled outside of this frame
+     *
+     * @param position index of the first given byte within the payload
+     */
+    public void unmask(byte[] bytes, int offset, int length, int position) {
+        if (!masked)
+            return;
+
+        int k = position & 3;
+        byte[] key = maskingKey;
+        if (k != 0)
+            key = new byte[]{key[k], key[(k + 1) & 3], key[(k + 2) & 3], key[(k + 3) & 3]};
+        mask(bytes, key, offset, length);
+    }
+
+    public byte getOpcode() {
+        return opcode;
+    }
+
+    public boolean isControl() {
+        return opcode >= OPCODE_CONNECTION_CLOSE;
+    }
+
     public Frame mask() {
         if (masked)
             return this;
 
         masked = true;
         if (maskingKey == null)
-            maskingKey = intToBytes(RANDOM.nextInt());
+            maskingKey = intToBytes(ThreadLocalRandom.current().nextInt());
         mask(data, maskingKey, offset, length);
         return this;
     }
@@ -220,6 +360,25 @@ public class Frame {
         complete = true;
     }
 
+    /**
+     * Reads remaining payload directly from the channel
+     *
+     * @return number of bytes read or -1 if the end of stream is reached
+     */
+    public int read(ReadableByteChannel channel) throws IOException {
+        int r = channel.read(ByteBuffer.wrap(data, offset + read, length - read));
+        if (r > 0) {
+            read += r;
+            if (read == length)
+                complete = true;
+        }
+        return r;
+    }
+
+    public int getRemaining() {
+        return readHeaders ? length - read : 0;
+    }
+
     public boolean isComplete() {
         return complete;
     }
@@ -228,7 +387,19 @@ public class Frame {
         return finalFrame;
     }
 
-    public int read(byte[] bytes, int offset, int length) {
+    public int read(byte[] bytes, int offset, int length) throws TooBigException {
+        return read(bytes, offset, length, false);
+    }
+
+    /**
+     * Same as {@link #read(byte[], int, int)}, but if the whole payload is available the frame references
+     * the given array instead of copying it. Such frame has to be {@link #detach() detached} before the array is reused.
+     */
+    public int readView(byte[] bytes, int offset, int length) throws TooBigException {
+        return read(bytes, offset, length, true);
+    }
+
+    protected int read(byte[] bytes, int offset, int length, boolean view) throws TooBigException {
         if (complete)
             return 0;
 
@@ -240,58 +411,93 @@ public class Frame {
                 complete = true;
             return r;
         } else {
-            if (offset + 2 > length)
+            int r = readHeader(bytes, offset, length);
+            if (r == 0)
                 return 0;
 
-            byte b = bytes[offset];
-            finalFrame = (b & FINAL_FRAME) != 0;
-            rsv1 = (byte) (b & RSV1);
-            rsv2 = (byte) (b & RSV2);
-            rsv3 = (byte) (b & RSV3);
-
-            opcode = (byte) (b & OPCODE);
-
-            b = bytes[offset + 1];
-            masked = (b & MASKED) != 0;
-            this.length = b & LENGTH_FIRST_BYTE;
-            int r = 2;
-            if (this.length == 126) {
-                r += 2;
-                if (offset + r > length)
-                    return 0;
-                this.length = ((bytes[offset + 2] & 0xff) << 8) + (bytes[offset + 3] & 0xff);
-            } else if (this.length == 127) {
-                r += 8;
-                if (offset + r > length)
-                    return 0;
-                this.length =
-//                        ((long) (bytes[offset + 2] & 0xff) << 56)
-//                        + ((long) (bytes[offset + 3] & 0xff) << 48)
-//                        + ((long) (bytes[offset + 4] & 0xff) << 40)
-//                        + ((long) (bytes[offset + 5] & 0xff) << 32)  // not support long frames
-                        +((bytes[offset + 6] & 0xff) << 24)
-                                + ((bytes[offset + 7] & 0xff) << 16)
-                                + ((bytes[offset + 8] & 0xff) << 8)
-                                + (bytes[offset + 9] & 0xff);
-                if (this.length > limit)
-                    throw new IllegalStateException("Max frame length is exceeded. " + this.length + ">" + limit);
-            }
-            if (masked) {
-                if (offset + r + 4 > length)
-                    return 0;
-                maskingKey = new byte[]{bytes[offset + r], bytes[offset + r + 1], bytes[offset + r + 2], bytes[offset + r + 3]};
-                r += 4;
-            }
+            return r + readPayload(bytes, offset + r, length - r, view);
+        }
+    }
 
-            complete = length - r >= this.length;
+    /**
+     * Starts reading payload of a frame which header was parsed by {@link #readHeader(byte[], int, int)}
+     *
+     * @return number of consumed bytes
+     */
+    protected int readPayload(byte[] bytes, int offset, int length, boolean view) throws TooBigException {
+        if (payloadLength > Integer.MAX_VALUE - MAX_HEADER_LENGTH)
+            throw new TooBigException("Frame is too big to be read into memory: " + payloadLength);
 
-            data = byteArraySupplier.supply(MAX_HEADER_LENGTH + this.length);
-            read = Math.min(length - r, this.length);
-            System.arraycopy(bytes, r, data, MAX_HEADER_LENGTH, read);
-            this.offset = MAX_HEADER_LENGTH;
-            readHeaders = true;
-            return read + r;
+        complete = length >= this.length;
+        readHeaders = true;
+
+        if (view && complete) {
+            this.view = true;
+            data = bytes;
+            this.offset = offset;
+            read = this.length;
+            return read;
+        }
+
+        data = byteArraySupplier.supply(MAX_HEADER_LENGTH + this.length);
+        read = Math.min(length, this.length);
+        System.arraycopy(bytes, offset, data, MAX_HEADER_LENGTH, read);
+        this.offset = MAX_HEADER_LENGTH;
+        return read;
+    }
+
+    /**
+     * Parses only the header, payload is left to the caller
+     *
+     * @return length of the header or 0 if there is not enough data
+     */
+    public int readHeader(byte[] bytes, int offset, int length) throws TooBigException {
+        if (length < 2)
+            return 0;
+
+        byte b = bytes[offset];
+        finalFrame = (b & FINAL_FRAME) != 0;
+        rsv1 = (byte) (b & RSV1);
+        rsv2 = (byte) (b & RSV2);
+        rsv3 = (byte) (b & RSV3);
+
+        opcode = (byte) (b & OPCODE);
+
+        b = bytes[offset + 1];
+        masked = (b & MASKED) != 0;
+        this.length = b & LENGTH_FIRST_BYTE;
+        int r = 2;
+        if (this.length == 126) {
+            r += 2;
+            if (r > length)
+                return 0;
+            this.length = ((bytes[offset + 2] & 0xff) << 8) + (bytes[offset + 3] & 0xff);
+            payloadLength = this.length;
+        } else if (this.length == 127) {
+            r += 8;
+            if (r > length)
+                return 0;
+            payloadLength = ((long) (bytes[offset + 2] & 0x7f) << 56)
+                    + ((long) (bytes[offset + 3] & 0xff) << 48)
+                    + ((long) (bytes[offset + 4] & 0xff) << 40)
+                    + ((long) (bytes[offset + 5] & 0xff) << 32)
+                    + ((long) (bytes[offset + 6] & 0xff) << 24)
+                    + ((bytes[offset + 7] & 0xff) << 16)
+                    + ((bytes[offset + 8] & 0xff) << 8)
+                    + (bytes[offset + 9] & 0xff);
+            if (payloadLength > limit)
+                throw new TooBigException("Max frame length is exceeded. " + payloadLength + ">" + limit);
+            this.length = (int) Math.min(payloadLength, Integer.MAX_VALUE);
+        } else {
+            payloadLength = this.length;
+        }
+        if (masked) {
+            if (r + 4 > length)
+                return 0;
+            maskingKey = new byte[]{bytes[offset + r], bytes[offset + r + 1], bytes[offset + r + 2], bytes[offset + r + 3]};
+            r += 4;
         }
+        return r;
     }
 
     public static boolean hasHeaders(byte[] bytes, int offset, int length) {
@@ -324,7 +530,7 @@ public class Frame {
 
     public int getHeader(byte[] header) {
         int headerOffset = offset - calculateHeadersSize(length, masked);
-        int value = opcode;
+        int value = opcode | rsv1 | rsv2 | rsv3;
         if (finalFrame)
             value |= FINAL_FRAME;
         header[headerOffset] = (byte) value;
@@ -346,6 +552,10 @@ public class Frame {
             if (masked)
                 value |= MASKED;
             header[headerOffset + 1] = (byte) value;
+            header[headerOffset + 2] = 0;
+            header[headerOffset + 3] = 0;
+            header[headerOffset + 4] = 0;
+            header[headerOffset + 5] = 0;
             header[headerOffset + 6] = (byte) (length >> 24);
             header[headerOffset + 7] = (byte) (length >> 16);
             header[headerOffset + 8] = (byte) (length >> 8);
@@ -374,6 +584,14 @@ public class Frame {
         this.opcode = opcode;
     }
 
+    public boolean isRsv1() {
+        return rsv1 != 0;
+    }
+
+    public void setRsv1(boolean rsv1) {
+        this.rsv1 = (byte) (rsv1 ? RSV1 : 0);
+    }
+
     public boolean isMasked() {
         return masked;
     }
@@ -398,7 +616,7 @@ public class Frame {
     }
 
     public int getFrameOffset() {
-        return MAX_HEADER_LENGTH - calculateHeadersSize(length, masked);
+        return offset - calculateHeadersSize(length, masked);
     }
 
     public int getFrameLength() {
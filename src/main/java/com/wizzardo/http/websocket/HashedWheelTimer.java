@@ -0,0 +1,297 @@
+package com.wizzardo.http.websocket;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Timing wheel (Varghese and Lauck) driven by a single daemon thread: timeouts are hashed into buckets by their deadline,
+ * so scheduling and cancelling cost O(1) no matter how many connections are waiting.
+ * Precision is one tick, tasks are run on the timer thread and must not block.
+ * {@link #shared()} instance is used by all clients for reconnect pauses, timeouts and keepalive,
+ * blocking work started by its tasks goes to {@link #sharedBlockingExecutor()}.
+ */
+public class HashedWheelTimer {
+    public static final long DEFAULT_TICK_MS = 10;
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    protected static volatile HashedWheelTimer shared;
+    protected static volatile ExecutorService sharedBlockingExecutor;
+
+    protected final Bucket[] wheel;
+    protected final int mask;
+    protected final long tickNanos;
+    protected final String name;
+    protected final Queue<Timeout> added = new ConcurrentLinkedQueue<Timeout>();
+    protected final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<Timeout>();
+    protected final AtomicInteger pending = new AtomicInteger();
+    protected final AtomicInteger state = new AtomicInteger();
+    protected final long startTime = System.nanoTime();
+    protected long tick;
+    protected Thread thread;
+
+    public static HashedWheelTimer shared() {
+        HashedWheelTimer timer = shared;
+        if (timer == null) {
+            synchronized (HashedWheelTimer.class) {
+                timer = shared;
+                if (timer == null)
+                    shared = timer = new HashedWheelTimer("websocket-timer");
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * Cached pool of daemon threads for blocking work started by timer tasks, like socket writes and handshakes
+     */
+    public static Executor sharedBlockingExecutor() {
+        ExecutorService executor = sharedBlockingExecutor;
+        if (executor == null) {
+            synchronized (HashedWheelTimer.class) {
+                executor = sharedBlockingExecutor;
+                if (executor == null)
+                    sharedBlockingExecutor = executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                        final AtomicInteger counter = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "websocket-blocking-" + counter.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            }
+        }
+        return executor;
+    }
+
+    public HashedWheelTimer(String name) {
+        this(name, DEFAULT_TICK_MS, TimeUnit.MILLISECONDS, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * @param wheelSize number of buckets, rounded up to a power of two. Timeouts longer than one turn of the wheel
+     *                  stay in their bucket for several rounds
+     */
+    public HashedWheelTimer(String name, long tick, TimeUnit unit, int wheelSize) {
+        if (tick <= 0)
+            throw new IllegalArgumentException("tick must be > 0");
+        if (wheelSize < 1 || wheelSize > 1 << 30)
+            throw new IllegalArgumentException("wheelSize must be in [1, 2^30]");
+
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize)
+            size <<= 1;
+
+        this.name = name;
+        tickNanos = unit.toNanos(tick);
+        wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        mask = size - 1;
+    }
+
+    public static class Timeout {
+        protected static final int INIT = 0;
+        protected static final int CANCELLED = 1;
+        protected static final int EXPIRED = 2;
+        protected static final AtomicIntegerFieldUpdater<Timeout> STATE = AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        protected final HashedWheelTimer timer;
+        protected final Runnable task;
+        protected final long deadline;
+        protected volatile int state;
+        protected long remainingRounds;
+        protected Bucket bucket;
+        protected Timeout next;
+        protected Timeout prev;
+
+        protected Timeout(HashedWheelTimer timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return false if the task was already run or cancelled
+         */
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, INIT, CANCELLED))
+                return false;
+
+            timer.cancelled.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        protected void expire() {
+            if (!STATE.compareAndSet(this, INIT, EXPIRED))
+                return;
+
+            try {
+                task.run();
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Doubly-linked list of timeouts, accessed only by the timer thread
+     */
+    protected static class Bucket {
+        protected Timeout head;
+        protected Timeout tail;
+
+        protected void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        protected Timeout remove(Timeout timeout) {
+            Timeout next = timeout.next;
+            if (timeout.prev != null)
+                timeout.prev.next = next;
+            if (next != null)
+                next.prev = timeout.prev;
+            if (timeout == head)
+                head = next;
+            if (timeout == tail)
+                tail = timeout.prev;
+
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+            timeout.timer.pending.decrementAndGet();
+            return next;
+        }
+
+        protected void expire() {
+            Timeout timeout = head;
+            while (timeout != null) {
+                if (timeout.remainingRounds <= 0) {
+                    Timeout next = remove(timeout);
+                    timeout.expire();
+                    timeout = next;
+                } else if (timeout.isCancelled()) {
+                    timeout = remove(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                    timeout = timeout.next;
+                }
+            }
+        }
+    }
+
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        start();
+        pending.incrementAndGet();
+        Timeout timeout = new Timeout(this, task, System.nanoTime() - startTime + unit.toNanos(Math.max(delay, 0)));
+        added.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * @return number of scheduled timeouts which are not yet run or removed after cancellation
+     */
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    protected void start() {
+        if (state.get() != 0 || !state.compareAndSet(0, 1))
+            return;
+
+        tick = (System.nanoTime() - startTime) / tickNanos;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                HashedWheelTimer.this.run();
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the timer thread, pending tasks are not run
+     */
+    public void stop() {
+        if (state.getAndSet(2) == 1 && thread != null)
+            thread.interrupt();
+    }
+
+    protected void run() {
+        while (state.get() == 1) {
+            if (!waitForNextTick())
+                return;
+
+            removeCancelled();
+            transferAdded();
+            wheel[(int) (tick & mask)].expire();
+            tick++;
+        }
+    }
+
+    /**
+     * @return false if the timer was stopped
+     */
+    protected boolean waitForNextTick() {
+        long deadline = tickNanos * (tick + 1);
+        while (true) {
+            long sleep = deadline - (System.nanoTime() - startTime);
+            if (sleep <= 0)
+                return true;
+
+            try {
+                Thread.sleep(TimeUnit.NANOSECONDS.toMillis(sleep + 999999));
+            } catch (InterruptedException e) {
+                if (state.get() != 1)
+                    return false;
+            }
+        }
+    }
+
+    protected void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null)
+                timeout.bucket.remove(timeout);
+        }
+    }
+
+    protected void transferAdded() {
+        Timeout timeout;
+        while ((timeout = added.poll()) != null) {
+            if (timeout.isCancelled()) {
+                pending.decrementAndGet();
+                continue;
+            }
+
+            long ticks = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (ticks - tick) / wheel.length;
+            wheel[(int) (Math.max(ticks, tick) & mask)].add(timeout);
+        }
+    }
+}
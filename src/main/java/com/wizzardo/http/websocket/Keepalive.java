@@ -0,0 +1,240 @@
+package com.wizzardo.http.websocket;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Matches pongs to pings by their 8-byte payload and keeps smoothed round-trip time, like TCP does (RFC 6298).
+ * When started, sends pings from the {@link HashedWheelTimer} and reports the connection as dead
+ * after the given number of pings in a row were not answered before the next one is due.
+ */
+public class Keepalive {
+
+    public interface Connection {
+        boolean isConnected();
+
+        /**
+         * Called on the timer thread, should only queue the ping and not wait for the socket
+         */
+        void sendPing(byte[] payload) throws IOException;
+
+        void onKeepaliveTimeout(int missedPongs);
+    }
+
+    public static class Ping {
+        protected final long id;
+        protected final byte[] payload;
+        protected final long sentAt = System.nanoTime();
+        protected final CountDownLatch pong = new CountDownLatch(1);
+        protected volatile long rtt = -1;
+
+        protected Ping(long id) {
+            this.id = id;
+            payload = new byte[8];
+            for (int i = 7; i >= 0; i--) {
+                payload[i] = (byte) id;
+                id >>>= 8;
+            }
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        public boolean isAnswered() {
+            return rtt >= 0;
+        }
+
+        /**
+         * @return round-trip time in nanoseconds or -1 if pong did not come in time
+         */
+        public long await(long timeout, TimeUnit unit) throws InterruptedException {
+            pong.await(timeout, unit);
+            return rtt;
+        }
+    }
+
+    protected final ConcurrentHashMap<Long, Ping> pending = new ConcurrentHashMap<Long, Ping>();
+    protected final AtomicLong sequence = new AtomicLong(ThreadLocalRandom.current().nextLong());
+    protected volatile long smoothedRtt = -1;
+    protected volatile long rttVariance;
+    protected volatile long lastRtt = -1;
+    protected volatile int missedPongs;
+    protected volatile Task task;
+    protected final HashedWheelTimer timer;
+
+    public Keepalive() {
+        this(HashedWheelTimer.shared());
+    }
+
+    public Keepalive(HashedWheelTimer timer) {
+        this.timer = timer;
+    }
+
+    protected class Task implements Runnable {
+        protected final Connection connection;
+        protected final long interval;
+        protected final int maxMissedPongs;
+        protected volatile HashedWheelTimer.Timeout timeout;
+        protected volatile boolean cancelled;
+
+        protected Task(Connection connection, long interval, int maxMissedPongs) {
+            this.connection = connection;
+            this.interval = interval;
+            this.maxMissedPongs = maxMissedPongs;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled)
+                return;
+
+            tick(connection, interval, maxMissedPongs);
+            schedule();
+        }
+
+        protected void schedule() {
+            if (!cancelled)
+                timeout = timer.schedule(this, interval, TimeUnit.NANOSECONDS);
+        }
+
+        protected void cancel() {
+            cancelled = true;
+            HashedWheelTimer.Timeout timeout = this.timeout;
+            if (timeout != null)
+                timeout.cancel();
+        }
+    }
+
+    /**
+     * Registers a new ping, its payload should be sent in a ping frame
+     */
+    public Ping newPing() {
+        Ping ping = new Ping(sequence.incrementAndGet());
+        pending.put(ping.id, ping);
+        return ping;
+    }
+
+    public void cancel(Ping ping) {
+        pending.remove(ping.id);
+    }
+
+    /**
+     * @return true if the pong answers a registered ping
+     */
+    public boolean onPong(byte[] bytes, int offset, int length) {
+        if (length != 8)
+            return false;
+
+        long id = 0;
+        for (int i = 0; i < 8; i++) {
+            id = (id << 8) | (bytes[offset + i] & 0xff);
+        }
+        Ping ping = pending.remove(id);
+        if (ping == null)
+            return false;
+
+        long rtt = System.nanoTime() - ping.sentAt;
+        updateRtt(rtt);
+        missedPongs = 0;
+        ping.rtt = rtt;
+        ping.pong.countDown();
+        return true;
+    }
+
+    protected synchronized void updateRtt(long rtt) {
+        lastRtt = rtt;
+        if (smoothedRtt < 0) {
+            smoothedRtt = rtt;
+            rttVariance = rtt / 2;
+        } else {
+            rttVariance = (3 * rttVariance + Math.abs(smoothedRtt - rtt)) / 4;
+            smoothedRtt = (7 * smoothedRtt + rtt) / 8;
+        }
+    }
+
+    /**
+     * Starts sending pings every interval, the connection is reported dead after maxMissedPongs unanswered pings
+     */
+    public void start(Connection connection, long interval, TimeUnit unit, int maxMissedPongs) {
+        if (maxMissedPongs < 1)
+            throw new IllegalArgumentException("maxMissedPongs must be > 0");
+
+        stop();
+        Task task = new Task(connection, unit.toNanos(interval), maxMissedPongs);
+        this.task = task;
+        task.schedule();
+    }
+
+    public void stop() {
+        Task task = this.task;
+        if (task != null)
+            task.cancel();
+        this.task = null;
+    }
+
+    public boolean isStarted() {
+        return task != null;
+    }
+
+    /**
+     * Forgets pending pings, should be called when connection is re-established
+     */
+    public void reset() {
+        pending.clear();
+        missedPongs = 0;
+    }
+
+    protected void tick(Connection connection, long timeout, int maxMissedPongs) {
+        if (!connection.isConnected()) {
+            reset();
+            return;
+        }
+
+        long now = System.nanoTime();
+        Iterator<Ping> iterator = pending.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().sentAt >= timeout) {
+                iterator.remove();
+                missedPongs++;
+            }
+        }
+
+        if (missedPongs >= maxMissedPongs) {
+            int missed = missedPongs;
+            reset();
+            connection.onKeepaliveTimeout(missed);
+            return;
+        }
+
+        try {
+            connection.sendPing(newPing().getPayload());
+        } catch (IOException ignored) {
+            // reader will get the same error
+        }
+    }
+
+    /**
+     * @return smoothed round-trip time in nanoseconds or -1 if there were no pongs yet
+     */
+    public long getSmoothedRtt() {
+        return smoothedRtt;
+    }
+
+    public long getRttVariance() {
+        return rttVariance;
+    }
+
+    public long getLastRtt() {
+        return lastRtt;
+    }
+
+    /**
+     * @return number of pings in a row that were not answered in time
+     */
+    public int getMissedPongs() {
+        return missedPongs;
+    }
+}
@@ -0,0 +1,206 @@
+package com.wizzardo.http.websocket;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * {@link WebSocketMetrics} that accumulates everything in striped counters,
+ * so it can be shared by many clients without contention. Message sizes are kept in log2 buckets.
+ */
+public class LongAdderMetrics implements WebSocketMetrics {
+    /**
+     * Keeps the biggest value, for {@link LongAccumulator}s of maximums
+     */
+    public static final LongBinaryOperator MAX = new LongBinaryOperator() {
+        @Override
+        public long applyAsLong(long left, long right) {
+            return Math.max(left, right);
+        }
+    };
+
+    protected final LongAdder[] framesIn = adders(16);
+    protected final LongAdder[] bytesIn = adders(16);
+    protected final LongAdder[] framesOut = adders(16);
+    protected final LongAdder[] bytesOut = adders(16);
+    protected final LongAdder[] messageSizesIn = adders(64);
+    protected final LongAdder[] messageSizesOut = adders(64);
+    protected final LongAdder handshakes = new LongAdder();
+    protected final LongAdder handshakeNanos = new LongAdder();
+    protected final LongAccumulator handshakeMaxNanos = new LongAccumulator(MAX, 0);
+    protected final LongAdder reconnects = new LongAdder();
+    protected final ConcurrentHashMap<String, LongAdder> reconnectCauses = new ConcurrentHashMap<String, LongAdder>();
+    protected final LongAdder flushes = new LongAdder();
+    protected final LongAdder flushNanos = new LongAdder();
+    protected final LongAccumulator flushMaxNanos = new LongAccumulator(MAX, 0);
+    protected final LongAccumulator outboundQueueDepthMax = new LongAccumulator(MAX, 0);
+    protected volatile int outboundQueueDepth;
+
+    protected static LongAdder[] adders(int size) {
+        LongAdder[] adders = new LongAdder[size];
+        for (int i = 0; i < size; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    protected static int bucket(long size) {
+        return size <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(size - 1);
+    }
+
+    @Override
+    public void onFrameIn(byte opcode, long payloadLength) {
+        framesIn[opcode & Frame.OPCODE].increment();
+        bytesIn[opcode & Frame.OPCODE].add(payloadLength);
+    }
+
+    @Override
+    public void onFrameOut(byte opcode, long payloadLength) {
+        framesOut[opcode & Frame.OPCODE].increment();
+        bytesOut[opcode & Frame.OPCODE].add(payloadLength);
+    }
+
+    @Override
+    public void onMessageIn(long size) {
+        messageSizesIn[bucket(size)].increment();
+    }
+
+    @Override
+    public void onMessageOut(long size) {
+        messageSizesOut[bucket(size)].increment();
+    }
+
+    @Override
+    public void onHandshake(long nanos) {
+        handshakes.increment();
+        handshakeNanos.add(nanos);
+        handshakeMaxNanos.accumulate(nanos);
+    }
+
+    @Override
+    public void onReconnect(Throwable cause) {
+        reconnects.increment();
+        String key = cause == null ? "closed" : cause.getClass().getName();
+        LongAdder counter = reconnectCauses.get(key);
+        if (counter == null) {
+            LongAdder existing = reconnectCauses.putIfAbsent(key, counter = new LongAdder());
+            if (existing != null)
+                counter = existing;
+        }
+        counter.increment();
+    }
+
+    @Override
+    public void onFlush(long nanos) {
+        flushes.increment();
+        flushNanos.add(nanos);
+        flushMaxNanos.accumulate(nanos);
+    }
+
+    @Override
+    public void onOutboundQueueDepth(int depth) {
+        outboundQueueDepth = depth;
+        outboundQueueDepthMax.accumulate(depth);
+    }
+
+    public long getFramesIn(byte opcode) {
+        return framesIn[opcode & Frame.OPCODE].sum();
+    }
+
+    public long getBytesIn(byte opcode) {
+        return bytesIn[opcode & Frame.OPCODE].sum();
+    }
+
+    public long getFramesOut(byte opcode) {
+        return framesOut[opcode & Frame.OPCODE].sum();
+    }
+
+    public long getBytesOut(byte opcode) {
+        return bytesOut[opcode & Frame.OPCODE].sum();
+    }
+
+    public long getBytesIn() {
+        return sum(bytesIn);
+    }
+
+    public long getBytesOut() {
+        return sum(bytesOut);
+    }
+
+    /**
+     * @return number of incoming messages which size is in (2^(i-1), 2^i]
+     */
+    public long[] getMessageSizesIn() {
+        return sums(messageSizesIn);
+    }
+
+    public long[] getMessageSizesOut() {
+        return sums(messageSizesOut);
+    }
+
+    public long getHandshakes() {
+        return handshakes.sum();
+    }
+
+    public long getHandshakeNanos() {
+        return handshakeNanos.sum();
+    }
+
+    public long getHandshakeMaxNanos() {
+        return handshakeMaxNanos.get();
+    }
+
+    public long getReconnects() {
+        return reconnects.sum();
+    }
+
+    /**
+     * @return reconnects by class name of the cause, 'closed' for connections closed by the server
+     */
+    public Map<String, Long> getReconnectCauses() {
+        Map<String, Long> result = new HashMap<String, Long>();
+        for (Map.Entry<String, LongAdder> entry : reconnectCauses.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().sum());
+        }
+        return result;
+    }
+
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    public long getFlushNanos() {
+        return flushNanos.sum();
+    }
+
+    public long getFlushMaxNanos() {
+        return flushMaxNanos.get();
+    }
+
+    public int getOutboundQueueDepth() {
+        return outboundQueueDepth;
+    }
+
+    public long getOutboundQueueDepthMax() {
+        return outboundQueueDepthMax.get();
+    }
+
+    protected static long sum(LongAdder[] adders) {
+        long sum = 0;
+        for (LongAdder adder : adders) {
+            sum += adder.sum();
+        }
+        return sum;
+    }
+
+    protected static long[] sums(LongAdder[] adders) {
+        long[] sums = new long[adders.length];
+        for (int i = 0; i < adders.length; i++) {
+            sums[i] = adders[i].sum();
+        }
+        return sums;
+    }
+}
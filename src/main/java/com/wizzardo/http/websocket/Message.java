@@ -1,5 +1,9 @@
 package com.wizzardo.http.websocket;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -11,6 +15,10 @@ import static com.wizzardo.http.websocket.Charsets.UTF_8;
  */
 public class Message {
     protected List<Frame> frames = new ArrayList<Frame>();
+    protected SpillFile spill;
+    protected byte spillOpcode;
+    protected boolean spillComplete;
+    protected boolean detached;
 
     public Message() {
     }
@@ -31,7 +39,98 @@ public class Message {
         frames.clear();
     }
 
+    /**
+     * Releases payloads of all frames and clears the message
+     */
+    public void release() {
+        for (Frame frame : frames) {
+            frame.release();
+        }
+        frames.clear();
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Copies frames that reference a shared read buffer, so the message can be kept after the callback returns.
+     * Spill file of such message is not deleted until the message is {@link #release() released}.
+     */
+    public Message detach() {
+        detachFrames();
+        detached = true;
+        return this;
+    }
+
+    /**
+     * Copies payload of frames that reference the read buffer, spill file is still deleted after the message is handled
+     */
+    Message detachFrames() {
+        for (Frame frame : frames) {
+            frame.detach();
+        }
+        return this;
+    }
+
+    /**
+     * Moves the message into the file, payload of already added frames is expected to be written there by the caller
+     */
+    void spill(SpillFile file, byte opcode) {
+        for (Frame frame : frames) {
+            frame.release();
+        }
+        frames.clear();
+        spill = file;
+        spillOpcode = opcode;
+    }
+
+    void spillComplete() {
+        spillComplete = true;
+    }
+
+    /**
+     * Deletes spill file unless the message was detached
+     */
+    void releaseSpill() {
+        if (spill != null && !detached)
+            release();
+    }
+
+    /**
+     * @return true if payload is kept in a temporary file instead of frames
+     */
+    public boolean isSpilled() {
+        return spill != null;
+    }
+
+    public SpillFile getSpillFile() {
+        return spill;
+    }
+
+    /**
+     * @return channel of the spill file or null if the message is kept in memory
+     */
+    public FileChannel getFileChannel() {
+        return spill != null ? spill.getChannel() : null;
+    }
+
+    /**
+     * @return payload as a read-only buffer, spilled messages are mapped into memory
+     */
+    public ByteBuffer asByteBuffer() throws IOException {
+        if (spill != null)
+            return spill.map();
+        if (frames.size() == 1)
+            return get(0).asByteBuffer().asReadOnlyBuffer();
+        return ByteBuffer.wrap(asBytes()).asReadOnlyBuffer();
+    }
+
     public boolean isComplete() {
+        if (spill != null)
+            return spillComplete;
         if (frames.isEmpty())
             return false;
 
@@ -40,6 +139,8 @@ public class Message {
     }
 
     public void add(Frame frame) {
+        if (spill != null)
+            throw new IllegalStateException("Message is spilled into a file");
         if (!frames.isEmpty()) {
             last().setIsFinalFrame(false);
             frame.setOpcode(Frame.OPCODE_CONTINUATION_FRAME);
@@ -59,12 +160,23 @@ public class Message {
         return frames.size();
     }
 
+    /**
+     * @return true if RSV1 bit of the first frame is set, which means the payload is compressed with permessage-deflate
+     */
+    public boolean isCompressed() {
+        return size() > 0 && get(0).isRsv1();
+    }
+
     public boolean isTextMessage() {
-        return size() > 0 && last().opcode == Frame.OPCODE_TEXT_FRAME;
+        if (spill != null)
+            return spillOpcode == Frame.OPCODE_TEXT_FRAME;
+        return size() > 0 && get(0).opcode == Frame.OPCODE_TEXT_FRAME;
     }
 
     public boolean isBinaryMessage() {
-        return size() > 0 && last().opcode == Frame.OPCODE_BINARY_FRAME;
+        if (spill != null)
+            return spillOpcode == Frame.OPCODE_BINARY_FRAME;
+        return size() > 0 && get(0).opcode == Frame.OPCODE_BINARY_FRAME;
     }
 
     public Message append(String s) {
@@ -80,13 +192,44 @@ public class Message {
         return this;
     }
 
+    /**
+     * Adds remaining bytes of the buffer as a binary frame without copying them
+     */
+    public Message append(ByteBuffer payload) {
+        add(new ByteBufferFrame(payload));
+        return this;
+    }
+
     public Message append(byte[] bytes, int offset, int length, byte opcode) {
         add(new Frame(opcode, bytes, offset, length));
         return this;
     }
 
     public String asString() {
-        return new String(asBytes(), UTF_8);
+        if (spill == null && frames.size() == 1)
+            return get(0).asString();
+        if (spill != null)
+            return new String(asBytes(), UTF_8);
+        return decode().toString();
+    }
+
+    /**
+     * Decodes frames one by one without joining them into a single array first
+     *
+     * @return text that is not copied into a {@link String}
+     */
+    public CharSequence asCharSequence() {
+        if (spill != null)
+            return asString();
+        return decode().asCharSequence();
+    }
+
+    protected Utf8Decoder decode() {
+        Utf8Decoder decoder = new Utf8Decoder(getBytesLength());
+        for (Frame frame : frames) {
+            decoder.decode(frame.getData(), frame.getOffset(), frame.getLength());
+        }
+        return decoder.finish();
     }
 
     public byte[] asBytes() {
@@ -96,6 +239,14 @@ public class Message {
     }
 
     public int asBytes(byte[] result) {
+        if (spill != null) {
+            try {
+                return spill.read(0, result, 0, getBytesLength());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
         int offset = 0;
         for (Frame frame : frames) {
             offset = frame.asBytes(result, offset);
@@ -104,7 +255,17 @@ public class Message {
     }
 
     public int getBytesLength() {
-        int length = 0;
+        long length = getLongLength();
+        if (length > Integer.MAX_VALUE)
+            throw new IllegalStateException("Message is too big for an array: " + length);
+        return (int) length;
+    }
+
+    public long getLongLength() {
+        if (spill != null)
+            return spill.length();
+
+        long length = 0;
         for (Frame frame : frames)
             length += frame.getLength();
         return length;
@@ -0,0 +1,326 @@
+package com.wizzardo.http.websocket;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of complete messages of one connection, handled by tasks on a shared executor.
+ * At most one task per connection runs at a time, so messages are handled in the order they were received.
+ * A task handles up to {@link #BATCH} messages and then resubmits itself, so busy connections do not starve others.
+ */
+public class MessageDispatcher implements MessageSink {
+    public static final int BATCH = 64;
+
+    public enum Overflow {
+        /**
+         * Reader waits for free space, so the socket is not read until handlers catch up
+         */
+        BLOCK,
+        /**
+         * Oldest queued message is released and dropped
+         */
+        DROP_OLDEST,
+        /**
+         * {@link OverflowException} is thrown to the reader, the connection is treated as broken
+         */
+        FAIL
+    }
+
+    public interface Handler {
+        void onMessage(Message message);
+
+        void onError(Exception e);
+    }
+
+    public static class OverflowException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public OverflowException(String message) {
+            super(message);
+        }
+    }
+
+    protected final Executor executor;
+    protected final Overflow overflow;
+    protected final Handler handler;
+    protected final Message[] messages;
+    protected final long[] times;
+    protected final ReentrantLock lock = new ReentrantLock();
+    protected final Condition notFull = lock.newCondition();
+    protected int head;
+    protected int size;
+    protected boolean scheduled;
+    protected Runnable readyCallback;
+
+    protected final LongAdder dispatched = new LongAdder();
+    protected final LongAdder dropped = new LongAdder();
+    protected final LongAdder lagNanos = new LongAdder();
+    protected final LongAccumulator maxLagNanos = new LongAccumulator(LongAdderMetrics.MAX, 0);
+    protected final LongAccumulator maxSize = new LongAccumulator(LongAdderMetrics.MAX, 0);
+    protected volatile long lastLagNanos;
+
+    protected final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    public MessageDispatcher(Executor executor, int capacity, Overflow overflow, Handler handler) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be > 0");
+
+        this.executor = executor;
+        this.overflow = overflow;
+        this.handler = handler;
+        messages = new Message[capacity];
+        times = new long[capacity];
+    }
+
+    /**
+     * Queues the message, waits for free space in {@link Overflow#BLOCK} mode.
+     * The message should not reference the read buffer anymore
+     */
+    public void dispatch(Message message) throws IOException {
+        enqueue(message, true);
+    }
+
+    /**
+     * Same as {@link #dispatch(Message)} but returns false instead of waiting in {@link Overflow#BLOCK} mode,
+     * see {@link #onReady(Runnable)}
+     */
+    @Override
+    public boolean offer(Message message) throws IOException {
+        return enqueue(message, false);
+    }
+
+    /**
+     * Sets a one-time callback that is run by a handler thread after it takes a message from the full queue
+     */
+    @Override
+    public void onReady(Runnable callback) {
+        lock.lock();
+        try {
+            if (size < messages.length) {
+                readyCallback = null;
+            } else {
+                readyCallback = callback;
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        callback.run();
+    }
+
+    protected boolean enqueue(Message message, boolean wait) throws IOException {
+        Message drop = null;
+        boolean schedule = false;
+        lock.lock();
+        try {
+            if (size == messages.length) {
+                switch (overflow) {
+                    case BLOCK:
+                        if (!wait)
+                            return false;
+                        while (size == messages.length) {
+                            if (scheduled) {
+                                notFull.awaitUninterruptibly();
+                                continue;
+                            }
+                            // previous drain task was rejected, nothing would free the space
+                            scheduled = true;
+                            lock.unlock();
+                            try {
+                                schedule();
+                            } finally {
+                                lock.lock();
+                            }
+                        }
+                        break;
+                    case DROP_OLDEST:
+                        drop = messages[head];
+                        messages[head] = null;
+                        head = (head + 1) % messages.length;
+                        size--;
+                        break;
+                    case FAIL:
+                        throw new OverflowException("Inbound queue is full: " + size + " messages");
+                }
+            }
+
+            int tail = (head + size) % messages.length;
+            messages[tail] = message;
+            times[tail] = System.nanoTime();
+            size++;
+            maxSize.accumulate(size);
+            if (!scheduled)
+                scheduled = schedule = true;
+        } finally {
+            lock.unlock();
+        }
+
+        if (drop != null) {
+            dropped.increment();
+            drop.release();
+        }
+        if (schedule)
+            schedule();
+        return true;
+    }
+
+    /**
+     * Submits the drain task, scheduled is reset if the executor rejects it, so the next message tries again
+     */
+    protected void schedule() throws IOException {
+        try {
+            executor.execute(drainTask);
+        } catch (RuntimeException e) {
+            unschedule();
+            throw new IOException("Executor rejected the dispatcher task", e);
+        }
+    }
+
+    protected void unschedule() {
+        lock.lock();
+        try {
+            scheduled = false;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The task is resubmitted even if the handler fails, so the rest of the queue is still drained
+     */
+    protected void drain() {
+        boolean empty = false;
+        try {
+            empty = drainBatch();
+        } finally {
+            if (!empty)
+                resubmit();
+        }
+    }
+
+    protected void resubmit() {
+        try {
+            executor.execute(drainTask);
+        } catch (RuntimeException e) {
+            unschedule();
+            throw e;
+        }
+    }
+
+    /**
+     * @return true if the queue is empty and the task is not scheduled anymore
+     */
+    protected boolean drainBatch() {
+        for (int i = 0; i < BATCH; i++) {
+            Message message;
+            long time;
+            Runnable callback = null;
+            lock.lock();
+            try {
+                if (size == 0) {
+                    scheduled = false;
+                    return true;
+                }
+
+                boolean full = size == messages.length;
+                message = messages[head];
+                time = times[head];
+                messages[head] = null;
+                head = (head + 1) % messages.length;
+                size--;
+                if (full) {
+                    notFull.signal();
+                    callback = readyCallback;
+                    readyCallback = null;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (callback != null)
+                callback.run();
+
+            long lag = System.nanoTime() - time;
+            lastLagNanos = lag;
+            lagNanos.add(lag);
+            maxLagNanos.accumulate(lag);
+            dispatched.increment();
+
+            try {
+                handler.onMessage(message);
+            } catch (Exception e) {
+                handler.onError(e);
+            } finally {
+                message.releaseSpill();
+            }
+        }
+        return false;
+    }
+
+    public int getCapacity() {
+        return messages.length;
+    }
+
+    public Overflow getOverflow() {
+        return overflow;
+    }
+
+    public int getQueueSize() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMaxQueueSize() {
+        return maxSize.get();
+    }
+
+    /**
+     * @return how long the oldest queued message is waiting for a handler, 0 if the queue is empty
+     */
+    public long getOldestLagNanos() {
+        lock.lock();
+        try {
+            return size == 0 ? 0 : System.nanoTime() - times[head];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return time between queueing and handling of the last handled message
+     */
+    public long getLastLagNanos() {
+        return lastLagNanos;
+    }
+
+    public long getMaxLagNanos() {
+        return maxLagNanos.get();
+    }
+
+    public double getAverageLagNanos() {
+        long count = dispatched.sum();
+        return count == 0 ? 0 : (double) lagNanos.sum() / count;
+    }
+
+    public long getDispatched() {
+        return dispatched.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+}
@@ -0,0 +1,22 @@
+package com.wizzardo.http.websocket;
+
+import java.io.IOException;
+
+/**
+ * Receiver of complete messages that can push back on the reader.
+ * While it does not take a message the client does not read the socket, so the server is slowed down by the tcp window.
+ */
+public interface MessageSink {
+
+    /**
+     * Called by the reader with a message that does not reference the read buffer anymore
+     *
+     * @return false if the message cannot be taken now, it is offered again after the {@link #onReady(Runnable)} callback
+     */
+    boolean offer(Message message) throws IOException;
+
+    /**
+     * Sets a one-time callback that is run once {@link #offer(Message)} may succeed, immediately if it may already
+     */
+    void onReady(Runnable callback);
+}
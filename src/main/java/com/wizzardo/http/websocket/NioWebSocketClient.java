@@ -0,0 +1,959 @@
+package com.wizzardo.http.websocket;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.wizzardo.http.websocket.Charsets.UTF_8;
+
+/**
+ * Non-blocking counterpart of {@link SimpleWebSocketClient}, all io and callbacks are executed by an {@link EventLoop}
+ * of the given {@link EventLoopGroup}, so a few threads can serve thousands of connections.
+ * Callbacks must not block, otherwise they stall every connection of the loop.
+ */
+public class NioWebSocketClient {
+    protected final SimpleWebSocketClient.Request request;
+    protected final EventLoopGroup group;
+    protected volatile EventLoop loop;
+    protected SocketChannel channel;
+    protected SelectionKey key;
+    protected byte[] buffer = new byte[1024];
+    protected ByteBuffer readBuffer = ByteBuffer.wrap(buffer);
+    protected int position = 0;
+    protected int limit = 0;
+    protected int viewsLimit = 0;
+    protected volatile boolean frameViews;
+    protected volatile int receiveBufferSize = 1024;
+    protected volatile AdaptiveBufferSize adaptiveBufferSize;
+    protected volatile boolean streamingMessages;
+    protected Frame streamed;
+    protected long streamedRead;
+    protected boolean messageStarted;
+    protected volatile PerMessageDeflate deflate;
+    protected PerMessageDeflate streamedDeflate;
+    protected final PerMessageDeflate.Output messagePartOutput = new PerMessageDeflate.Output() {
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            try {
+                onMessagePart(bytes, offset, length);
+            } catch (Exception e) {
+                onError(e);
+            }
+        }
+    };
+    protected ByteBuffer handshake;
+    protected volatile MessageSink sink;
+    protected Message blocked;
+    protected byte[] handshakeKey;
+    protected Frame frame;
+    protected Message message = new Message();
+    protected final Queue<ByteBuffer[]> outbound = new ConcurrentLinkedQueue<ByteBuffer[]>();
+    protected boolean partiallyWritten;
+    protected final AtomicBoolean flushScheduled = new AtomicBoolean();
+    protected volatile boolean connected;
+    protected volatile boolean running = true;
+    protected volatile long reconnectOnClosePause = -1;
+    protected volatile long reconnectOnErrorPause = -1;
+    protected volatile ReconnectStrategy reconnectStrategy;
+    protected int reconnectAttempts;
+    protected volatile ByteArraySupplier byteArraySupplier = Frame.DEFAULT_BYTE_ARRAY_SUPPLIER;
+    protected final HashedWheelTimer timer = HashedWheelTimer.shared();
+    protected final Keepalive keepalive = new Keepalive(timer);
+    protected final ConnectionWatchdog watchdog = new ConnectionWatchdog(timer, new ConnectionWatchdog.Connection() {
+        @Override
+        public void onReadTimeout() {
+            loop.execute(readTimeoutTask);
+        }
+
+        @Override
+        public void onIdleTimeout() {
+            onIdle();
+        }
+    });
+    protected volatile long closeTimeout = 10000;
+    protected volatile HashedWheelTimer.Timeout closeTimeoutTimer;
+
+    protected final Runnable connectTask = new Runnable() {
+        @Override
+        public void run() {
+            doConnect();
+        }
+    };
+
+    protected final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled.set(false);
+            try {
+                flush();
+            } catch (IOException e) {
+                onIOException(e);
+            }
+        }
+    };
+
+    protected final Runnable closeChannelTask = new Runnable() {
+        @Override
+        public void run() {
+            if (channel != null && !connected)
+                closeChannel();
+        }
+    };
+
+    protected final Runnable closeTimeoutTask = new Runnable() {
+        @Override
+        public void run() {
+            if (channel == null)
+                return;
+
+            boolean wasConnected = connected;
+            closeChannel();
+            if (wasConnected) {
+                try {
+                    onClose();
+                } catch (Exception e) {
+                    onError(e);
+                }
+            }
+        }
+    };
+
+    protected final Runnable resumeTask = new Runnable() {
+        @Override
+        public void run() {
+            if (blocked == null || key == null || !key.isValid())
+                return;
+
+            try {
+                MessageSink sink = NioWebSocketClient.this.sink;
+                Message message = blocked;
+                if (sink == null) {
+                    try {
+                        onMessage(message);
+                    } catch (Exception e) {
+                        onError(e);
+                    }
+                    message.releaseSpill();
+                } else if (!sink.offer(message)) {
+                    sink.onReady(resumeCallback);
+                    return;
+                }
+                blocked = null;
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                readFrames();
+            } catch (IOException e) {
+                onIOException(e);
+            }
+        }
+    };
+
+    protected final Runnable resumeCallback = new Runnable() {
+        @Override
+        public void run() {
+            loop.execute(resumeTask);
+        }
+    };
+
+    protected final Runnable readTimeoutTask = new Runnable() {
+        @Override
+        public void run() {
+            if (connected)
+                onIOException(new SocketTimeoutException("Read timeout"));
+        }
+    };
+
+    public NioWebSocketClient(EventLoopGroup group, SimpleWebSocketClient.Request request) {
+        if (request.isSecure())
+            throw new IllegalArgumentException("wss is not supported by NioWebSocketClient");
+
+        this.group = group;
+        this.request = request;
+    }
+
+    public NioWebSocketClient(EventLoopGroup group, String url) throws URISyntaxException {
+        this(group, new SimpleWebSocketClient.Request(url));
+    }
+
+    public void connect() {
+        EventLoop loop = this.loop;
+        if (loop == null)
+            this.loop = loop = group.next();
+
+        loop.execute(connectTask);
+    }
+
+    protected void doConnect() {
+        if (!running || channel != null)
+            return;
+
+        try {
+            if (buffer.length != receiveBufferSize()) {
+                buffer = new byte[receiveBufferSize()];
+                readBuffer = ByteBuffer.wrap(buffer);
+            }
+            position = 0;
+            limit = 0;
+            viewsLimit = 0;
+            frame = null;
+            streamed = null;
+            messageStarted = false;
+            message = new Message();
+            if (blocked != null) {
+                blocked.release();
+                blocked = null;
+            }
+            keepalive.reset();
+            handshakeKey = SimpleWebSocketClient.Request.newKey();
+            handshake = ByteBuffer.wrap(request.build(handshakeKey));
+
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            if (channel.connect(new InetSocketAddress(request.host(), request.port()))) {
+                key = channel.register(loop.selector, SelectionKey.OP_WRITE, this);
+            } else {
+                key = channel.register(loop.selector, SelectionKey.OP_CONNECT, this);
+            }
+        } catch (IOException e) {
+            onIOException(e);
+        }
+    }
+
+    protected void process(SelectionKey key) {
+        try {
+            if (!key.isValid())
+                return;
+
+            if (key.isConnectable()) {
+                if (!channel.finishConnect())
+                    return;
+                flush();
+                return;
+            }
+
+            if (key.isWritable())
+                flush();
+
+            if (key.isValid() && key.isReadable())
+                read();
+        } catch (IOException e) {
+            onIOException(e);
+        } catch (Exception e) {
+            onError(e);
+        }
+    }
+
+    protected void flush() throws IOException {
+        if (key == null || !key.isValid())
+            return;
+
+        if (handshake != null) {
+            channel.write(handshake);
+            if (handshake.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_WRITE);
+            } else {
+                handshake = null;
+                key.interestOps(SelectionKey.OP_READ);
+            }
+            return;
+        }
+
+        if (!connected)
+            return;
+
+        ByteBuffer[] buffers;
+        while ((buffers = outbound.peek()) != null) {
+            channel.write(buffers);
+            if (buffers[buffers.length - 1].hasRemaining()) {
+                partiallyWritten = true;
+                key.interestOps(readOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+            partiallyWritten = false;
+            outbound.poll();
+        }
+        key.interestOps(readOps());
+    }
+
+    /**
+     * @return 0 while reading is paused because the {@link MessageSink} does not take messages
+     */
+    protected int readOps() {
+        return blocked == null ? SelectionKey.OP_READ : 0;
+    }
+
+    protected void read() throws IOException {
+        if (frame != null && frame.getRemaining() >= buffer.length) {
+            if (frame.read(channel) == -1)
+                throw new IOException("Connection closed");
+
+            if (frame.isComplete())
+                onFrameComplete();
+            return;
+        }
+
+        int size = receiveBufferSize();
+        if (size != buffer.length && size >= limit - position) {
+            byte[] bytes = new byte[size];
+            limit -= position;
+            System.arraycopy(buffer, position, bytes, 0, limit);
+            position = 0;
+            buffer = bytes;
+            readBuffer = ByteBuffer.wrap(buffer);
+            viewsLimit = 0;
+        } else if (position != 0) {
+            if (viewsLimit != 0) {
+                message.detach();
+                viewsLimit = 0;
+            }
+            limit -= position;
+            if (limit != 0)
+                System.arraycopy(buffer, position, buffer, 0, limit);
+            position = 0;
+        }
+
+        readBuffer.limit(buffer.length);
+        readBuffer.position(limit);
+        int read = channel.read(readBuffer);
+        if (read == -1)
+            throw new IOException("Connection closed");
+
+        limit = readBuffer.position();
+        watchdog.onRead();
+
+        if (!connected) {
+            int response = SimpleWebSocketClient.indexOf(buffer, 0, limit, SimpleWebSocketClient.RNRN);
+            if (response == -1) {
+                if (limit == buffer.length)
+                    throw new IOException("Response is too long");
+                return;
+            }
+
+            request.validate(buffer, 0, response, handshakeKey);
+            PerMessageDeflate previous = deflate;
+            deflate = request.negotiate(buffer, 0, response);
+            if (previous != null)
+                previous.release();
+
+            position = response + 4;
+            connected = true;
+            reconnectAttempts = 0;
+            watchdog.start();
+            try {
+                onConnect();
+            } catch (Exception e) {
+                onError(e);
+            }
+            flush();
+        }
+
+        readFrames();
+    }
+
+    protected void readFrames() throws IOException {
+        while (connected && blocked == null) {
+            if (streamed != null) {
+                if (!streamFrame())
+                    return;
+                continue;
+            }
+
+            if (frame == null) {
+                if (!Frame.hasHeaders(buffer, position, limit - position))
+                    return;
+
+                if (streamingMessages && (buffer[position] & Frame.OPCODE) < Frame.OPCODE_CONNECTION_CLOSE) {
+                    Frame header = new Frame();
+                    int r = header.readHeader(buffer, position, limit - position);
+                    if (r == 0)
+                        return;
+
+                    position += r;
+                    streamed = header;
+                    streamedRead = 0;
+                    if (!messageStarted) {
+                        messageStarted = true;
+                        streamedDeflate = header.isRsv1() ? deflate : null;
+                        try {
+                            onMessageStart(header.getOpcode());
+                        } catch (Exception e) {
+                            onError(e);
+                        }
+                    }
+                    continue;
+                }
+
+                frame = new Frame();
+                frame.setByteArraySupplier(byteArraySupplier);
+                if (frameViews)
+                    position += frame.readView(buffer, position, limit - position);
+                else
+                    position += frame.read(buffer, position, limit - position);
+            } else {
+                position += frame.read(buffer, position, limit - position);
+            }
+
+            if (!frame.isComplete())
+                return;
+
+            onFrameComplete();
+        }
+    }
+
+    protected boolean streamFrame() throws IOException {
+        long length = streamed.getPayloadLength();
+        int l = (int) Math.min(length - streamedRead, limit - position);
+        if (l > 0) {
+            streamed.unmask(buffer, position, l, (int) streamedRead);
+            if (streamedDeflate != null)
+                streamedDeflate.inflate(buffer, position, l, messagePartOutput);
+            else
+                messagePartOutput.write(buffer, position, l);
+            position += l;
+            streamedRead += l;
+        }
+        if (streamedRead < length)
+            return false;
+
+        Frame complete = streamed;
+        streamed = null;
+        AdaptiveBufferSize adaptiveBufferSize = this.adaptiveBufferSize;
+        if (adaptiveBufferSize != null)
+            adaptiveBufferSize.record((int) Math.min(complete.getPayloadLength(), Integer.MAX_VALUE));
+
+        if (complete.isFinalFrame()) {
+            messageStarted = false;
+            if (streamedDeflate != null)
+                streamedDeflate.inflateEnd(messagePartOutput);
+            watchdog.onActivity();
+            try {
+                onMessageEnd();
+            } catch (Exception e) {
+                onError(e);
+            }
+        }
+        return true;
+    }
+
+    protected void onFrameComplete() throws IOException {
+        Frame complete = frame;
+        frame = null;
+        if (complete.isView())
+            viewsLimit = position;
+
+        AdaptiveBufferSize adaptiveBufferSize = this.adaptiveBufferSize;
+        if (adaptiveBufferSize != null)
+            adaptiveBufferSize.record(complete.getFrameLength());
+
+        onFrame(complete);
+    }
+
+    protected void onFrame(Frame frame) throws IOException {
+        if (frame.isPing()) {
+            send((frame.getData() == null ? new Frame(Frame.OPCODE_PONG) : new Frame(Frame.OPCODE_PONG, frame.getData(), frame.getOffset(), frame.getLength())).mask());
+            return;
+        }
+
+        if (frame.isPong()) {
+            if (frame.getData() != null)
+                keepalive.onPong(frame.getData(), frame.getOffset(), frame.getLength());
+            return;
+        }
+
+        if (frame.isClose()) {
+            closeChannel();
+            try {
+                onClose();
+            } catch (Exception e) {
+                onError(e);
+            }
+            reconnect(reconnectDelay(null));
+            return;
+        }
+
+        message.add(frame);
+        if (!message.isComplete())
+            return;
+
+        Message complete = message;
+        message = new Message();
+        PerMessageDeflate deflate = this.deflate;
+        if (deflate != null && complete.isCompressed())
+            complete = deflate.inflate(complete, byteArraySupplier);
+        watchdog.onActivity();
+
+        MessageSink sink = this.sink;
+        if (sink != null) {
+            complete.detachFrames();
+            viewsLimit = 0;
+            if (!sink.offer(complete)) {
+                blocked = complete;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                sink.onReady(resumeCallback);
+            }
+            return;
+        }
+
+        try {
+            onMessage(complete);
+        } catch (Exception e) {
+            onError(e);
+        }
+        viewsLimit = 0;
+    }
+
+    protected void onIOException(IOException e) {
+        if (e instanceof Frame.TooBigException)
+            writeTooBig();
+        closeChannel();
+        try {
+            onError(e);
+            onClose();
+        } catch (Exception ex) {
+            onError(ex);
+        }
+        reconnect(reconnectDelay(e));
+    }
+
+    /**
+     * @param cause error that broke the connection or null if it was closed by the server
+     * @return pause from {@link ReconnectStrategy} or fixed pauses if it is not set, negative value if the client should not reconnect
+     */
+    protected long reconnectDelay(Throwable cause) {
+        ReconnectStrategy strategy = reconnectStrategy;
+        if (strategy != null)
+            return strategy.delay(++reconnectAttempts, cause);
+        return cause == null ? reconnectOnClosePause : reconnectOnErrorPause;
+    }
+
+    protected void reconnect(long pause) {
+        if (!running || pause < 0)
+            return;
+
+        if (pause == 0)
+            loop.execute(connectTask);
+        else
+            loop.schedule(connectTask, pause);
+    }
+
+    /**
+     * Tells the server why the connection is dropped, written right away as the channel is closed after that.
+     * Skipped if a frame is written partially, the close frame would corrupt it
+     */
+    protected void writeTooBig() {
+        Frame frame = Frame.closeFrame(Frame.STATUS_MESSAGE_TOO_BIG, "Message is too big").mask();
+        try {
+            if (channel != null && !partiallyWritten)
+                channel.write(ByteBuffer.wrap(frame.getFrameBytes(), frame.getFrameOffset(), frame.getFrameLength()));
+        } catch (IOException ignored) {
+        }
+    }
+
+    protected void closeChannel() {
+        connected = false;
+        watchdog.stop();
+        HashedWheelTimer.Timeout timeout = closeTimeoutTimer;
+        if (timeout != null)
+            timeout.cancel();
+        outbound.clear();
+        partiallyWritten = false;
+        if (key != null)
+            key.cancel();
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+        key = null;
+        channel = null;
+    }
+
+    protected int receiveBufferSize() {
+        AdaptiveBufferSize adaptiveBufferSize = this.adaptiveBufferSize;
+        return adaptiveBufferSize != null ? adaptiveBufferSize.size() : receiveBufferSize;
+    }
+
+    /**
+     * Sets fixed size of the read buffer, remaining payload of bigger frames is read directly into their arrays
+     */
+    public void setReceiveBufferSize(int size) {
+        if (size < 128)
+            throw new IllegalArgumentException("size must be >= 128");
+        receiveBufferSize = size;
+        adaptiveBufferSize = null;
+    }
+
+    /**
+     * Lets the read buffer grow and shrink between min and max depending on observed frame sizes,
+     * max is best kept close to the socket receive buffer size
+     */
+    public void setAdaptiveReceiveBuffer(int min, int max) {
+        adaptiveBufferSize = new AdaptiveBufferSize(min, max);
+    }
+
+    public int getReceiveBufferSize() {
+        return buffer.length;
+    }
+
+    /**
+     * Complete frames that fit into the read buffer will reference it instead of being copied.
+     * Such messages are valid only until {@link #onMessage(Message)} returns, use {@link Message#detach()} to keep them.
+     */
+    public void setFrameViews(boolean frameViews) {
+        this.frameViews = frameViews;
+    }
+
+    public boolean isFrameViews() {
+        return frameViews;
+    }
+
+    /**
+     * Instead of assembling {@link Message}s payload is passed to
+     * {@link #onMessageStart(byte)}, {@link #onMessagePart(byte[], int, int)} and {@link #onMessageEnd()} as it arrives
+     */
+    public void setStreamingMessages(boolean streamingMessages) {
+        this.streamingMessages = streamingMessages;
+    }
+
+    public boolean isStreamingMessages() {
+        return streamingMessages;
+    }
+
+    /**
+     * Complete messages are passed to {@link #onMessage(Message)} on the executor instead of the event loop,
+     * in the order they were received, so handlers may block. When the queue is full in
+     * {@link MessageDispatcher.Overflow#BLOCK} mode the channel is not read until handlers catch up.
+     * Streaming mode is not affected.
+     *
+     * @param capacity max number of messages waiting for the handler
+     */
+    public MessageDispatcher setDispatcher(Executor executor, int capacity, MessageDispatcher.Overflow overflow) {
+        MessageDispatcher dispatcher = new MessageDispatcher(executor, capacity, overflow, new MessageDispatcher.Handler() {
+            @Override
+            public void onMessage(Message message) {
+                NioWebSocketClient.this.onMessage(message);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                NioWebSocketClient.this.onError(e);
+            }
+        });
+        this.sink = dispatcher;
+        return dispatcher;
+    }
+
+    /**
+     * Returns to calling {@link #onMessage(Message)} on the event loop, already queued messages are still handled
+     */
+    public void removeDispatcher() {
+        sink = null;
+    }
+
+    public MessageDispatcher getDispatcher() {
+        MessageSink sink = this.sink;
+        return sink instanceof MessageDispatcher ? (MessageDispatcher) sink : null;
+    }
+
+    /**
+     * Complete messages are passed to the sink instead of {@link #onMessage(Message)},
+     * the channel is not read while the sink does not take them. Streaming mode is not affected.
+     */
+    public void setMessageSink(MessageSink sink) {
+        this.sink = sink;
+    }
+
+    public MessageSink getMessageSink() {
+        return sink;
+    }
+
+    public void onMessage(Message message) {
+    }
+
+    /**
+     * Called in streaming mode when the first frame of a message is received
+     *
+     * @param opcode {@link Frame#OPCODE_TEXT_FRAME} or {@link Frame#OPCODE_BINARY_FRAME}
+     */
+    public void onMessageStart(byte opcode) {
+    }
+
+    /**
+     * Called in streaming mode with the next part of the payload, bytes are valid only until this method returns
+     */
+    public void onMessagePart(byte[] bytes, int offset, int length) {
+    }
+
+    public void onMessageEnd() {
+    }
+
+    public void onConnect() {
+    }
+
+    public void onClose() {
+    }
+
+    public void onError(Exception e) {
+        e.printStackTrace();
+    }
+
+    public boolean isClosed() {
+        return !connected;
+    }
+
+    /**
+     * Pause before reconnecting after the server closed connection, used if there is no {@link ReconnectStrategy}
+     */
+    public void setReconnectOnClosePause(long pause) {
+        reconnectOnClosePause = pause;
+    }
+
+    public void setReconnectOnErrorPause(long pause) {
+        reconnectOnErrorPause = pause;
+    }
+
+    public long getReconnectOnClosePause() {
+        return reconnectOnClosePause;
+    }
+
+    public long getReconnectOnErrorPause() {
+        return reconnectOnErrorPause;
+    }
+
+    /**
+     * Replaces fixed reconnect pauses, for example {@code new ReconnectStrategy.ExponentialBackoff(100, 30000)}.
+     * Null returns to the fixed pauses
+     */
+    public void setReconnectStrategy(ReconnectStrategy reconnectStrategy) {
+        this.reconnectStrategy = reconnectStrategy;
+    }
+
+    public ReconnectStrategy getReconnectStrategy() {
+        return reconnectStrategy;
+    }
+
+    /**
+     * Supplier for payloads of incoming frames, with a pooling supplier messages should be
+     * {@link Message#release() released} once they are processed.
+     * The client keeps its own {@link ByteArraySupplier#forOwner() view} of the given supplier
+     */
+    public void setByteArraySupplier(ByteArraySupplier byteArraySupplier) {
+        this.byteArraySupplier = byteArraySupplier.forOwner();
+    }
+
+    public ByteArraySupplier getByteArraySupplier() {
+        return byteArraySupplier;
+    }
+
+    /**
+     * Queues the message for the event loop. Messages that are not written when the connection is lost are dropped,
+     * they are not replayed after reconnect. Messages sent while the client is connecting are written after the handshake.
+     */
+    public void send(Message message) {
+        watchdog.onActivity();
+        PerMessageDeflate deflate = this.deflate;
+        if (deflate != null && deflate.shouldCompress(message) && deflate.retain()) {
+            deflate.lock();
+            try {
+                send(deflate.deflate(message).mask());
+            } finally {
+                deflate.unlock();
+                deflate.release();
+            }
+            return;
+        }
+
+        List<Frame> frames = message.getFrames();
+        int count = 0;
+        for (Frame frame : frames) {
+            count += frame.mask().getBufferCount();
+        }
+        ByteBuffer[] buffers = new ByteBuffer[count];
+        int index = 0;
+        for (Frame frame : frames) {
+            index = frame.toByteBuffers(buffers, index);
+        }
+        enqueue(buffers);
+    }
+
+    public void send(Frame frame) {
+        if (!frame.isControl())
+            watchdog.onActivity();
+        ByteBuffer[] buffers = new ByteBuffer[frame.getBufferCount()];
+        frame.toByteBuffers(buffers, 0);
+        enqueue(buffers);
+    }
+
+    /**
+     * Sends remaining bytes of the buffer as a binary message without copying them,
+     * the buffer is masked in place and should not be reused until it is sent
+     */
+    public void send(ByteBuffer payload) {
+        if (request.getPerMessageDeflate() != null)
+            send(new Message().append(payload));
+        else
+            send(new ByteBufferFrame(payload).mask());
+    }
+
+    public void send(String s) {
+        send(s.getBytes(UTF_8));
+    }
+
+    public void send(byte[] data) {
+        send(data, 0, data.length);
+    }
+
+    public void send(byte[] data, int offset, int length) {
+        if (request.getPerMessageDeflate() != null)
+            send(new Message(data, offset, length));
+        else
+            send(new Frame(data, offset, length).mask());
+    }
+
+    /**
+     * Sends pings every interval, if maxMissedPongs pings in a row are not answered before the next one is due
+     * the connection is dropped and reconnected as after an io error
+     */
+    public void setKeepalive(long intervalMs, int maxMissedPongs) {
+        final Runnable timeoutTask = new Runnable() {
+            @Override
+            public void run() {
+                if (connected)
+                    onIOException(new IOException("Keepalive timeout"));
+            }
+        };
+        keepalive.start(new Keepalive.Connection() {
+            @Override
+            public boolean isConnected() {
+                return connected;
+            }
+
+            @Override
+            public void sendPing(byte[] payload) {
+                send(new Frame(Frame.OPCODE_PING, payload, 0, payload.length).mask());
+            }
+
+            @Override
+            public void onKeepaliveTimeout(int missedPongs) {
+                loop.execute(timeoutTask);
+            }
+        }, intervalMs, TimeUnit.MILLISECONDS, maxMissedPongs);
+    }
+
+    public void stopKeepalive() {
+        keepalive.stop();
+    }
+
+    /**
+     * @return smoothed round-trip time in milliseconds or -1 if no pong was received yet
+     */
+    public double getSmoothedRtt() {
+        long rtt = keepalive.getSmoothedRtt();
+        return rtt < 0 ? -1 : rtt / 1e6;
+    }
+
+    public int getMissedPongs() {
+        return keepalive.getMissedPongs();
+    }
+
+    public Keepalive getKeepalive() {
+        return keepalive;
+    }
+
+    protected void enqueue(ByteBuffer[] buffers) {
+        outbound.add(buffers);
+        EventLoop loop = this.loop;
+        if (loop == null)
+            return;
+
+        if (loop.inEventLoop()) {
+            try {
+                flush();
+            } catch (IOException e) {
+                onIOException(e);
+            }
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(flushTask);
+        }
+    }
+
+    public void close() {
+        close(new Frame(Frame.OPCODE_CONNECTION_CLOSE));
+    }
+
+    public void close(int status, String message) {
+        close(Frame.closeFrame(status, message));
+    }
+
+    protected void close(Frame frame) {
+        running = false;
+        keepalive.stop();
+        watchdog.stop();
+        EventLoop loop = this.loop;
+        if (loop == null)
+            return;
+
+        if (connected) {
+            send(frame.mask());
+            closeTimeoutTimer = loop.schedule(closeTimeoutTask, closeTimeout);
+        } else {
+            loop.execute(closeChannelTask);
+        }
+    }
+
+    /**
+     * Time to wait for the answer to a close frame, after that the channel is closed anyway
+     */
+    public void setCloseTimeout(long closeTimeout) {
+        this.closeTimeout = closeTimeout;
+    }
+
+    public long getCloseTimeout() {
+        return closeTimeout;
+    }
+
+    /**
+     * Drops the connection if nothing, including pongs and other control frames, was received for the given time.
+     * Checked by the shared timer, 0 disables it
+     */
+    public void setReadTimeout(long ms) {
+        watchdog.setReadTimeout(ms);
+        if (connected)
+            watchdog.start();
+    }
+
+    public long getReadTimeout() {
+        return watchdog.getReadTimeout();
+    }
+
+    /**
+     * Calls {@link #onIdle()} if no data message was sent or received for the given time, 0 disables it
+     */
+    public void setIdleTimeout(long ms) {
+        watchdog.setIdleTimeout(ms);
+        if (connected)
+            watchdog.start();
+    }
+
+    public long getIdleTimeout() {
+        return watchdog.getIdleTimeout();
+    }
+
+    /**
+     * Called by the shared timer after idle timeout, closes the connection
+     */
+    protected void onIdle() {
+        close(Frame.closeFrame(1000, "Idle timeout"));
+    }
+}
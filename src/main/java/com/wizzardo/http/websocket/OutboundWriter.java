@@ -0,0 +1,182 @@
+package com.wizzardo.http.websocket;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Any thread can enqueue frames, the thread that wins the write flag drains the queue
+ * and combines all pending frames into as few writes as possible.
+ * Frames of one {@link #write(Frame[])} call are never interleaved with frames of other calls.
+ * If a write fails, frames of other calls taken by the failed write are put back at the head of the queue
+ * and are written to the next output stream.
+ */
+public class OutboundWriter {
+    public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+    protected final Deque<Frame[]> queue = new ConcurrentLinkedDeque<Frame[]>();
+    protected final List<Frame[]> inFlight = new ArrayList<Frame[]>();
+    protected final AtomicInteger queueDepth = new AtomicInteger();
+    protected final AtomicBoolean writing = new AtomicBoolean();
+    protected final LongAdder flushCount = new LongAdder();
+    protected final LongAdder writeCount = new LongAdder();
+    protected final LongAdder frameCount = new LongAdder();
+    protected final byte[] buffer;
+    protected volatile OutputStream out;
+    protected volatile WebSocketMetrics metrics;
+
+    public OutboundWriter() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    public OutboundWriter(int bufferSize) {
+        buffer = new byte[bufferSize];
+    }
+
+    public void setOutputStream(OutputStream out) {
+        this.out = out;
+    }
+
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    public void setMetrics(WebSocketMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void write(Frame frame) throws IOException {
+        write(new Frame[]{frame});
+    }
+
+    /**
+     * @throws IOException if the output stream failed, frames of this call are not written then
+     */
+    public void write(Frame[] frames) throws IOException {
+        enqueue(frames);
+        try {
+            drain();
+        } catch (IOException e) {
+            if (queue.remove(frames))
+                queueDepth.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Queues frames without writing them, for threads that must not block on the socket
+     *
+     * @return false if another thread is writing and takes the frames, otherwise {@link #drain()} should be called
+     */
+    public boolean enqueue(Frame[] frames) {
+        queue.add(frames);
+        int depth = queueDepth.incrementAndGet();
+        WebSocketMetrics metrics = this.metrics;
+        if (metrics != null)
+            metrics.onOutboundQueueDepth(depth);
+        return !writing.get();
+    }
+
+    /**
+     * Writes everything that is queued, unless another thread is already doing it
+     */
+    public void drain() throws IOException {
+        while (out != null && !queue.isEmpty() && writing.compareAndSet(false, true)) {
+            try {
+                drain(out);
+            } finally {
+                writing.set(false);
+            }
+        }
+    }
+
+    protected void drain(OutputStream out) throws IOException {
+        boolean written = false;
+        try {
+            doDrain(out);
+            written = true;
+        } finally {
+            if (written)
+                inFlight.clear();
+            else
+                requeueInFlight();
+        }
+    }
+
+    /**
+     * Puts frames taken by a failed write back at the head of the queue, keeping their order
+     */
+    protected void requeueInFlight() {
+        for (int i = inFlight.size() - 1; i >= 0; i--) {
+            queue.addFirst(inFlight.get(i));
+        }
+        queueDepth.addAndGet(inFlight.size());
+        inFlight.clear();
+    }
+
+    protected void doDrain(OutputStream out) throws IOException {
+        WebSocketMetrics metrics = this.metrics;
+        long start = metrics != null ? System.nanoTime() : 0;
+        byte[] buffer = this.buffer;
+        int position = 0;
+        Frame[] frames;
+        while ((frames = queue.poll()) != null) {
+            queueDepth.decrementAndGet();
+            inFlight.add(frames);
+            for (Frame frame : frames) {
+                if (metrics != null)
+                    metrics.onFrameOut(frame.getOpcode(), frame.getPayloadLength());
+                int length = frame.getFrameLength();
+                if (position + length > buffer.length) {
+                    if (position != 0) {
+                        write(out, buffer, 0, position);
+                        position = 0;
+                    }
+                    if (length > buffer.length) {
+                        frame.write(out);
+                        writeCount.increment();
+                        frameCount.increment();
+                        continue;
+                    }
+                }
+                position = frame.copyFrame(buffer, position);
+                frameCount.increment();
+            }
+        }
+
+        if (position != 0)
+            write(out, buffer, 0, position);
+
+        out.flush();
+        flushCount.increment();
+        if (metrics != null)
+            metrics.onFlush(System.nanoTime() - start);
+    }
+
+    protected void write(OutputStream out, byte[] bytes, int offset, int length) throws IOException {
+        out.write(bytes, offset, length);
+        writeCount.increment();
+    }
+
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public long getFlushCount() {
+        return flushCount.sum();
+    }
+
+    public long getWriteCount() {
+        return writeCount.sum();
+    }
+
+    public long getFrameCount() {
+        return frameCount.sum();
+    }
+}
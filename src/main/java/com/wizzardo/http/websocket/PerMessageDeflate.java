@@ -0,0 +1,359 @@
+package com.wizzardo.http.websocket;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * permessage-deflate extension (RFC 7692) negotiated for a single connection.
+ * Inflating is expected to be done by the reader only, deflating has to be done under {@link #lock()}
+ * together with enqueueing of the result, so compressed messages go out in the same order as they were compressed.
+ */
+public class PerMessageDeflate {
+    public static final String NAME = "permessage-deflate";
+    protected static final byte[] TAIL = new byte[]{0, 0, (byte) 0xff, (byte) 0xff};
+    protected static final int MAX_INITIAL_INFLATE_SIZE = 16 * 1024 * 1024;
+    protected static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    protected final Options options;
+    protected final DeflatePool pool;
+    protected final boolean serverNoContextTakeover;
+    protected final boolean clientNoContextTakeover;
+    protected final ReentrantLock lock = new ReentrantLock();
+    protected final AtomicInteger references = new AtomicInteger(1);
+    protected final byte[] chunk = new byte[8 * 1024];
+    protected Inflater inflater;
+    protected Deflater deflater;
+
+    public interface Output {
+        void write(byte[] bytes, int offset, int length) throws IOException;
+    }
+
+    protected static class ArrayOutput implements Output {
+        protected final ByteArraySupplier supplier;
+        protected byte[] bytes;
+        protected int position = Frame.MAX_HEADER_LENGTH;
+
+        protected ArrayOutput(ByteArraySupplier supplier, int initialSize) {
+            this.supplier = supplier;
+            bytes = supplier.supply(Frame.MAX_HEADER_LENGTH + initialSize);
+        }
+
+        @Override
+        public void write(byte[] b, int offset, int length) throws IOException {
+            if (length > bytes.length - position) {
+                long size = (long) position + length;
+                if (size > MAX_ARRAY_SIZE)
+                    throw new IOException("Inflated message is too big");
+                byte[] next = supplier.supply((int) Math.min(MAX_ARRAY_SIZE, Math.max(bytes.length * 2L, size)));
+                System.arraycopy(bytes, 0, next, 0, position);
+                supplier.release(bytes);
+                bytes = next;
+            }
+            System.arraycopy(b, offset, bytes, position, length);
+            position += length;
+        }
+    }
+
+    public static class Options {
+        protected boolean serverNoContextTakeover;
+        protected boolean clientNoContextTakeover;
+        protected int serverMaxWindowBits;
+        protected int minSize = 64;
+        protected DeflatePool pool = DeflatePool.DEFAULT;
+
+        /**
+         * Asks server to reset its compression context after every message
+         */
+        public Options serverNoContextTakeover() {
+            serverNoContextTakeover = true;
+            return this;
+        }
+
+        /**
+         * Resets own compression context after every message, deflaters are taken from the pool per message
+         */
+        public Options clientNoContextTakeover() {
+            clientNoContextTakeover = true;
+            return this;
+        }
+
+        /**
+         * Asks server to use smaller LZ77 window, from 8 to 15
+         */
+        public Options serverMaxWindowBits(int bits) {
+            if (bits < 8 || bits > 15)
+                throw new IllegalArgumentException("window bits must be in range 8..15");
+            serverMaxWindowBits = bits;
+            return this;
+        }
+
+        /**
+         * Messages shorter than this are sent uncompressed
+         */
+        public Options minSize(int minSize) {
+            this.minSize = minSize;
+            return this;
+        }
+
+        public Options pool(DeflatePool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        public String offer() {
+            StringBuilder sb = new StringBuilder(NAME);
+            if (serverNoContextTakeover)
+                sb.append("; server_no_context_takeover");
+            if (clientNoContextTakeover)
+                sb.append("; client_no_context_takeover");
+            if (serverMaxWindowBits != 0)
+                sb.append("; server_max_window_bits=").append(serverMaxWindowBits);
+            return sb.toString();
+        }
+    }
+
+    protected PerMessageDeflate(Options options, boolean serverNoContextTakeover, boolean clientNoContextTakeover) {
+        this.options = options;
+        this.pool = options.pool;
+        this.serverNoContextTakeover = serverNoContextTakeover;
+        this.clientNoContextTakeover = clientNoContextTakeover;
+    }
+
+    /**
+     * @param extensions value of Sec-WebSocket-Extensions response header, can be null
+     * @return negotiated extension or null if server declined it
+     */
+    public static PerMessageDeflate negotiate(Options options, String extensions) throws IOException {
+        if (extensions == null || extensions.trim().isEmpty())
+            return null;
+
+        PerMessageDeflate result = null;
+        for (String extension : extensions.split(",")) {
+            String[] params = extension.split(";");
+            if (!params[0].trim().equalsIgnoreCase(NAME) || result != null)
+                throw new IOException("Unexpected extension: " + extension.trim());
+
+            boolean serverNoContextTakeover = false;
+            boolean clientNoContextTakeover = false;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                String value = null;
+                int eq = param.indexOf('=');
+                if (eq != -1) {
+                    value = param.substring(eq + 1).trim().replace("\"", "");
+                    param = param.substring(0, eq).trim();
+                }
+
+                if (param.equalsIgnoreCase("server_no_context_takeover")) {
+                    serverNoContextTakeover = true;
+                } else if (param.equalsIgnoreCase("client_no_context_takeover")) {
+                    clientNoContextTakeover = true;
+                } else if (param.equalsIgnoreCase("server_max_window_bits")) {
+                    int bits = parseWindowBits(value);
+                    if (options.serverMaxWindowBits != 0 && bits > options.serverMaxWindowBits)
+                        throw new IOException("Unexpected server_max_window_bits: " + value);
+                } else if (param.equalsIgnoreCase("client_max_window_bits")) {
+                    if (parseWindowBits(value) != 15)
+                        throw new IOException("Unsupported client_max_window_bits: " + value);
+                } else {
+                    throw new IOException("Unknown " + NAME + " parameter: " + param);
+                }
+            }
+            result = new PerMessageDeflate(options, serverNoContextTakeover, clientNoContextTakeover || options.clientNoContextTakeover);
+        }
+        return result;
+    }
+
+    protected static int parseWindowBits(String value) throws IOException {
+        try {
+            int bits = Integer.parseInt(value);
+            if (bits >= 8 && bits <= 15)
+                return bits;
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IOException("Wrong window bits value: " + value);
+    }
+
+    public boolean shouldCompress(Message message) {
+        return !message.isCompressed() && message.getBytesLength() >= options.minSize;
+    }
+
+    public void lock() {
+        lock.lock();
+    }
+
+    public void unlock() {
+        lock.unlock();
+    }
+
+    /**
+     * Compresses all frames of the message into a single frame with RSV1 bit set.
+     * Callers hold the {@link #lock()} and, if the connection may be replaced meanwhile, a {@link #retain() reference}
+     */
+    public Frame deflate(Message message) {
+        Deflater deflater = this.deflater;
+        if (deflater == null)
+            deflater = pool.acquireDeflater();
+
+        try {
+            List<Frame> frames = message.getFrames();
+            byte[] out = new byte[Frame.MAX_HEADER_LENGTH + Math.max(64, message.getBytesLength() / 2)];
+            int position = Frame.MAX_HEADER_LENGTH;
+            for (Frame frame : frames) {
+                if (frame.data != null)
+                    deflater.setInput(frame.data, frame.offset, frame.length);
+                else
+                    deflater.setInput(frame.asBytes());
+                while (!deflater.needsInput()) {
+                    if (position == out.length)
+                        out = grow(out, position);
+                    position += deflater.deflate(out, position, out.length - position, Deflater.NO_FLUSH);
+                }
+            }
+
+            do {
+                if (position == out.length)
+                    out = grow(out, position);
+                position += deflater.deflate(out, position, out.length - position, Deflater.SYNC_FLUSH);
+            } while (position == out.length);
+
+            Frame frame = new Frame(frames.get(0).opcode, out, Frame.MAX_HEADER_LENGTH, position - Frame.MAX_HEADER_LENGTH - TAIL.length, false);
+            frame.setRsv1(true);
+            return frame;
+        } finally {
+            if (clientNoContextTakeover)
+                pool.release(deflater);
+            else
+                this.deflater = deflater;
+        }
+    }
+
+    protected static byte[] grow(byte[] bytes, int length) {
+        byte[] b = new byte[bytes.length * 2];
+        System.arraycopy(bytes, 0, b, 0, length);
+        return b;
+    }
+
+    /**
+     * Inflates all frames of a compressed message into a single frame
+     */
+    public Message inflate(Message message, ByteArraySupplier supplier) throws IOException {
+        ArrayOutput out = new ArrayOutput(supplier, (int) Math.min(MAX_INITIAL_INFLATE_SIZE, Math.max(256, message.getBytesLength() * 4L)));
+        for (Frame frame : message.getFrames()) {
+            inflate(frame.getData(), frame.getOffset(), frame.getLength(), out);
+        }
+        inflateEnd(out);
+
+        Frame frame = new Frame(message.get(0).opcode, out.bytes, Frame.MAX_HEADER_LENGTH, out.position - Frame.MAX_HEADER_LENGTH, false);
+        frame.setByteArraySupplier(supplier);
+        frame.complete = true;
+        message.release();
+
+        Message result = new Message();
+        result.add(frame);
+        return result;
+    }
+
+    /**
+     * Inflates next part of a compressed message, can be called for payload parts as they arrive
+     *
+     * @throws IOException if the context was released because connection was replaced
+     */
+    public void inflate(byte[] bytes, int offset, int length, Output out) throws IOException {
+        if (!retain())
+            throw new IOException("Compression context is released");
+        try {
+            doInflate(bytes, offset, length, out);
+        } finally {
+            release();
+        }
+    }
+
+    protected void doInflate(byte[] bytes, int offset, int length, Output out) throws IOException {
+        if (inflater == null)
+            inflater = pool.acquireInflater();
+
+        Inflater inflater = this.inflater;
+        inflater.setInput(bytes, offset, length);
+        try {
+            int r;
+            do {
+                r = inflater.inflate(chunk);
+                if (r != 0)
+                    out.write(chunk, 0, r);
+                if (inflater.finished())
+                    inflater.reset();
+            } while (r == chunk.length || (r != 0 && !inflater.needsInput()));
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Should be called after the last part of a compressed message
+     */
+    public void inflateEnd(Output out) throws IOException {
+        if (!retain())
+            throw new IOException("Compression context is released");
+        try {
+            doInflate(TAIL, 0, TAIL.length, out);
+            if (serverNoContextTakeover) {
+                pool.release(inflater);
+                inflater = null;
+            }
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Called by a thread before it compresses or inflates with this context, paired with {@link #release()}
+     *
+     * @return false if the context is already released and must not be used
+     */
+    public boolean retain() {
+        int count;
+        do {
+            count = references.get();
+            if (count == 0)
+                return false;
+        } while (!references.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    /**
+     * Drops a reference, the connection drops its own when it is closed or replaced.
+     * Inflater and deflater are returned to the pool once no thread uses them
+     */
+    public void release() {
+        if (references.decrementAndGet() != 0)
+            return;
+
+        if (inflater != null) {
+            pool.release(inflater);
+            inflater = null;
+        }
+        lock.lock();
+        try {
+            if (deflater != null) {
+                pool.release(deflater);
+                deflater = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isServerNoContextTakeover() {
+        return serverNoContextTakeover;
+    }
+
+    public boolean isClientNoContextTakeover() {
+        return clientNoContextTakeover;
+    }
+}
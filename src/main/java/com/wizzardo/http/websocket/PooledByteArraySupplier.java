@@ -0,0 +1,115 @@
+package com.wizzardo.http.websocket;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reuses arrays with power-of-two sizes, pools are striped to reduce contention.
+ * Arrays bigger than maxSize are allocated on demand and are not pooled.
+ * <p>
+ * Used directly it picks a stripe by the current thread, which fits arrays released on the thread that took them.
+ * Clients take their own stripe with {@link #forOwner()}, so arrays released on dispatcher threads return to it.
+ */
+public class PooledByteArraySupplier implements ByteArraySupplier {
+    protected final int minShift;
+    protected final int maxSize;
+    protected final int stripesMask;
+    protected final Stripe[] stripes;
+    protected final AtomicInteger nextOwner = new AtomicInteger();
+
+    public PooledByteArraySupplier() {
+        this(64, 1024 * 1024, 32);
+    }
+
+    public PooledByteArraySupplier(int minSize, int maxSize, int arraysPerSizeClass) {
+        if (minSize < 1 || Integer.bitCount(minSize) != 1)
+            throw new IllegalArgumentException("minSize must be a power of two");
+        if (maxSize < minSize || Integer.bitCount(maxSize) != 1)
+            throw new IllegalArgumentException("maxSize must be a power of two and >= minSize");
+
+        this.minShift = Integer.numberOfTrailingZeros(minSize);
+        this.maxSize = maxSize;
+
+        int count = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1;
+        stripesMask = count - 1;
+
+        int sizeClasses = Integer.numberOfTrailingZeros(maxSize) - minShift + 1;
+        stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe(sizeClasses, arraysPerSizeClass);
+        }
+    }
+
+    @Override
+    public byte[] supply(int minLength) {
+        return stripes[stripe()].supply(minLength);
+    }
+
+    @Override
+    public void release(byte[] bytes) {
+        stripes[stripe()].release(bytes);
+    }
+
+    /**
+     * @return supplier bound to one stripe, stripes are given out round-robin
+     */
+    @Override
+    public ByteArraySupplier forOwner() {
+        return stripes[nextOwner.getAndIncrement() & stripesMask];
+    }
+
+    protected int sizeClass(int length) {
+        if (length <= 1 << minShift)
+            return 0;
+
+        return 32 - Integer.numberOfLeadingZeros(length - 1) - minShift;
+    }
+
+    protected int stripe() {
+        return (int) Thread.currentThread().getId() & stripesMask;
+    }
+
+    protected static class Pool extends ArrayBlockingQueue<byte[]> {
+        private static final long serialVersionUID = 1L;
+
+        protected Pool(int capacity) {
+            super(capacity);
+        }
+    }
+
+    /**
+     * Pools of one stripe, arrays are always given back to the stripe they are released to
+     */
+    protected class Stripe implements ByteArraySupplier {
+        protected final Pool[] pools;
+
+        protected Stripe(int sizeClasses, int arraysPerSizeClass) {
+            pools = new Pool[sizeClasses];
+            for (int i = 0; i < sizeClasses; i++) {
+                pools[i] = new Pool(arraysPerSizeClass);
+            }
+        }
+
+        @Override
+        public byte[] supply(int minLength) {
+            if (minLength > maxSize)
+                return new byte[minLength];
+
+            int sizeClass = sizeClass(minLength);
+            byte[] bytes = pools[sizeClass].poll();
+            if (bytes != null)
+                return bytes;
+
+            return new byte[1 << (sizeClass + minShift)];
+        }
+
+        @Override
+        public void release(byte[] bytes) {
+            int length = bytes.length;
+            if (length > maxSize || length < (1 << minShift) || Integer.bitCount(length) != 1)
+                return;
+
+            pools[sizeClass(length)].offer(bytes);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.wizzardo.http.websocket;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides how long to wait before the next connection attempt
+ */
+public interface ReconnectStrategy {
+
+    /**
+     * @param attempt number of the attempt since the last successful handshake, starting from 1
+     * @param cause   error that broke the connection or null if it was closed by the server
+     * @return pause in milliseconds, negative value stops reconnecting
+     */
+    long delay(int attempt, Throwable cause);
+
+    /**
+     * Same pause for every attempt, separate for closed and failed connections
+     */
+    class Fixed implements ReconnectStrategy {
+        protected final long onClose;
+        protected final long onError;
+
+        public Fixed(long pause) {
+            this(pause, pause);
+        }
+
+        public Fixed(long onClose, long onError) {
+            this.onClose = onClose;
+            this.onError = onError;
+        }
+
+        @Override
+        public long delay(int attempt, Throwable cause) {
+            return cause == null ? onClose : onError;
+        }
+    }
+
+    /**
+     * Exponential backoff with full jitter: random pause in [0, min(max, base * 2^(attempt-1))],
+     * so clients that lost connection at the same moment do not come back at the same moment
+     */
+    class ExponentialBackoff implements ReconnectStrategy {
+        protected final long base;
+        protected final long max;
+        protected final int maxAttempts;
+
+        public ExponentialBackoff(long base, long max) {
+            this(base, max, -1);
+        }
+
+        /**
+         * @param maxAttempts negative value means no limit
+         */
+        public ExponentialBackoff(long base, long max, int maxAttempts) {
+            if (base <= 0 || max < base)
+                throw new IllegalArgumentException("base must be > 0 and max >= base");
+
+            this.base = base;
+            this.max = max;
+            this.maxAttempts = maxAttempts;
+        }
+
+        @Override
+        public long delay(int attempt, Throwable cause) {
+            if (maxAttempts >= 0 && attempt > maxAttempts)
+                return -1;
+
+            return ThreadLocalRandom.current().nextLong(Math.min(ceiling(attempt), Long.MAX_VALUE - 1) + 1);
+        }
+
+        protected long ceiling(int attempt) {
+            int shift = Math.min(Math.max(attempt - 1, 0), 62);
+            if (base > max >> shift)
+                return max;
+            return base << shift;
+        }
+    }
+}
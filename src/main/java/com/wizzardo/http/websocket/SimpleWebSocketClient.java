@@ -1,38 +1,145 @@
 package com.wizzardo.http.websocket;
 
-import javax.net.ssl.SSLSocket;
-import javax.net.ssl.SSLSocketFactory;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * @author: wizzardo
  * Date: 03.10.14
+ * <p>
+ * Can be started as a regular thread with {@link #start()} or its read loop can be run by any other thread,
+ * see {@link #start(ThreadFactory)} and {@link #startOn(Executor)},
+ * for example {@code client.start(Thread.ofVirtual().factory())} on java 21+
  */
 public class SimpleWebSocketClient extends Thread {
     protected static final byte[] RNRN = "\r\n\r\n".getBytes(Charsets.UTF_8);
+    protected static final byte[] RN = "\r\n".getBytes(Charsets.UTF_8);
     protected Request request;
     protected InputStream in;
     protected OutputStream out;
     protected byte[] buffer = new byte[1024];
     protected volatile int limit = 0;
+    protected int position = 0;
+    protected int viewsLimit = 0;
+    protected volatile boolean frameViews;
+    protected volatile int receiveBufferSize = 1024;
+    protected volatile AdaptiveBufferSize adaptiveBufferSize;
+    protected volatile boolean streamingMessages;
+    protected long streamedSize;
+    protected volatile PerMessageDeflate deflate;
+    protected volatile long spillThreshold = -1;
+    protected volatile Path spillDirectory;
+    protected PerMessageDeflate spillDeflate;
+    protected final PerMessageDeflate.Output messagePartOutput = new PerMessageDeflate.Output() {
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            streamedSize += length;
+            try {
+                onMessagePart(bytes, offset, length);
+            } catch (Exception e) {
+                onError(e);
+            }
+        }
+    };
     protected Message message = new Message();
     protected Socket socket;
     protected volatile boolean connected;
     protected volatile boolean running = true;
     protected volatile long reconnectOnClosePause = -1;
     protected volatile long reconnectOnErrorPause = -1;
+    protected volatile ReconnectStrategy reconnectStrategy;
+    protected final AtomicInteger reconnectAttempts = new AtomicInteger();
+    protected volatile boolean hotStandby;
+    protected final AtomicReference<Upgraded> standby = new AtomicReference<Upgraded>();
+    protected final AtomicBoolean preparingStandby = new AtomicBoolean();
+    protected final AtomicInteger standbyAttempts = new AtomicInteger();
+    protected final ReentrantLock handshakeLock = new ReentrantLock();
+    protected final ReentrantLock readLock = new ReentrantLock();
+    protected volatile CountDownLatch closeLatch = new CountDownLatch(1);
+    protected final ReentrantLock pauseLock = new ReentrantLock();
+    protected final Condition resumed = pauseLock.newCondition();
+    protected final HashedWheelTimer timer = HashedWheelTimer.shared();
+    protected volatile Executor blockingExecutor = HashedWheelTimer.sharedBlockingExecutor();
+    protected final Keepalive keepalive = new Keepalive(timer);
+    protected final ConnectionWatchdog watchdog = new ConnectionWatchdog(timer, new ConnectionWatchdog.Connection() {
+        @Override
+        public void onReadTimeout() {
+            SimpleWebSocketClient.this.onReadTimeout();
+        }
+
+        @Override
+        public void onIdleTimeout() {
+            onIdle();
+        }
+    });
+    protected volatile long pingTimeout = 10000;
+    protected volatile long closeTimeout = 10000;
+    protected final OutboundWriter writer = new OutboundWriter();
+    protected final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                writer.drain();
+            } catch (IOException e) {
+                onError(e);
+            }
+        }
+    };
+    protected volatile ByteArraySupplier byteArraySupplier = Frame.DEFAULT_BYTE_ARRAY_SUPPLIER;
+    protected volatile WebSocketMetrics metrics;
+    protected volatile MessageSink sink;
+    protected boolean sinkReady;
+    protected final Runnable sinkReadyTask = new Runnable() {
+        @Override
+        public void run() {
+            pauseLock.lock();
+            try {
+                sinkReady = true;
+                resumed.signalAll();
+            } finally {
+                pauseLock.unlock();
+            }
+        }
+    };
 
     public static class Request {
+        protected static final String KEY_PLACEHOLDER = "x3JJHMbDL1EzLkh9GBhXDw==";
+        protected static final byte[] GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11".getBytes(Charsets.ISO_8859_1);
+        protected static final byte[] STATUS_101 = "HTTP/1.1 101".getBytes(Charsets.ISO_8859_1);
+        protected static final byte[] WEBSOCKET = "websocket".getBytes(Charsets.ISO_8859_1);
+        protected static final byte[] UPGRADE = "upgrade".getBytes(Charsets.ISO_8859_1);
+
         protected URI uri;
+        protected volatile byte[] template;
+        protected volatile byte[] key;
 
         public Request(String url) throws URISyntaxException {
             URI u = new URI(url.trim());
@@ -43,6 +150,8 @@ public class SimpleWebSocketClient extends Thread {
 
         private Map<String, String> params = new HashMap<String, String>();
         private Map<String, String> headers = new HashMap<String, String>();
+        protected PerMessageDeflate.Options perMessageDeflate;
+        protected TlsOptions tls = TlsOptions.DEFAULT;
 
         public Request param(String key, String value) {
             try {
@@ -50,15 +159,68 @@ public class SimpleWebSocketClient extends Thread {
             } catch (UnsupportedEncodingException e) {
                 throw new RuntimeException(e);
             }
+            template = null;
             return this;
         }
 
         public Request header(String key, String value) {
             headers.put(key, value);
+            template = null;
+            return this;
+        }
+
+        /**
+         * Offers permessage-deflate extension with default options
+         */
+        public Request perMessageDeflate() {
+            return perMessageDeflate(new PerMessageDeflate.Options());
+        }
+
+        public Request perMessageDeflate(PerMessageDeflate.Options options) {
+            perMessageDeflate = options;
+            template = null;
+            return this;
+        }
+
+        public PerMessageDeflate.Options getPerMessageDeflate() {
+            return perMessageDeflate;
+        }
+
+        /**
+         * TLS settings for wss, requests that share options also share TLS sessions
+         */
+        public Request tls(TlsOptions tls) {
+            this.tls = tls;
             return this;
         }
 
+        public TlsOptions getTls() {
+            return tls;
+        }
+
+        protected PerMessageDeflate negotiate(byte[] response, int from, int to) throws IOException {
+            if (perMessageDeflate == null)
+                return null;
+            return PerMessageDeflate.negotiate(perMessageDeflate, SimpleWebSocketClient.header(response, from, to, "Sec-WebSocket-Extensions"));
+        }
+
+        /**
+         * Builds the request with a new random key, the key is kept for {@link #validate(byte[], int, int)}
+         */
         public String build() {
+            byte[] key = newKey();
+            this.key = key;
+            return new String(build(key), Charsets.UTF_8);
+        }
+
+        /**
+         * @return key of the last request made by {@link #build()} or null
+         */
+        public byte[] getKey() {
+            return key;
+        }
+
+        protected String buildTemplate() {
             StringBuilder sb = new StringBuilder();
             String path = uri.getRawPath();
             String query = uri.getRawQuery();
@@ -80,17 +242,89 @@ public class SimpleWebSocketClient extends Thread {
                     .append("Host: ").append(uri.getHost()).append(":").append(port()).append("\r\n")
                     .append("Upgrade: websocket\r\n")
                     .append("Connection: Upgrade\r\n")
-                    .append("Sec-WebSocket-Key: x3JJHMbDL1EzLkh9GBhXDw==\r\n")
                     .append("Sec-WebSocket-Version: 13\r\n")
                     .append("Origin: http://").append(uri.getHost()).append(":").append(port()).append("\r\n");
 
+            if (perMessageDeflate != null)
+                sb.append("Sec-WebSocket-Extensions: ").append(perMessageDeflate.offer()).append("\r\n");
+
             for (Map.Entry<String, String> header : headers.entrySet())
                 sb.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
-            sb.append("\r\n");
+            sb.append("Sec-WebSocket-Key: ").append(KEY_PLACEHOLDER).append("\r\n\r\n");
 
             return sb.toString();
         }
 
+        /**
+         * Request text is encoded once and reused, only the key at its end is replaced
+         *
+         * @param key from {@link #newKey()}
+         */
+        public byte[] build(byte[] key) {
+            byte[] template = this.template;
+            if (template == null)
+                this.template = template = buildTemplate().getBytes(Charsets.UTF_8);
+
+            byte[] bytes = Arrays.copyOf(template, template.length);
+            System.arraycopy(key, 0, bytes, bytes.length - 4 - key.length, key.length);
+            return bytes;
+        }
+
+        /**
+         * @return base64 of 16 random bytes
+         */
+        public static byte[] newKey() {
+            byte[] nonce = new byte[16];
+            ThreadLocalRandom.current().nextBytes(nonce);
+            return Base64.getEncoder().encode(nonce);
+        }
+
+        /**
+         * @return expected value of Sec-WebSocket-Accept header for the given key
+         */
+        public static byte[] accept(byte[] key) {
+            try {
+                MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+                sha1.update(key);
+                sha1.update(GUID);
+                return Base64.getEncoder().encode(sha1.digest());
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Checks the response to the request made by {@link #build()}
+         */
+        public void validate(byte[] response, int from, int to) throws IOException {
+            byte[] key = this.key;
+            if (key == null)
+                throw new IllegalStateException("Request was not built");
+            validate(response, from, to, key);
+        }
+
+        /**
+         * Checks status and upgrade headers of the response
+         *
+         * @param to position of the empty line that ends headers
+         */
+        public void validate(byte[] response, int from, int to, byte[] key) throws IOException {
+            int line = indexOf(response, from, to, RN);
+            if (line == -1)
+                line = to;
+
+            if (line - from < STATUS_101.length
+                    || !startsWith(response, from, STATUS_101)
+                    || (line - from > STATUS_101.length && response[from + STATUS_101.length] != ' '))
+                throw new IOException("Unexpected response: " + new String(response, from, line - from, Charsets.ISO_8859_1));
+            if (!hasHeader(response, line + 2, to, "Upgrade", WEBSOCKET, false))
+                throw new IOException("Response has no 'Upgrade: websocket' header");
+            if (!hasHeader(response, line + 2, to, "Connection", UPGRADE, false))
+                throw new IOException("Response has no 'Connection: Upgrade' header");
+            if (!hasHeader(response, line + 2, to, "Sec-WebSocket-Accept", accept(key), true))
+                throw new IOException("Wrong or missing Sec-WebSocket-Accept header");
+        }
+
         public String host() {
             return uri.getHost();
         }
@@ -114,9 +348,74 @@ public class SimpleWebSocketClient extends Thread {
             if (!isSecure())
                 return new Socket(host(), port());
 
-            SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
-            SSLSocket socket = (SSLSocket) factory.createSocket(host(), port());
-            return socket;
+            return tls.connect(host(), port());
+        }
+    }
+
+    /**
+     * Socket with completed upgrade that is not yet used by the client
+     */
+    protected static class Upgraded {
+        protected final Socket socket;
+        protected final InputStream in;
+        protected final OutputStream out;
+        protected final byte[] buffer;
+        protected int position;
+        protected int limit;
+        protected PerMessageDeflate deflate;
+        protected long handshakeNanos;
+
+        protected Upgraded(Socket socket, byte[] buffer) throws IOException {
+            this.socket = socket;
+            this.buffer = buffer;
+            in = socket.getInputStream();
+            out = socket.getOutputStream();
+        }
+
+        /**
+         * Reads what the server has sent so far without blocking and looks through all buffered frames
+         *
+         * @return false if the socket is closed or the server has sent a close frame
+         */
+        protected boolean isAlive() {
+            if (socket.isClosed())
+                return false;
+
+            try {
+                int available = in.available();
+                if (available > 0 && limit < buffer.length) {
+                    int read = in.read(buffer, limit, Math.min(available, buffer.length - limit));
+                    if (read == -1)
+                        return false;
+                    limit += read;
+                }
+            } catch (IOException e) {
+                return false;
+            }
+            int offset = position;
+            Frame frame = new Frame();
+            int r;
+            try {
+                while ((r = frame.readHeader(buffer, offset, limit - offset)) != 0) {
+                    if (frame.getOpcode() == Frame.OPCODE_CONNECTION_CLOSE)
+                        return false;
+
+                    long next = (long) offset + r + frame.getPayloadLength();
+                    if (next >= limit)
+                        break;
+                    offset = (int) next;
+                }
+            } catch (Frame.TooBigException e) {
+                return false;
+            }
+            return true;
+        }
+
+        protected void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
         }
     }
 
@@ -131,7 +430,13 @@ public class SimpleWebSocketClient extends Thread {
     public boolean connectIfNot() throws IOException {
         while (running && !connected)
             try {
-                handshake(request);
+                handshakeLock.lock();
+                try {
+                    if (!connected)
+                        handshake(request);
+                } finally {
+                    handshakeLock.unlock();
+                }
             } catch (Exception e) {
                 connected = false;
                 try {
@@ -140,8 +445,10 @@ public class SimpleWebSocketClient extends Thread {
                 } catch (Exception ex) {
                     onError(ex);
                 }
-                if (reconnectOnErrorPause >= 0) {
-                    pause(reconnectOnErrorPause);
+                long pause = reconnectDelay(e);
+                if (pause >= 0) {
+                    onReconnect(e);
+                    pause(pause);
                 } else {
                     break;
                 }
@@ -150,55 +457,182 @@ public class SimpleWebSocketClient extends Thread {
         return running && connected;
     }
 
-    protected synchronized void handshake(Request request) throws IOException {
-        socket = request.connect();
-        socket.setTcpNoDelay(true);
+    protected void handshake(Request request) throws IOException {
+        handshakeLock.lock();
+        try {
+            doHandshake(request);
+        } finally {
+            handshakeLock.unlock();
+        }
+    }
 
-        in = socket.getInputStream();
-        out = socket.getOutputStream();
+    /**
+     * Takes the hot standby connection if there is a live one, otherwise opens a new one
+     */
+    protected void doHandshake(Request request) throws IOException {
+        writer.setOutputStream(null);
+        Upgraded upgraded = standby.getAndSet(null);
+        if (upgraded != null && !upgraded.isAlive()) {
+            upgraded.close();
+            upgraded = null;
+        }
+        if (upgraded == null)
+            upgraded = upgrade(request, buffer.length == receiveBufferSize() ? buffer : new byte[receiveBufferSize()]);
 
-        out.write(request.build().getBytes());
-        out.flush();
+        activate(upgraded);
+        prepareStandby();
+    }
 
-        message = new Message();
-        limit = 0;
-        int response = 0;
-        int read = 0;
-        while ((read = in.read(buffer, limit, buffer.length - limit)) != -1) {
-//            System.out.println(new String(bytes, 0, r));
-            limit += read;
-            if ((response = search(buffer, 0, limit, RNRN)) >= 0)
-                break;
+    /**
+     * Opens a socket and performs the upgrade, response is read into the given buffer
+     */
+    protected Upgraded upgrade(Request request, byte[] buffer) throws IOException {
+        long start = System.nanoTime();
+        Upgraded upgraded = new Upgraded(request.connect(), buffer);
+        try {
+            upgraded.socket.setTcpNoDelay(true);
+            byte[] key = Request.newKey();
+            upgraded.out.write(request.build(key));
+            upgraded.out.flush();
+
+            int response = -1;
+            int read;
+            while (upgraded.limit < buffer.length && (read = upgraded.in.read(buffer, upgraded.limit, buffer.length - upgraded.limit)) != -1) {
+                upgraded.limit += read;
+                if ((response = search(buffer, 0, upgraded.limit, RNRN)) >= 0)
+                    break;
+            }
+
+            if (response == -1)
+                throw new IOException(upgraded.limit == 0 ? "No response" : "Empty or wrong response");
+
+            request.validate(buffer, 0, response, key);
+            upgraded.deflate = request.negotiate(buffer, 0, response);
+            upgraded.position = response + 4;
+            upgraded.handshakeNanos = System.nanoTime() - start;
+            return upgraded;
+        } catch (IOException e) {
+            upgraded.close();
+            throw e;
         }
+    }
+
+    /**
+     * Switches the client to the upgraded socket, frames queued during the upgrade are written before {@link #onConnect()}
+     */
+    protected void activate(Upgraded upgraded) throws IOException {
+        closeSocket();
+        socket = upgraded.socket;
+        in = upgraded.in;
+        out = upgraded.out;
+        buffer = upgraded.buffer;
+        position = upgraded.position;
+        limit = upgraded.limit;
+        viewsLimit = 0;
+
+        message.releaseSpill();
+        message = new Message();
+        spillDeflate = null;
+        keepalive.reset();
+        closeLatch = new CountDownLatch(1);
+
+        PerMessageDeflate previous = deflate;
+        deflate = upgraded.deflate;
+        if (previous != null)
+            previous.release();
+
+        writer.setOutputStream(out);
+        connected = true;
+        reconnectAttempts.set(0);
+        watchdog.start();
+        writer.drain();
 
-        if (response == -1)
-            throw new IOException("No response");
+        WebSocketMetrics metrics = this.metrics;
+        if (metrics != null)
+            metrics.onHandshake(upgraded.handshakeNanos);
 
-//        System.out.println(new String(buffer, 0, response));
         try {
             onConnect();
         } catch (Exception e) {
             onError(e);
         }
+    }
 
-        int limit = this.limit - (response + 4);
-        try {
-            if (limit != 0)
-                System.arraycopy(buffer, response + 4, buffer, 0, limit);
+    /**
+     * Opens the standby connection with the blocking executor if hot standby is enabled and there is none
+     */
+    protected void prepareStandby() {
+        if (!hotStandby || !running || standby.get() != null || !preparingStandby.compareAndSet(false, true))
+            return;
 
-            this.limit = limit;
-        } catch (Exception e) {
-            System.out.println("limit: " + limit);
-            System.out.println("response length: " + response);
-            System.out.println("failed to copy data from " + (response + 4) + " and length " + limit);
-            System.out.println(new String(buffer, 0, this.limit));
-            throw new IOException("Empty or wrong response", e);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                long retry = -1;
+                try {
+                    Upgraded upgraded = upgrade(request, new byte[receiveBufferSize()]);
+                    standbyAttempts.set(0);
+                    if (!standby.compareAndSet(null, upgraded))
+                        upgraded.close();
+                    if (!hotStandby || !running)
+                        closeStandby();
+                } catch (Exception e) {
+                    onError(e);
+                    ReconnectStrategy strategy = reconnectStrategy;
+                    retry = strategy != null ? strategy.delay(standbyAttempts.incrementAndGet(), e) : reconnectOnErrorPause;
+                } finally {
+                    preparingStandby.set(false);
+                }
+
+                if (retry >= 0)
+                    timer.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            prepareStandby();
+                        }
+                    }, retry, TimeUnit.MILLISECONDS);
+            }
+        };
+        try {
+            blockingExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            preparingStandby.set(false);
+            onError(e);
         }
+    }
 
-        connected = true;
+    protected void closeStandby() {
+        Upgraded upgraded = standby.getAndSet(null);
+        if (upgraded != null)
+            upgraded.close();
+    }
+
+    /**
+     * Keeps a second connection upgraded and ready, so after a failure the client switches to it
+     * without waiting for a reconnect pause, tcp/tls handshakes and upgrade. The standby connection is not read,
+     * before use it is checked that the server has not closed it.
+     */
+    public void setHotStandby(boolean hotStandby) {
+        this.hotStandby = hotStandby;
+        if (!hotStandby)
+            closeStandby();
+        else if (connected)
+            prepareStandby();
+    }
+
+    public boolean isHotStandby() {
+        return hotStandby;
+    }
+
+    public boolean hasStandby() {
+        return standby.get() != null;
     }
 
     protected int search(byte[] src, int from, int to, byte[] needle) {
+        return indexOf(src, from, to, needle);
+    }
+
+    static int indexOf(byte[] src, int from, int to, byte[] needle) {
         if (needle == null || needle.length == 0)
             return -1;
 
@@ -219,6 +653,99 @@ public class SimpleWebSocketClient extends Thread {
         return -1;
     }
 
+    /**
+     * @return value of the header in http response or null, values of repeated headers are joined with ', '
+     */
+    static String header(byte[] src, int from, int to, String name) {
+        String result = null;
+        int length = name.length();
+        int i = from;
+        while (i < to) {
+            int end = indexOf(src, i, to, RN);
+            if (end == -1)
+                end = to;
+
+            if (end - i > length && src[i + length] == ':' && matches(src, i, name)) {
+                String value = new String(src, i + length + 1, end - i - length - 1, Charsets.ISO_8859_1).trim();
+                result = result == null ? value : result + ", " + value;
+            }
+            i = end + 2;
+        }
+        return result;
+    }
+
+    /**
+     * @return true if one of comma-separated values of the header equals to the given value
+     */
+    static boolean hasHeader(byte[] src, int from, int to, String name, byte[] value, boolean caseSensitive) {
+        int length = name.length();
+        int i = from;
+        while (i < to) {
+            int end = indexOf(src, i, to, RN);
+            if (end == -1)
+                end = to;
+
+            if (end - i > length && src[i + length] == ':' && matches(src, i, name)) {
+                int start = i + length + 1;
+                while (start < end) {
+                    int next = start;
+                    while (next < end && src[next] != ',')
+                        next++;
+
+                    int a = start;
+                    int b = next;
+                    while (a < b && (src[a] == ' ' || src[a] == '\t'))
+                        a++;
+                    while (b > a && (src[b - 1] == ' ' || src[b - 1] == '\t'))
+                        b--;
+                    if (b - a == value.length && equals(src, a, value, caseSensitive))
+                        return true;
+
+                    start = next + 1;
+                }
+            }
+            i = end + 2;
+        }
+        return false;
+    }
+
+    static boolean equals(byte[] src, int offset, byte[] value, boolean caseSensitive) {
+        for (int j = 0; j < value.length; j++) {
+            byte b = src[offset + j];
+            if (b != value[j] && (caseSensitive || Character.toLowerCase((char) b) != Character.toLowerCase((char) value[j])))
+                return false;
+        }
+        return true;
+    }
+
+    static boolean startsWith(byte[] src, int offset, byte[] prefix) {
+        return src.length - offset >= prefix.length && equals(src, offset, prefix, true);
+    }
+
+    static boolean matches(byte[] src, int offset, String name) {
+        for (int j = 0; j < name.length(); j++) {
+            if (Character.toLowerCase((char) src[offset + j]) != Character.toLowerCase(name.charAt(j)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Runs read loop in a thread created by the given factory instead of this one
+     */
+    public Thread start(ThreadFactory threadFactory) {
+        Thread thread = threadFactory.newThread(this);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Submits read loop to the given executor instead of starting this thread
+     */
+    public void startOn(Executor executor) {
+        executor.execute(this);
+    }
+
     @Override
     public void run() {
         doWithReconnects(new IORunnable() {
@@ -227,8 +754,10 @@ public class SimpleWebSocketClient extends Thread {
                 while (running) {
                     waitForMessage();
                     if (isClosed() && running) {
-                        if (reconnectOnClosePause >= 0) {
-                            pause(reconnectOnClosePause);
+                        long pause = reconnectDelay(null);
+                        if (pause >= 0) {
+                            onReconnect(null);
+                            pause(pause);
                         } else {
                             break;
                         }
@@ -236,15 +765,66 @@ public class SimpleWebSocketClient extends Thread {
                 }
             }
         });
+        // while still connected the thread that called close owns the close handshake
+        if (!running && !connected)
+            closeSocket();
+    }
+
+    /**
+     * @param cause error that broke the connection or null if it was closed by the server
+     * @return pause before the next attempt from {@link ReconnectStrategy} or fixed pauses if it is not set,
+     * 0 if a standby connection is ready, negative value if the client should not reconnect
+     */
+    protected long reconnectDelay(Throwable cause) {
+        ReconnectStrategy strategy = reconnectStrategy;
+        long pause;
+        if (strategy != null)
+            pause = strategy.delay(reconnectAttempts.incrementAndGet(), cause);
+        else
+            pause = cause == null ? reconnectOnClosePause : reconnectOnErrorPause;
+
+        if (pause > 0 && standby.get() != null)
+            return 0;
+        return pause;
+    }
+
+    protected void onReconnect(Throwable cause) {
+        WebSocketMetrics metrics = this.metrics;
+        if (metrics != null)
+            metrics.onReconnect(cause);
     }
 
+    /**
+     * Waits on a condition instead of sleeping, so {@link #close()} can end the pause early.
+     * Unlike Object.wait it does not pin the carrier when the client runs on a virtual thread
+     */
     protected void pause(long ms) {
+        if (ms <= 0)
+            return;
+
+        long nanos = TimeUnit.MILLISECONDS.toNanos(ms);
+        pauseLock.lock();
         try {
-            Thread.sleep(ms);
+            while (running && nanos > 0)
+                nanos = resumed.awaitNanos(nanos);
         } catch (InterruptedException ignored) {
+        } finally {
+            pauseLock.unlock();
+        }
+    }
+
+    protected void wakeUp() {
+        pauseLock.lock();
+        try {
+            resumed.signalAll();
+        } finally {
+            pauseLock.unlock();
         }
     }
 
+    /**
+     * Pause before reconnecting after the server closed connection, used if there is no {@link ReconnectStrategy}
+     */
     public void setReconnectOnClosePause(long pause) {
         reconnectOnClosePause = pause;
     }
@@ -261,16 +841,71 @@ public class SimpleWebSocketClient extends Thread {
         return reconnectOnErrorPause;
     }
 
+    /**
+     * Replaces fixed reconnect pauses, for example {@code new ReconnectStrategy.ExponentialBackoff(100, 30000)}.
+     * Null returns to the fixed pauses
+     */
+    public void setReconnectStrategy(ReconnectStrategy reconnectStrategy) {
+        this.reconnectStrategy = reconnectStrategy;
+    }
+
+    public ReconnectStrategy getReconnectStrategy() {
+        return reconnectStrategy;
+    }
+
+    /**
+     * Supplier for payloads of incoming frames, with a pooling supplier messages should be
+     * {@link Message#release() released} once they are processed.
+     * The client keeps its own {@link ByteArraySupplier#forOwner() view} of the given supplier
+     */
+    public void setByteArraySupplier(ByteArraySupplier byteArraySupplier) {
+        this.byteArraySupplier = byteArraySupplier.forOwner();
+    }
+
+    public ByteArraySupplier getByteArraySupplier() {
+        return byteArraySupplier;
+    }
+
     public void waitForMessage() throws IOException {
         if (!connectIfNot())
             return;
 
-        while (!message.isComplete()) {
-            if (!onFrame(readFrame()))
-                break;
+        readLock.lock();
+        try {
+            if (streamingMessages) {
+                streamMessage();
+                return;
+            }
+
+            while (!message.isComplete()) {
+                if (!readMessageFrame())
+                    break;
+            }
+            if (message.isComplete())
+                dispatchMessage();
+        } finally {
+            readLock.unlock();
         }
-        if (!message.isComplete())
+    }
+
+    protected void dispatchMessage() throws IOException {
+        PerMessageDeflate deflate = this.deflate;
+        if (deflate != null && message.isCompressed())
+            message = deflate.inflate(message, byteArraySupplier);
+
+        WebSocketMetrics metrics = this.metrics;
+        if (metrics != null)
+            metrics.onMessageIn(message.getLongLength());
+        watchdog.onActivity();
+
+        MessageSink sink = this.sink;
+        if (sink != null) {
+            Message message = this.message.detachFrames();
+            this.message = new Message();
+            viewsLimit = 0;
+            offer(sink, message);
             return;
+        }
 
         try {
             onMessage(message);
@@ -278,15 +913,217 @@ public class SimpleWebSocketClient extends Thread {
             onError(e);
         }
 
+        message.releaseSpill();
         message = new Message();
+        viewsLimit = 0;
+    }
+
+    /**
+     * Waits until the sink takes the message, the socket is not read meanwhile.
+     * The message is released if the client is closed before that.
+     * Waits on the pause condition, so a paused reader on a virtual thread does not pin its carrier
+     */
+    protected void offer(MessageSink sink, Message message) throws IOException {
+        while (!sink.offer(message)) {
+            pauseLock.lock();
+            try {
+                sinkReady = false;
+            } finally {
+                pauseLock.unlock();
+            }
+            sink.onReady(sinkReadyTask);
+            pauseLock.lock();
+            try {
+                while (running && !sinkReady)
+                    resumed.await();
+            } catch (InterruptedException e) {
+                message.release();
+                throw new InterruptedIOException();
+            } finally {
+                pauseLock.unlock();
+            }
+            if (!running) {
+                message.release();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads next frame of the current message, once the message exceeds spill threshold
+     * it is moved into a temporary file and the rest of its payload goes there directly
+     *
+     * @return false if connection is closed
+     */
+    protected boolean readMessageFrame() throws IOException {
+        long threshold = spillThreshold;
+        if (threshold < 0)
+            return onFrame(readFrame());
+
+        while (!Frame.hasHeaders(buffer, position, limit - position)) {
+            fill();
+        }
+        if ((buffer[position] & Frame.OPCODE) >= Frame.OPCODE_CONNECTION_CLOSE)
+            return onFrame(readFrame());
+
+        Frame frame = new Frame();
+        int r;
+        while ((r = frame.readHeader(buffer, position, limit - position)) == 0) {
+            fill();
+        }
+        if (!message.isSpilled() && message.getLongLength() + frame.getPayloadLength() <= threshold)
+            return onFrame(readFrame());
+
+        position += r;
+        WebSocketMetrics metrics = this.metrics;
+        if (metrics != null)
+            metrics.onFrameIn(frame.getOpcode(), frame.getPayloadLength());
+        spill(frame);
+        return true;
+    }
+
+    protected void spill(Frame frame) throws IOException {
+        if (!message.isSpilled()) {
+            boolean compressed = message.size() > 0 ? message.isCompressed() : frame.isRsv1();
+            spillDeflate = compressed ? deflate : null;
+            SpillFile file = new SpillFile(spillDirectory);
+            for (Frame f : message.getFrames()) {
+                spill(file, f.getData(), f.getOffset(), f.getLength());
+            }
+            message.spill(file, message.size() > 0 ? message.get(0).getOpcode() : frame.getOpcode());
+        }
+
+        SpillFile file = message.getSpillFile();
+        long length = frame.getPayloadLength();
+        long read = 0;
+        while (read < length) {
+            if (position == limit)
+                fill();
+
+            int l = (int) Math.min(length - read, limit - position);
+            frame.unmask(buffer, position, l, (int) read);
+            spill(file, buffer, position, l);
+            position += l;
+            read += l;
+        }
+
+        AdaptiveBufferSize adaptiveBufferSize = this.adaptiveBufferSize;
+        if (adaptiveBufferSize != null)
+            adaptiveBufferSize.record((int) Math.min(frame.getPayloadLength(), Integer.MAX_VALUE));
+
+        if (frame.isFinalFrame()) {
+            if (spillDeflate != null)
+                spillDeflate.inflateEnd(file);
+            spillDeflate = null;
+            message.spillComplete();
+        }
+    }
+
+    protected void spill(SpillFile file, byte[] bytes, int offset, int length) throws IOException {
+        if (spillDeflate != null)
+            spillDeflate.inflate(bytes, offset, length, file);
+        else
+            file.write(bytes, offset, length);
+    }
+
+    /**
+     * Passes payload of data frames to {@link #onMessagePart(byte[], int, int)} as soon as it is read,
+     * so only the read buffer is used regardless of message size
+     */
+    protected void streamMessage() throws IOException {
+        boolean started = false;
+        streamedSize = 0;
+        PerMessageDeflate deflate = null;
+        while (true) {
+            while (!Frame.hasHeaders(buffer, position, limit - position)) {
+                fill();
+            }
+
+            if ((buffer[position] & Frame.OPCODE) >= Frame.OPCODE_CONNECTION_CLOSE) {
+                if (!onFrame(readFrame()) || !started)
+                    return;
+                continue;
+            }
+
+            Frame frame = new Frame();
+            int r;
+            while ((r = frame.readHeader(buffer, position, limit - position)) == 0) {
+                fill();
+            }
+            position += r;
+
+            WebSocketMetrics metrics = this.metrics;
+            if (metrics != null)
+                metrics.onFrameIn(frame.getOpcode(), frame.getPayloadLength());
+
+            if (!started) {
+                started = true;
+                if (frame.isRsv1())
+                    deflate = this.deflate;
+                try {
+                    onMessageStart(frame.getOpcode());
+                } catch (Exception e) {
+                    onError(e);
+                }
+            }
+
+            long length = frame.getPayloadLength();
+            long read = 0;
+            while (read < length) {
+                if (position == limit)
+                    fill();
+
+                int l = (int) Math.min(length - read, limit - position);
+                frame.unmask(buffer, position, l, (int) read);
+                if (deflate != null)
+                    deflate.inflate(buffer, position, l, messagePartOutput);
+                else
+                    messagePartOutput.write(buffer, position, l);
+                position += l;
+                read += l;
+            }
+
+            AdaptiveBufferSize adaptiveBufferSize = this.adaptiveBufferSize;
+            if (adaptiveBufferSize != null)
+                adaptiveBufferSize.record((int) Math.min(frame.getPayloadLength(), Integer.MAX_VALUE));
+
+            if (frame.isFinalFrame()) {
+                if (deflate != null)
+                    deflate.inflateEnd(messagePartOutput);
+                if (metrics != null)
+                    metrics.onMessageIn(streamedSize);
+                watchdog.onActivity();
+                try {
+                    onMessageEnd();
+                } catch (Exception e) {
+                    onError(e);
+                }
+                return;
+            }
+        }
     }
 
-    protected boolean onFrame(Frame frame) {
-        if (frame.isPing())
+    /**
+     * Pings are answered right away by the reading thread, pongs are matched to sent pings
+     *
+     * @return false if it is a close frame
+     */
+    protected boolean onFrame(Frame frame) throws IOException {
+        if (frame.isPing()) {
+            Frame pong = frame.getData() == null ? new Frame(Frame.OPCODE_PONG) : new Frame(Frame.OPCODE_PONG, frame.getData(), frame.getOffset(), frame.getLength());
+            writer.write(pong.mask());
+            return true;
+        }
+
+        if (frame.isPong()) {
+            if (frame.getData() != null)
+                keepalive.onPong(frame.getData(), frame.getOffset(), frame.getLength());
             return true;
+        }
 
         if (frame.isClose()) {
             connected = false;
+            closeLatch.countDown();
             onClose();
             return false;
         }
@@ -296,32 +1133,216 @@ public class SimpleWebSocketClient extends Thread {
     }
 
     private Frame readFrame() throws IOException {
-        while (!Frame.hasHeaders(buffer, 0, limit)) {
-            int read = in.read(buffer, limit, buffer.length - limit);
-            if (read == -1)
-                throw new IOException("Connection closed");
-
-            limit += read;
+        while (!Frame.hasHeaders(buffer, position, limit - position)) {
+            fill();
         }
         Frame frame = new Frame();
-        int r = frame.read(buffer, 0, limit);
-        limit -= r;
-        if (limit != 0)
-            System.arraycopy(buffer, r, buffer, 0, limit);
+        frame.setByteArraySupplier(byteArraySupplier);
+        int r;
+        while ((r = read(frame)) == 0) {
+            fill();
+        }
+        position += r;
+        if (frame.isView())
+            viewsLimit = position;
+
+        while (!frame.isComplete()) {
+            frame.read(in);
+        }
+
+        WebSocketMetrics metrics = this.metrics;
+        if (metrics != null)
+            metrics.onFrameIn(frame.getOpcode(), frame.getPayloadLength());
+
+        AdaptiveBufferSize adaptiveBufferSize = this.adaptiveBufferSize;
+        if (adaptiveBufferSize != null)
+            adaptiveBufferSize.record(frame.getFrameLength());
 
-        if (frame.isComplete())
-            return frame;
-        else {
-            while (!frame.isComplete()) {
-                frame.read(in);
+        return frame;
+    }
+
+    protected int read(Frame frame) throws IOException {
+        if (frameViews)
+            return frame.readView(buffer, position, limit - position);
+        else
+            return frame.read(buffer, position, limit - position);
+    }
+
+    /**
+     * Reads more data into the buffer. Only an incomplete frame header can be left unparsed,
+     * so the buffer is either reset or a few bytes are moved to its beginning.
+     */
+    protected void fill() throws IOException {
+        int size = receiveBufferSize();
+        if (size != buffer.length && size >= limit - position) {
+            byte[] bytes = new byte[size];
+            limit -= position;
+            System.arraycopy(buffer, position, bytes, 0, limit);
+            position = 0;
+            buffer = bytes;
+            viewsLimit = 0;
+        } else if (position != 0) {
+            if (viewsLimit != 0) {
+                message.detach();
+                viewsLimit = 0;
             }
-            return frame;
+            limit -= position;
+            if (limit != 0)
+                System.arraycopy(buffer, position, buffer, 0, limit);
+            position = 0;
         }
+
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if (read == -1)
+            throw new IOException("Connection closed");
+
+        limit += read;
+        watchdog.onRead();
+    }
+
+    protected int receiveBufferSize() {
+        AdaptiveBufferSize adaptiveBufferSize = this.adaptiveBufferSize;
+        return adaptiveBufferSize != null ? adaptiveBufferSize.size() : receiveBufferSize;
+    }
+
+    /**
+     * Sets fixed size of the read buffer, bigger frames are read directly into their payload arrays
+     */
+    public void setReceiveBufferSize(int size) {
+        if (size < 128)
+            throw new IllegalArgumentException("size must be >= 128");
+        receiveBufferSize = size;
+        adaptiveBufferSize = null;
+    }
+
+    /**
+     * Lets the read buffer grow and shrink between min and max depending on observed frame sizes,
+     * max is best kept close to the socket receive buffer size
+     */
+    public void setAdaptiveReceiveBuffer(int min, int max) {
+        adaptiveBufferSize = new AdaptiveBufferSize(min, max);
+    }
+
+    public int getReceiveBufferSize() {
+        return buffer.length;
+    }
+
+    /**
+     * Complete frames that fit into the read buffer will reference it instead of being copied.
+     * Such messages are valid only until {@link #onMessage(Message)} returns, use {@link Message#detach()} to keep them.
+     */
+    public void setFrameViews(boolean frameViews) {
+        this.frameViews = frameViews;
+    }
+
+    public boolean isFrameViews() {
+        return frameViews;
+    }
+
+    /**
+     * Instead of assembling {@link Message}s payload is passed to
+     * {@link #onMessageStart(byte)}, {@link #onMessagePart(byte[], int, int)} and {@link #onMessageEnd()} as it arrives
+     */
+    public void setStreamingMessages(boolean streamingMessages) {
+        this.streamingMessages = streamingMessages;
+    }
+
+    public boolean isStreamingMessages() {
+        return streamingMessages;
+    }
+
+    /**
+     * Messages bigger than the threshold are written into a temporary file instead of the heap,
+     * see {@link Message#isSpilled()}. The file is deleted after {@link #onMessage(Message)} returns,
+     * unless the message is {@link Message#detach() detached}. Negative value disables spilling.
+     */
+    public void setSpillThreshold(long spillThreshold) {
+        this.spillThreshold = spillThreshold;
+    }
+
+    public long getSpillThreshold() {
+        return spillThreshold;
+    }
+
+    /**
+     * Directory for spill files, default temporary directory is used if not set
+     */
+    public void setSpillDirectory(Path spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    public Path getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * Complete messages are passed to {@link #onMessage(Message)} on the executor instead of the reading thread,
+     * in the order they were received. Frames that reference the read buffer are copied before the handoff.
+     * Streaming mode is not affected. Several clients can share one executor.
+     *
+     * @param capacity max number of messages waiting for the handler
+     * @param overflow what to do when the queue is full
+     */
+    public MessageDispatcher setDispatcher(Executor executor, int capacity, MessageDispatcher.Overflow overflow) {
+        MessageDispatcher dispatcher = new MessageDispatcher(executor, capacity, overflow, new MessageDispatcher.Handler() {
+            @Override
+            public void onMessage(Message message) {
+                SimpleWebSocketClient.this.onMessage(message);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                SimpleWebSocketClient.this.onError(e);
+            }
+        });
+        this.sink = dispatcher;
+        return dispatcher;
+    }
+
+    /**
+     * Returns to calling {@link #onMessage(Message)} on the reading thread, already queued messages are still handled
+     */
+    public void removeDispatcher() {
+        sink = null;
+    }
+
+    public MessageDispatcher getDispatcher() {
+        MessageSink sink = this.sink;
+        return sink instanceof MessageDispatcher ? (MessageDispatcher) sink : null;
+    }
+
+    /**
+     * Complete messages are passed to the sink instead of {@link #onMessage(Message)},
+     * the socket is not read while the sink does not take them. Streaming mode is not affected.
+     */
+    public void setMessageSink(MessageSink sink) {
+        this.sink = sink;
+    }
+
+    public MessageSink getMessageSink() {
+        return sink;
     }
 
     public void onMessage(Message message) {
     }
 
+    /**
+     * Called in streaming mode when the first frame of a message is received
+     *
+     * @param opcode {@link Frame#OPCODE_TEXT_FRAME} or {@link Frame#OPCODE_BINARY_FRAME}
+     */
+    public void onMessageStart(byte opcode) {
+    }
+
+    /**
+     * Called in streaming mode with the next part of the payload, bytes are valid only until this method returns
+     */
+    public void onMessagePart(byte[] bytes, int offset, int length) {
+    }
+
+    public void onMessageEnd() {
+    }
+
     public void onConnect() {
     }
 
@@ -338,17 +1359,52 @@ public class SimpleWebSocketClient extends Thread {
 
 
     public void send(final Message message) throws IOException {
+        WebSocketMetrics metrics = this.metrics;
+        if (metrics != null)
+            metrics.onMessageOut(message.getLongLength());
+        watchdog.onActivity();
+
+        if (isConnecting()) {
+            writer.write(maskedFrames(message));
+            return;
+        }
+
         doWithReconnects(new IORunnable() {
             @Override
             public void run() throws IOException {
-                for (Frame frame : message.getFrames()) {
-                    frame.mask().write(out);
+                PerMessageDeflate deflate = SimpleWebSocketClient.this.deflate;
+                if (deflate != null && deflate.shouldCompress(message) && deflate.retain()) {
+                    deflate.lock();
+                    try {
+                        writer.write(deflate.deflate(message).mask());
+                    } finally {
+                        deflate.unlock();
+                        deflate.release();
+                    }
+                } else {
+                    writer.write(maskedFrames(message));
                 }
-                out.flush();
             }
         });
     }
 
+    protected Frame[] maskedFrames(Message message) {
+        List<Frame> list = message.getFrames();
+        Frame[] frames = new Frame[list.size()];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = list.get(i).mask();
+        }
+        return frames;
+    }
+
+    /**
+     * @return true if another thread is performing the upgrade right now. Then frames are queued without waiting for it
+     * and written right after the upgrade response, uncompressed since extensions are not negotiated yet
+     */
+    protected boolean isConnecting() {
+        return !connected && running && handshakeLock.isLocked() && !handshakeLock.isHeldByCurrentThread();
+    }
+
     protected static interface IORunnable {
         void run() throws IOException;
     }
@@ -363,14 +1419,18 @@ public class SimpleWebSocketClient extends Thread {
                 break;
             } catch (IOException e) {
                 connected = false;
+                if (e instanceof Frame.TooBigException)
+                    closeTooBig();
                 try {
                     onError(e);
                     onClose();
                 } catch (Exception ex) {
                     onError(ex);
                 }
-                if (reconnectOnErrorPause >= 0) {
-                    pause(reconnectOnErrorPause);
+                long pause = reconnectDelay(e);
+                if (pause >= 0) {
+                    onReconnect(e);
+                    pause(pause);
                 } else {
                     break;
                 }
@@ -387,62 +1447,355 @@ public class SimpleWebSocketClient extends Thread {
     }
 
     public void send(final Frame frame) throws IOException {
+        WebSocketMetrics metrics = this.metrics;
+        if (!frame.isControl()) {
+            if (metrics != null)
+                metrics.onMessageOut(frame.getPayloadLength());
+            watchdog.onActivity();
+        }
+
+        if (isConnecting()) {
+            writer.write(frame);
+            return;
+        }
+
         doWithReconnects(new IORunnable() {
             @Override
             public void run() throws IOException {
-                frame.write(out);
-                if (frame.isFinalFrame())
-                    out.flush();
+                writer.write(frame);
             }
         });
     }
 
     public void send(byte[] data, int offset, int length) throws IOException {
-        send(new Frame(data, offset, length).mask());
+        if (request.getPerMessageDeflate() != null)
+            send(new Message(data, offset, length));
+        else
+            send(new Frame(data, offset, length).mask());
     }
 
+    /**
+     * Sends remaining bytes of the buffer as a binary message,
+     * the buffer is masked in place and should not be reused until it is sent
+     */
+    public void send(ByteBuffer payload) throws IOException {
+        if (request.getPerMessageDeflate() != null)
+            send(new Message().append(payload));
+        else
+            send(new ByteBufferFrame(payload).mask());
+    }
+
+    /**
+     * Sends a ping and waits for its pong. If no other thread is reading, frames are read by the calling thread
+     * and complete messages are passed to {@link #onMessage(Message)}, otherwise the reader delivers the pong.
+     *
+     * @return round-trip time in milliseconds
+     * @throws IOException if there was no pong in {@link #setPingTimeout(long) ping timeout} or connection was closed
+     */
     public long ping() throws IOException {
-        long time = System.currentTimeMillis();
-        send(new Frame(Frame.OPCODE_PING));
-        Frame frame = readFrame();
-        while (!frame.isPong()) {
-            onFrame(frame);
-            if (frame.isClose())
-                break;
+        if (!connectIfNot())
+            throw new IOException("Not connected");
+
+        Keepalive.Ping ping = keepalive.newPing();
+        try {
+            writer.write(pingFrame(ping.getPayload()));
+            if (readLock.tryLock()) {
+                try {
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(pingTimeout);
+                    while (!ping.isAnswered() && connected && System.nanoTime() < deadline) {
+                        if (streamingMessages)
+                            streamMessage();
+                        else if (readMessageFrame() && message.isComplete())
+                            dispatchMessage();
+                    }
+                } finally {
+                    readLock.unlock();
+                }
+            }
 
-            frame = readFrame();
+            long rtt = ping.await(pingTimeout, TimeUnit.MILLISECONDS);
+            if (rtt < 0)
+                throw new IOException(connected ? "Ping timeout" : "Connection closed");
+            return TimeUnit.NANOSECONDS.toMillis(rtt);
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } finally {
+            keepalive.cancel(ping);
         }
-        return System.currentTimeMillis() - time;
     }
 
-    public void close() throws IOException {
+    protected Frame pingFrame(byte[] payload) {
+        return new Frame(Frame.OPCODE_PING, payload, 0, payload.length).mask();
+    }
+
+    /**
+     * Sends pings every interval without blocking senders or the reader,
+     * if maxMissedPongs pings in a row are not answered before the next one is due {@link #onKeepaliveTimeout(int)} is called
+     */
+    public void setKeepalive(long intervalMs, int maxMissedPongs) {
+        keepalive.start(new Keepalive.Connection() {
+            @Override
+            public boolean isConnected() {
+                return connected;
+            }
+
+            @Override
+            public void sendPing(byte[] payload) {
+                writeAsync(pingFrame(payload));
+            }
+
+            @Override
+            public void onKeepaliveTimeout(int missedPongs) {
+                SimpleWebSocketClient.this.onKeepaliveTimeout(missedPongs);
+            }
+        }, intervalMs, TimeUnit.MILLISECONDS, maxMissedPongs);
+    }
+
+    public void stopKeepalive() {
+        keepalive.stop();
+    }
+
+    /**
+     * Queues the frame and leaves the write to the blocking executor unless another thread is writing already,
+     * so timer tasks are not blocked by a slow peer
+     */
+    protected void writeAsync(Frame frame) {
+        if (writer.enqueue(new Frame[]{frame}))
+            blockingExecutor.execute(drainTask);
+    }
+
+    /**
+     * Executor for writes queued by timer tasks and for standby handshakes,
+     * {@link HashedWheelTimer#sharedBlockingExecutor()} by default
+     */
+    public void setBlockingExecutor(Executor blockingExecutor) {
+        this.blockingExecutor = blockingExecutor;
+    }
+
+    public Executor getBlockingExecutor() {
+        return blockingExecutor;
+    }
+
+    /**
+     * Called by the keepalive scheduler, closes the socket so the reader fails and reconnects if it is configured to
+     */
+    protected void onKeepaliveTimeout(int missedPongs) {
+        onError(new IOException("Keepalive timeout: " + missedPongs + " pongs are missing"));
+        closeSocket();
+    }
+
+    /**
+     * @return smoothed round-trip time in milliseconds or -1 if no pong was received yet
+     */
+    public double getSmoothedRtt() {
+        long rtt = keepalive.getSmoothedRtt();
+        return rtt < 0 ? -1 : rtt / 1e6;
+    }
+
+    public double getLastRtt() {
+        long rtt = keepalive.getLastRtt();
+        return rtt < 0 ? -1 : rtt / 1e6;
+    }
+
+    public int getMissedPongs() {
+        return keepalive.getMissedPongs();
+    }
+
+    public Keepalive getKeepalive() {
+        return keepalive;
+    }
+
+    /**
+     * Time to wait for a pong in {@link #ping()}
+     */
+    public void setPingTimeout(long pingTimeout) {
+        this.pingTimeout = pingTimeout;
+    }
+
+    public long getPingTimeout() {
+        return pingTimeout;
+    }
+
+    /**
+     * Time to wait for the answer to a close frame, after that the socket is closed anyway
+     */
+    public void setCloseTimeout(long closeTimeout) {
+        this.closeTimeout = closeTimeout;
+    }
+
+    public long getCloseTimeout() {
+        return closeTimeout;
+    }
+
+    /**
+     * Drops the connection if nothing, including pongs and other control frames, was received for the given time.
+     * Checked by the shared timer, 0 disables it
+     */
+    public void setReadTimeout(long ms) {
+        watchdog.setReadTimeout(ms);
+        if (connected)
+            watchdog.start();
+    }
+
+    public long getReadTimeout() {
+        return watchdog.getReadTimeout();
+    }
+
+    /**
+     * Calls {@link #onIdle()} if no data message was sent or received for the given time, 0 disables it
+     */
+    public void setIdleTimeout(long ms) {
+        watchdog.setIdleTimeout(ms);
+        if (connected)
+            watchdog.start();
+    }
+
+    public long getIdleTimeout() {
+        return watchdog.getIdleTimeout();
+    }
+
+    /**
+     * Called by the shared timer, closes the socket so the reader fails and reconnects if it is configured to
+     */
+    protected void onReadTimeout() {
         if (!connected)
             return;
 
-        send(new Frame(Frame.OPCODE_CONNECTION_CLOSE));
-        running = false;
-        Frame frame = readFrame();
-        while (!frame.isClose()) {
-            onFrame(frame);
-            frame = readFrame();
-        }
-        connected = false;
-        onClose();
+        onError(new SocketTimeoutException("Read timeout"));
+        closeSocket();
+    }
+
+    /**
+     * Called by the shared timer after idle timeout, closes the connection without waiting for the answer
+     */
+    protected void onIdle() {
+        if (connected)
+            closeAsync(Frame.closeFrame(1000, "Idle timeout"));
+    }
+
+    /**
+     * Enables reporting of traffic, handshakes, reconnects and outbound queue, null disables it
+     */
+    public void setMetrics(WebSocketMetrics metrics) {
+        this.metrics = metrics;
+        writer.setMetrics(metrics);
+    }
+
+    public WebSocketMetrics getMetrics() {
+        return metrics;
+    }
+
+    public int getOutboundQueueDepth() {
+        return writer.getQueueDepth();
+    }
+
+    public long getOutboundFlushCount() {
+        return writer.getFlushCount();
+    }
+
+    public long getOutboundWriteCount() {
+        return writer.getWriteCount();
+    }
+
+    public void close() throws IOException {
+        close(new Frame(Frame.OPCODE_CONNECTION_CLOSE));
     }
 
     public void close(int status, String message) throws IOException {
+        close(Frame.closeFrame(status, message));
+    }
+
+    /**
+     * Sends the close frame and waits for the answer, reading frames by itself if no other thread is reading
+     */
+    protected void close(Frame frame) throws IOException {
         running = false;
+        closeStandby();
+        keepalive.stop();
+        watchdog.stop();
+        wakeUp();
         if (!connected)
             return;
 
-        send(Frame.closeFrame(status, message));
+        CountDownLatch closeLatch = this.closeLatch;
+        HashedWheelTimer.Timeout timeout = null;
+        try {
+            writer.write(frame.mask());
+            if (readLock.tryLock()) {
+                timeout = timer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        closeSocket();
+                    }
+                }, closeTimeout, TimeUnit.MILLISECONDS);
+                try {
+                    while (connected) {
+                        if (streamingMessages)
+                            streamMessage();
+                        else if (readMessageFrame() && message.isComplete())
+                            dispatchMessage();
+                    }
+                } finally {
+                    readLock.unlock();
+                }
+            } else {
+                closeLatch.await(closeTimeout, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } finally {
+            if (timeout != null)
+                timeout.cancel();
+            if (connected) {
+                connected = false;
+                onClose();
+            }
+            closeSocket();
+        }
+    }
+
+    /**
+     * Queues the close frame and returns, so it can be called from timer tasks.
+     * The socket is closed by the reader when the answer comes or by the shared timer after close timeout
+     */
+    protected void closeAsync(Frame frame) {
+        running = false;
+        closeStandby();
+        keepalive.stop();
+        watchdog.stop();
+        wakeUp();
+        writeAsync(frame.mask());
+        final CountDownLatch closeLatch = this.closeLatch;
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (closeLatch.getCount() != 0 && connected) {
+                    connected = false;
+                    onClose();
+                }
+                closeSocket();
+            }
+        }, closeTimeout, TimeUnit.MILLISECONDS);
+    }
 
-        Frame frame = readFrame();
-        while (!frame.isClose()) {
-            onFrame(frame);
-            frame = readFrame();
+    /**
+     * Tells the server why the connection is dropped, the frame is written directly as the reader is not going to wait for the answer
+     */
+    protected void closeTooBig() {
+        try {
+            writer.write(Frame.closeFrame(Frame.STATUS_MESSAGE_TOO_BIG, "Message is too big").mask());
+        } catch (IOException ignored) {
+        }
+        closeSocket();
+    }
+
+    protected void closeSocket() {
+        Socket socket = this.socket;
+        if (socket == null)
+            return;
+        try {
+            socket.close();
+        } catch (IOException ignored) {
         }
-        connected = false;
-        onClose();
     }
 }
@@ -0,0 +1,82 @@
+package com.wizzardo.http.websocket;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Temporary file that holds payload of a message which is too big to be kept on the heap.
+ * The file is deleted when it is closed.
+ */
+public class SpillFile implements PerMessageDeflate.Output, Closeable {
+    protected final Path path;
+    protected final FileChannel channel;
+    protected long length;
+
+    /**
+     * @param directory where to create the file, default temporary directory is used if null
+     */
+    public SpillFile(Path directory) throws IOException {
+        path = directory == null
+                ? Files.createTempFile("websocket-", ".spill")
+                : Files.createTempFile(directory, "websocket-", ".spill");
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(bytes, offset, length);
+        while (bb.hasRemaining()) {
+            this.length += channel.write(bb, this.length);
+        }
+    }
+
+    /**
+     * Reads bytes starting at the given position of the file
+     *
+     * @return number of bytes read
+     */
+    public int read(long position, byte[] bytes, int offset, int length) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(bytes, offset, (int) Math.min(length, this.length - position));
+        while (bb.hasRemaining()) {
+            if (channel.read(bb, position + bb.position() - offset) == -1)
+                break;
+        }
+        return bb.position() - offset;
+    }
+
+    /**
+     * Maps the whole file into memory, files bigger than 2GB have to be mapped by parts with {@link #map(long, int)}
+     */
+    public MappedByteBuffer map() throws IOException {
+        if (length > Integer.MAX_VALUE)
+            throw new IllegalStateException("File is too big to be mapped at once: " + length);
+        return map(0, (int) length);
+    }
+
+    public MappedByteBuffer map(long position, int size) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,170 @@
+package com.wizzardo.http.websocket;
+
+import javax.net.ssl.*;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+/**
+ * TLS settings for wss connections. One instance should be shared by all clients that connect to the same servers:
+ * sessions are cached in its {@link SSLContext} by host and port, so reconnects can resume them
+ * with an abbreviated handshake instead of a full one. {@link #DEFAULT} is used by requests without own options,
+ * it is read-only and uses the default context of the jvm as is.
+ */
+public class TlsOptions {
+    public static final TlsOptions DEFAULT = new TlsOptions(true);
+
+    protected final boolean readOnly;
+
+    protected SSLContext context;
+    protected String[] protocols;
+    protected String[] cipherSuites;
+    protected int sessionCacheSize = -1;
+    protected int sessionTimeout = -1;
+    protected boolean endpointIdentification = true;
+    protected SSLContext ownContext;
+    protected volatile SSLSocketFactory factory;
+
+    public TlsOptions() {
+        this(false);
+    }
+
+    protected TlsOptions(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Context with own key and trust managers, default context of the jvm is used if not set.
+     * Session cache settings are applied to this context, so it should not be shared with other code
+     */
+    public TlsOptions context(SSLContext context) {
+        checkWritable();
+        this.context = context;
+        factory = null;
+        return this;
+    }
+
+    /**
+     * Enabled protocols in order of preference, for example "TLSv1.3", "TLSv1.2"
+     */
+    public TlsOptions protocols(String... protocols) {
+        checkWritable();
+        this.protocols = protocols;
+        return this;
+    }
+
+    public TlsOptions cipherSuites(String... cipherSuites) {
+        checkWritable();
+        this.cipherSuites = cipherSuites;
+        return this;
+    }
+
+    /**
+     * Max number of cached client sessions of the context, 0 means no limit.
+     * Without own context a new one is created for these options, the default context of the jvm is never changed
+     */
+    public TlsOptions sessionCacheSize(int size) {
+        checkWritable();
+        sessionCacheSize = size;
+        factory = null;
+        return this;
+    }
+
+    /**
+     * For how long cached sessions can be resumed, 0 means no limit
+     */
+    public TlsOptions sessionTimeout(int seconds) {
+        checkWritable();
+        sessionTimeout = seconds;
+        factory = null;
+        return this;
+    }
+
+    /**
+     * Checks that the certificate matches the host, as it is done for https. Enabled by default
+     */
+    public TlsOptions endpointIdentification(boolean enabled) {
+        checkWritable();
+        endpointIdentification = enabled;
+        return this;
+    }
+
+    public SSLContext getContext() throws IOException {
+        SSLContext context = this.context;
+        if (context != null)
+            return context;
+
+        try {
+            if (sessionCacheSize < 0 && sessionTimeout < 0)
+                return SSLContext.getDefault();
+
+            return ownContext();
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Context with default key and trust managers, owned by these options
+     */
+    protected synchronized SSLContext ownContext() throws GeneralSecurityException {
+        if (ownContext == null) {
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, null, null);
+            ownContext = context;
+        }
+        return ownContext;
+    }
+
+    protected void checkWritable() {
+        if (readOnly)
+            throw new UnsupportedOperationException("TlsOptions.DEFAULT is read-only, create new TlsOptions instead");
+    }
+
+    /**
+     * Client session cache of the context, its size shows how many sessions can be resumed
+     */
+    public SSLSessionContext getSessionContext() throws IOException {
+        return getContext().getClientSessionContext();
+    }
+
+    protected SSLSocketFactory factory() throws IOException {
+        SSLSocketFactory factory = this.factory;
+        if (factory != null)
+            return factory;
+
+        SSLContext context = getContext();
+        SSLSessionContext sessions = context.getClientSessionContext();
+        if (sessionCacheSize >= 0)
+            sessions.setSessionCacheSize(sessionCacheSize);
+        if (sessionTimeout >= 0)
+            sessions.setSessionTimeout(sessionTimeout);
+
+        return this.factory = context.getSocketFactory();
+    }
+
+    /**
+     * Connects and completes TLS handshake. The socket is bound to the host name, it is used for SNI,
+     * endpoint identification and as a key of the session cache.
+     */
+    public SSLSocket connect(String host, int port) throws IOException {
+        SSLSocket socket = (SSLSocket) factory().createSocket(host, port);
+        try {
+            socket.setSSLParameters(parameters(socket.getSSLParameters()));
+            socket.startHandshake();
+            return socket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    protected SSLParameters parameters(SSLParameters parameters) {
+        if (protocols != null)
+            parameters.setProtocols(protocols);
+        if (cipherSuites != null)
+            parameters.setCipherSuites(cipherSuites);
+        if (endpointIdentification)
+            parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        return parameters;
+    }
+}
@@ -0,0 +1,119 @@
+package com.wizzardo.http.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+import static com.wizzardo.http.websocket.Charsets.UTF_8;
+
+/**
+ * Decodes text that arrives in parts, code points split between parts are kept until the next one.
+ * ASCII is copied as is, the rest goes through {@link CharsetDecoder}. Malformed input is replaced, like in {@link String}.
+ * Not thread-safe, can be reused after {@link #reset()}.
+ * <p>
+ * In streaming mode it can be fed from {@link SimpleWebSocketClient#onMessagePart(byte[], int, int)}
+ * and read in {@link SimpleWebSocketClient#onMessageEnd()}.
+ */
+public class Utf8Decoder {
+    protected final CharsetDecoder decoder = UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    protected final byte[] pending = new byte[8];
+    protected int pendingLength;
+    protected char[] chars;
+    protected int length;
+
+    public Utf8Decoder() {
+        this(64);
+    }
+
+    public Utf8Decoder(int capacity) {
+        chars = new char[Math.max(16, capacity)];
+    }
+
+    public Utf8Decoder decode(byte[] bytes, int offset, int length) {
+        ensureCapacity(length + pendingLength);
+        int end = offset + length;
+
+        if (pendingLength != 0) {
+            int l = Math.min(4, length);
+            System.arraycopy(bytes, offset, pending, pendingLength, l);
+            ByteBuffer in = ByteBuffer.wrap(pending, 0, pendingLength + l);
+            decode(in, false);
+            int rest = in.remaining();
+            if (rest > l) {
+                System.arraycopy(pending, in.position(), pending, 0, rest);
+                pendingLength = rest;
+                return this;
+            }
+            pendingLength = 0;
+            offset += l - rest;
+        }
+
+        char[] chars = this.chars;
+        int position = this.length;
+        while (offset < end && bytes[offset] >= 0) {
+            chars[position++] = (char) bytes[offset++];
+        }
+        this.length = position;
+
+        if (offset < end) {
+            ByteBuffer in = ByteBuffer.wrap(bytes, offset, end - offset);
+            decode(in, false);
+            pendingLength = in.remaining();
+            in.get(pending, 0, pendingLength);
+        }
+        return this;
+    }
+
+    /**
+     * Should be called after the last part, incomplete code point at the end is replaced
+     */
+    public Utf8Decoder finish() {
+        if (pendingLength != 0) {
+            ensureCapacity(pendingLength);
+            decode(ByteBuffer.wrap(pending, 0, pendingLength), true);
+            pendingLength = 0;
+        }
+        decoder.reset();
+        return this;
+    }
+
+    public void reset() {
+        length = 0;
+        pendingLength = 0;
+        decoder.reset();
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return decoded text without copying, valid until the decoder is reset
+     */
+    public CharSequence asCharSequence() {
+        return CharBuffer.wrap(chars, 0, length);
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+
+    protected void decode(ByteBuffer in, boolean endOfInput) {
+        CharBuffer out = CharBuffer.wrap(chars, length, chars.length - length);
+        decoder.decode(in, out, endOfInput);
+        length = out.position();
+    }
+
+    protected void ensureCapacity(int additional) {
+        if (length + additional <= chars.length)
+            return;
+
+        char[] c = new char[Math.max(chars.length * 2, length + additional)];
+        System.arraycopy(chars, 0, c, 0, length);
+        chars = c;
+    }
+}
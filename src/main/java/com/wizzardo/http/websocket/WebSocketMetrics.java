@@ -0,0 +1,43 @@
+package com.wizzardo.http.websocket;
+
+/**
+ * Receives events from a client, see {@link SimpleWebSocketClient#setMetrics(WebSocketMetrics)}.
+ * Methods are called on reader and sender threads, implementations should be thread-safe and cheap.
+ * When no metrics are set the client only does a null check.
+ */
+public interface WebSocketMetrics {
+
+    /**
+     * @param payloadLength payload length from the frame header
+     */
+    void onFrameIn(byte opcode, long payloadLength);
+
+    void onFrameOut(byte opcode, long payloadLength);
+
+    /**
+     * @param size payload size of a complete data message, after decompression if it was compressed
+     */
+    void onMessageIn(long size);
+
+    void onMessageOut(long size);
+
+    /**
+     * @param nanos time from opening a socket until the upgrade response is parsed
+     */
+    void onHandshake(long nanos);
+
+    /**
+     * @param cause error that broke the connection or null if it was closed by the server
+     */
+    void onReconnect(Throwable cause);
+
+    /**
+     * @param nanos time spent blocked in writing and flushing of one batch of frames
+     */
+    void onFlush(long nanos);
+
+    /**
+     * @param depth number of batches waiting to be written, sampled on every send
+     */
+    void onOutboundQueueDepth(int depth);
+}
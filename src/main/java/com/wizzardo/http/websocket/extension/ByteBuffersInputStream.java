@@ -0,0 +1,70 @@
+package com.wizzardo.http.websocket.extension;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a sequence of buffers one after another without joining them, positions of the buffers are moved
+ */
+public class ByteBuffersInputStream extends InputStream {
+    protected final ByteBuffer[] buffers;
+    protected int index;
+
+    public ByteBuffersInputStream(ByteBuffer... buffers) {
+        this.buffers = buffers;
+    }
+
+    protected ByteBuffer current() {
+        while (index < buffers.length) {
+            ByteBuffer buffer = buffers[index];
+            if (buffer.hasRemaining())
+                return buffer;
+            index++;
+        }
+        return null;
+    }
+
+    @Override
+    public int read() {
+        ByteBuffer buffer = current();
+        if (buffer == null)
+            return -1;
+        return buffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+        if (length == 0)
+            return 0;
+
+        int read = 0;
+        ByteBuffer buffer;
+        while (read < length && (buffer = current()) != null) {
+            int l = Math.min(length - read, buffer.remaining());
+            buffer.get(bytes, offset + read, l);
+            read += l;
+        }
+        return read == 0 ? -1 : read;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = 0;
+        ByteBuffer buffer;
+        while (skipped < n && (buffer = current()) != null) {
+            int l = (int) Math.min(n - skipped, buffer.remaining());
+            buffer.position(buffer.position() + l);
+            skipped += l;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        long available = 0;
+        for (int i = index; i < buffers.length; i++) {
+            available += buffers[i].remaining();
+        }
+        return (int) Math.min(available, Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,84 @@
+package com.wizzardo.http.websocket.extension;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.wizzardo.http.websocket.LongAdderMetrics.MAX;
+
+/**
+ * Queue and latency statistics of one command type. Wait is the time between parsing a command
+ * and the start of its handler, it is always 0 when handlers run on the reading thread.
+ */
+public class CommandStats {
+    protected final AtomicInteger queued = new AtomicInteger();
+    protected final LongAccumulator maxQueued = new LongAccumulator(MAX, 0);
+    protected final LongAdder executed = new LongAdder();
+    protected final LongAdder errors = new LongAdder();
+    protected final LongAdder waitNanos = new LongAdder();
+    protected final LongAccumulator maxWaitNanos = new LongAccumulator(MAX, 0);
+    protected final LongAdder executionNanos = new LongAdder();
+    protected final LongAccumulator maxExecutionNanos = new LongAccumulator(MAX, 0);
+
+    protected void onQueued() {
+        maxQueued.accumulate(queued.incrementAndGet());
+    }
+
+    /**
+     * Executor did not accept the command, it is not going to run
+     */
+    protected void onRejected() {
+        queued.decrementAndGet();
+    }
+
+    protected void onStarted(long waitNanos) {
+        queued.decrementAndGet();
+        this.waitNanos.add(waitNanos);
+        maxWaitNanos.accumulate(waitNanos);
+    }
+
+    protected void onExecuted(long executionNanos, boolean failed) {
+        executed.increment();
+        if (failed)
+            errors.increment();
+        this.executionNanos.add(executionNanos);
+        maxExecutionNanos.accumulate(executionNanos);
+    }
+
+    /**
+     * @return number of parsed commands waiting for a worker
+     */
+    public int getQueueSize() {
+        return queued.get();
+    }
+
+    public long getMaxQueueSize() {
+        return maxQueued.get();
+    }
+
+    public long getExecuted() {
+        return executed.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public double getAverageWaitNanos() {
+        long count = executed.sum();
+        return count == 0 ? 0 : (double) waitNanos.sum() / count;
+    }
+
+    public long getMaxWaitNanos() {
+        return maxWaitNanos.get();
+    }
+
+    public double getAverageExecutionNanos() {
+        long count = executed.sum();
+        return count == 0 ? 0 : (double) executionNanos.sum() / count;
+    }
+
+    public long getMaxExecutionNanos() {
+        return maxExecutionNanos.get();
+    }
+}
@@ -1,11 +1,19 @@
 package com.wizzardo.http.websocket.extension;
 
 
+import com.wizzardo.http.websocket.ByteBufferFrame;
+import com.wizzardo.http.websocket.Charsets;
+import com.wizzardo.http.websocket.Frame;
 import com.wizzardo.http.websocket.Message;
 
+import java.nio.ByteBuffer;
 import java.util.AbstractMap;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Created by wizzardo on 20/05/17.
@@ -17,9 +25,20 @@ import java.util.concurrent.ConcurrentHashMap;
  * <b>CommandNameLength</b> is optional
  */
 public class SimpleCommandHandler<T> {
+    /**
+     * @deprecated handlers are looked up in {@link #commands}, the map is only kept filled for subclasses.
+     * Entries put into it directly are still found, but their names are decoded on every message
+     */
+    @Deprecated
     protected Map<String, Map.Entry<Class<? extends CommandPojo>, CommandHandler<? extends T, ? extends CommandPojo>>> handlers = new ConcurrentHashMap<String, Map.Entry<Class<? extends CommandPojo>, CommandHandler<? extends T, ? extends CommandPojo>>>(16, 1f);
+    protected volatile Command[] commands = new Command[16];
+    protected int commandsCount;
     protected Reader reader;
     protected ErrorHandler errorHandler;
+    protected volatile Executor executor;
+    protected volatile Lane[] lanes;
+    protected volatile KeyExtractor<Object, CommandPojo> keyExtractor;
+    protected volatile boolean started;
 
     public SimpleCommandHandler(Reader reader, ErrorHandler errorHandler) {
         this.reader = reader;
@@ -34,6 +53,16 @@ public class SimpleCommandHandler<T> {
         Object read(Class<?> clazz, byte[] bytes, int offset, int length);
     }
 
+    /**
+     * Reader that also accepts a command split into several frames, so it is parsed without joining the frames
+     */
+    public interface SegmentedReader extends Reader {
+        /**
+         * @param segments read-only slices of frame payloads in order, the first one starts right after the command name
+         */
+        Object read(Class<?> clazz, ByteBuffer[] segments);
+    }
+
     public interface CommandPojo {
     }
 
@@ -41,38 +70,427 @@ public class SimpleCommandHandler<T> {
         void handle(T client, C command);
     }
 
+    /**
+     * Partitions commands in parallel mode, commands with equal keys are handled one by one in the order they were received
+     */
+    public interface KeyExtractor<T, C extends CommandPojo> {
+        /**
+         * @return key of the command or null if it can be handled in any order
+         */
+        Object key(T client, C command);
+    }
+
+    /**
+     * Keeps order of commands of each client, this is the default
+     */
+    public static final KeyExtractor<Object, CommandPojo> BY_CLIENT = new KeyExtractor<Object, CommandPojo>() {
+        @Override
+        public Object key(Object client, CommandPojo command) {
+            return client;
+        }
+    };
+
+    /**
+     * Keeps order of commands of the same type
+     */
+    public static final KeyExtractor<Object, CommandPojo> BY_COMMAND = new KeyExtractor<Object, CommandPojo>() {
+        @Override
+        public Object key(Object client, CommandPojo command) {
+            return command.getClass();
+        }
+    };
+
+    /**
+     * Serial queue of tasks, at most one task of a lane runs at a time.
+     * A lane handles up to {@link #BATCH} tasks and then resubmits itself, so busy keys do not starve others
+     */
+    protected static class Lane implements Runnable {
+        protected static final int BATCH = 64;
+
+        protected final Executor executor;
+        protected final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+        protected final AtomicBoolean scheduled = new AtomicBoolean();
+
+        protected Lane(Executor executor) {
+            this.executor = executor;
+        }
+
+        /**
+         * @throws java.util.concurrent.RejectedExecutionException if the executor does not accept the lane, the task is not queued then
+         */
+        protected void execute(Runnable task) {
+            tasks.add(task);
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RuntimeException e) {
+                    tasks.remove(task);
+                    scheduled.set(false);
+                    throw e;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < BATCH; i++) {
+                Runnable task = tasks.poll();
+                if (task == null) {
+                    scheduled.set(false);
+                    if (tasks.isEmpty() || !scheduled.compareAndSet(false, true))
+                        return;
+                    continue;
+                }
+                boolean completed = false;
+                try {
+                    task.run();
+                    completed = true;
+                } finally {
+                    if (!completed)
+                        resubmit();
+                }
+            }
+            resubmit();
+        }
+
+        protected void resubmit() {
+            try {
+                executor.execute(this);
+            } catch (RuntimeException e) {
+                scheduled.set(false);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Registered handler with the name of its command class as bytes, so it is found without decoding the message
+     */
+    protected static class Command {
+        protected final byte[] name;
+        protected final int hash;
+        protected final Class<? extends CommandPojo> commandClass;
+        protected final CommandHandler<?, ? extends CommandPojo> handler;
+        protected final KeyExtractor<?, ? extends CommandPojo> keyExtractor;
+        protected final CommandStats stats = new CommandStats();
+
+        protected Command(Class<? extends CommandPojo> commandClass, CommandHandler<?, ? extends CommandPojo> handler, KeyExtractor<?, ? extends CommandPojo> keyExtractor) {
+            this.commandClass = commandClass;
+            this.handler = handler;
+            this.keyExtractor = keyExtractor;
+            name = commandClass.getSimpleName().getBytes(Charsets.UTF_8);
+            hash = hash(name, 0, name.length);
+        }
+
+        protected boolean matches(byte[] bytes, int offset, int length) {
+            if (name.length != length)
+                return false;
+            for (int i = 0; i < length; i++) {
+                if (name[i] != bytes[offset + i])
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Handlers are kept in an open-addressing table that is copied on every change, lookups do not lock or allocate
+     */
     public <C extends CommandPojo> void addHandler(Class<C> commandClass, CommandHandler<? extends T, C> handler) {
-        AbstractMap.SimpleEntry<Class<? extends CommandPojo>, CommandHandler<? extends T, ? extends CommandPojo>> entry = new AbstractMap.SimpleEntry<Class<? extends CommandPojo>, CommandHandler<? extends T, ? extends CommandPojo>>(commandClass, handler);
-        handlers.put(commandClass.getSimpleName(), entry);
+        addHandler(commandClass, handler, null);
+    }
+
+    /**
+     * @param keyExtractor used instead of the one given to {@link #setParallel} for commands of this type
+     */
+    public synchronized <C extends CommandPojo> void addHandler(Class<C> commandClass, CommandHandler<? extends T, C> handler, KeyExtractor<? super T, ? super C> keyExtractor) {
+        @SuppressWarnings("unchecked")
+        KeyExtractor<?, ? extends CommandPojo> extractor = (KeyExtractor<?, ? extends CommandPojo>) keyExtractor;
+        Command command = new Command(commandClass, handler, extractor);
+        Command[] commands = this.commands;
+        int count = commandsCount;
+        if (find(commands, command.name, 0, command.name.length) == null)
+            count++;
+
+        int size = commands.length;
+        while (count * 2 > size)
+            size *= 2;
+
+        Command[] table = new Command[size];
+        for (Command c : commands) {
+            if (c != null && !c.matches(command.name, 0, command.name.length))
+                put(table, c);
+        }
+        put(table, command);
+        commandsCount = count;
+        this.commands = table;
+        handlers.put(commandClass.getSimpleName(), new AbstractMap.SimpleEntry<Class<? extends CommandPojo>, CommandHandler<? extends T, ? extends CommandPojo>>(commandClass, handler));
+    }
+
+    protected static void put(Command[] table, Command command) {
+        int mask = table.length - 1;
+        int i = command.hash & mask;
+        while (table[i] != null)
+            i = (i + 1) & mask;
+        table[i] = command;
+    }
+
+    protected static Command find(Command[] table, byte[] bytes, int offset, int length) {
+        int mask = table.length - 1;
+        int i = hash(bytes, offset, length) & mask;
+        Command command;
+        while ((command = table[i]) != null) {
+            if (command.matches(bytes, offset, length))
+                return command;
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    protected static int hash(byte[] bytes, int offset, int length) {
+        int h = 0;
+        for (int i = offset; i < offset + length; i++) {
+            h = 31 * h + bytes[i];
+        }
+        return h ^ (h >>> 16);
     }
 
+    /**
+     * Payload of a single-frame message is passed to the {@link Reader} as is.
+     * Fragmented messages are passed as frame slices to a {@link SegmentedReader} if the command name is in the first frame,
+     * otherwise they are joined first.
+     */
     public void onMessage(T listener, Message message) {
         try {
+            if (!message.isSpilled() && isArrayBacked(message)) {
+                Frame frame = message.get(0);
+                if (message.size() == 1) {
+                    handle(listener, frame.getData(), frame.getOffset(), frame.getOffset() + frame.getLength());
+                    return;
+                }
+                if (reader instanceof SegmentedReader && handleSegmented(listener, message))
+                    return;
+            }
+
             byte[] bytes = message.asBytes();
+            handle(listener, bytes, 0, bytes.length);
+        } catch (Exception e) {
+            onError(e);
+        }
+    }
 
-            int[] holder = new int[1];
-            int position = readInt(holder, bytes, 0, bytes.length);
-            int nameLength = holder[0];
-            String commandName;
-            if (nameLength != -1) {
-                commandName = new String(bytes, position, nameLength);
+    protected static boolean isArrayBacked(Message message) {
+        for (int i = 0; i < message.size(); i++) {
+            if (message.get(i) instanceof ByteBufferFrame)
+                return false;
+        }
+        return message.size() > 0;
+    }
+
+    protected void handle(T listener, byte[] bytes, int offset, int limit) {
+        int position = nameStart(bytes, offset, limit);
+        int end = nameEnd(bytes, offset, position, limit);
+        if (end == -1) {
+            if (position == offset)
+                throw new IllegalArgumentException("Command name is not found");
+            throw new IllegalArgumentException("Command name length " + new String(bytes, offset, position - offset, Charsets.UTF_8) + " is bigger than the message");
+        }
+
+        Command command = command(bytes, position, end);
+        CommandPojo pojo = (CommandPojo) reader.read(command.commandClass, bytes, end, limit - end);
+        execute(command, listener, pojo);
+    }
+
+    /**
+     * @return false if the command name does not fit into the first frame
+     */
+    protected boolean handleSegmented(T listener, Message message) {
+        Frame first = message.get(0);
+        byte[] bytes = first.getData();
+        int offset = first.getOffset();
+        int limit = offset + first.getLength();
+        int position = nameStart(bytes, offset, limit);
+        int end = position == limit ? -1 : nameEnd(bytes, offset, position, limit);
+        if (end == -1)
+            return false;
+
+        Command command = command(bytes, position, end);
+        ByteBuffer[] segments = new ByteBuffer[message.size()];
+        segments[0] = ByteBuffer.wrap(bytes, end, limit - end).slice().asReadOnlyBuffer();
+        for (int i = 1; i < segments.length; i++) {
+            Frame frame = message.get(i);
+            segments[i] = ByteBuffer.wrap(frame.getData(), frame.getOffset(), frame.getLength()).slice().asReadOnlyBuffer();
+        }
+
+        CommandPojo pojo = (CommandPojo) ((SegmentedReader) reader).read(command.commandClass, segments);
+        execute(command, listener, pojo);
+        return true;
+    }
+
+    /**
+     * @return position after the optional length of the command name
+     */
+    protected static int nameStart(byte[] bytes, int offset, int limit) {
+        int position = offset;
+        byte b;
+        while (position < limit && (b = bytes[position]) >= '0' && b <= '9') {
+            position++;
+        }
+        return position;
+    }
+
+    /**
+     * @return end of the command name that starts at the given position or -1 if it is not within the limit
+     */
+    protected static int nameEnd(byte[] bytes, int offset, int position, int limit) {
+        if (position == offset)
+            return indexOf((byte) '{', bytes, position, limit);
+
+        int length = 0;
+        for (int i = offset; i < position; i++) {
+            length = length * 10 + (bytes[i] - '0');
+            if (length > limit - position)
+                return -1;
+        }
+        return position + length;
+    }
+
+    protected Command command(byte[] bytes, int from, int to) {
+        Command command = find(commands, bytes, from, to - from);
+        if (command != null)
+            return command;
+
+        String name = new String(bytes, from, to - from, Charsets.UTF_8);
+        Map.Entry<Class<? extends CommandPojo>, CommandHandler<? extends T, ? extends CommandPojo>> entry = handlers.get(name);
+        if (entry == null)
+            throw new IllegalArgumentException("Unknown command: " + name);
+        return new Command(entry.getKey(), entry.getValue(), null);
+    }
+
+    /**
+     * Parallel mode: commands are still parsed on the reading thread, handlers run on the executor.
+     * Commands are partitioned by key into serial lanes, so commands with equal keys keep their order
+     * and unrelated keys run in parallel. Parsed commands must not reference the message bytes.
+     * Can only be set before the first command, switching later would break the order of already queued ones.
+     *
+     * @param lanes        number of serial lanes, usually number of cores
+     * @param keyExtractor default key of commands, {@link #BY_CLIENT} if null
+     */
+    public synchronized void setParallel(Executor executor, int lanes, KeyExtractor<? super T, ? super CommandPojo> keyExtractor) {
+        if (lanes < 1)
+            throw new IllegalArgumentException("lanes must be > 0");
+        checkNotStarted();
+
+        Lane[] l = new Lane[lanes];
+        for (int i = 0; i < lanes; i++) {
+            l[i] = new Lane(executor);
+        }
+        @SuppressWarnings("unchecked")
+        KeyExtractor<Object, CommandPojo> extractor = (KeyExtractor<Object, CommandPojo>) keyExtractor;
+        this.keyExtractor = extractor != null ? extractor : BY_CLIENT;
+        this.executor = executor;
+        this.lanes = l;
+    }
+
+    /**
+     * Handles commands on the reading thread, this is the default. Can only be set before the first command
+     */
+    public synchronized void setSequential() {
+        checkNotStarted();
+        lanes = null;
+    }
+
+    protected void checkNotStarted() {
+        if (started)
+            throw new IllegalStateException("Execution mode can only be changed before the first command");
+    }
+
+    public boolean isParallel() {
+        return lanes != null;
+    }
+
+    protected void execute(final Command command, final T listener, final CommandPojo pojo) {
+        if (!started)
+            started();
+
+        @SuppressWarnings("unchecked")
+        final CommandHandler<T, CommandPojo> handler = (CommandHandler<T, CommandPojo>) command.handler;
+        Lane[] lanes = this.lanes;
+        if (lanes == null) {
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                handler.handle(listener, pojo);
+                failed = false;
+            } finally {
+                command.stats.onExecuted(System.nanoTime() - start, failed);
+            }
+            return;
+        }
+
+        @SuppressWarnings("unchecked")
+        KeyExtractor<Object, CommandPojo> keyExtractor = (KeyExtractor<Object, CommandPojo>) command.keyExtractor;
+        if (keyExtractor == null)
+            keyExtractor = this.keyExtractor;
+        Object key = keyExtractor.key(listener, pojo);
+        final long queued = System.nanoTime();
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                command.stats.onStarted(start - queued);
+                boolean failed = true;
+                try {
+                    handler.handle(listener, pojo);
+                    failed = false;
+                } catch (Exception e) {
+                    onError(e);
+                } finally {
+                    command.stats.onExecuted(System.nanoTime() - start, failed);
+                }
+            }
+        };
+
+        command.stats.onQueued();
+        try {
+            if (key == null) {
+                executor.execute(task);
             } else {
-                position = 0;
-                nameLength = indexOf((byte) '{', bytes, position, bytes.length);
-                commandName = new String(bytes, position, nameLength);
+                int h = key.hashCode();
+                h ^= h >>> 16;
+                lanes[(h & 0x7fffffff) % lanes.length].execute(task);
             }
-            int offset = position + nameLength;
-            Map.Entry<Class<? extends CommandPojo>, CommandHandler<? extends T, ? extends CommandPojo>> commandHandlerPair = handlers.get(commandName);
-            if (commandHandlerPair == null)
-                throw new IllegalArgumentException("Unknown command: " + commandName);
-
-            CommandHandler<T, CommandPojo> handler = (CommandHandler<T, CommandPojo>) commandHandlerPair.getValue();
-            Class<? extends CommandPojo> commandClass = commandHandlerPair.getKey();
-            CommandPojo command = (CommandPojo) reader.read(commandClass, bytes, offset, bytes.length - offset);
-            handler.handle(listener, command);
-        } catch (Exception e) {
-            onError(e);
+        } catch (RuntimeException e) {
+            command.stats.onRejected();
+            throw e;
+        }
+    }
+
+    /**
+     * Takes the lock of mode setters, so a mode set concurrently with the first command is either seen by it or rejected
+     */
+    protected synchronized void started() {
+        started = true;
+    }
+
+    /**
+     * @return statistics of the command type or null if there is no handler for it
+     */
+    public CommandStats getStats(Class<? extends CommandPojo> commandClass) {
+        for (Command command : commands) {
+            if (command != null && command.commandClass == commandClass)
+                return command.stats;
+        }
+        return null;
+    }
+
+    public Map<Class<? extends CommandPojo>, CommandStats> getStats() {
+        Map<Class<? extends CommandPojo>, CommandStats> stats = new HashMap<Class<? extends CommandPojo>, CommandStats>();
+        for (Command command : commands) {
+            if (command != null)
+                stats.put(command.commandClass, command.stats);
         }
+        return stats;
     }
 
     protected void onError(Exception e) {
@@ -87,6 +505,10 @@ public class SimpleCommandHandler<T> {
         return -1;
     }
 
+    /**
+     * @deprecated the length of the command name is parsed by {@link #nameStart} and {@link #nameEnd}
+     */
+    @Deprecated
     protected static int readInt(int[] holder, byte[] bytes, int offset, int limit) {
         int value = 0;
         int i = offset;
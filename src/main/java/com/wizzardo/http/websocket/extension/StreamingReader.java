@@ -0,0 +1,34 @@
+package com.wizzardo.http.websocket.extension;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Adapts a parser that consumes an {@link InputStream}, for example a streaming json parser,
+ * to both contiguous and segmented commands
+ */
+public abstract class StreamingReader implements SimpleCommandHandler.SegmentedReader {
+
+    public abstract Object read(Class<?> clazz, InputStream in) throws IOException;
+
+    @Override
+    public Object read(Class<?> clazz, byte[] bytes, int offset, int length) {
+        return readUnchecked(clazz, new ByteArrayInputStream(bytes, offset, length));
+    }
+
+    @Override
+    public Object read(Class<?> clazz, ByteBuffer[] segments) {
+        return readUnchecked(clazz, new ByteBuffersInputStream(segments));
+    }
+
+    protected Object readUnchecked(Class<?> clazz, InputStream in) {
+        try {
+            return read(clazz, in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
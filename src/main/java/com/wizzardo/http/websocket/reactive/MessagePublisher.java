@@ -0,0 +1,221 @@
+package com.wizzardo.http.websocket.reactive;
+
+import com.wizzardo.http.websocket.Message;
+import com.wizzardo.http.websocket.MessageSink;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes complete messages of a client to a single subscriber, set it with {@code client.setMessageSink(publisher)}.
+ * The client does not read the socket while there is no outstanding demand,
+ * so backpressure reaches the tcp window instead of buffering messages in memory.
+ * <p>
+ * Messages are {@link Message#detach() detached}, spilled ones have to be released by the subscriber.
+ * Pings are not answered while reading is paused, so keepalive and read timeouts should outlast expected stalls.
+ * After cancellation incoming messages are released without delivery.
+ */
+public class MessagePublisher implements Publisher<Message>, MessageSink {
+    protected final AtomicLong demand = new AtomicLong();
+    protected final AtomicReference<Runnable> readyCallback = new AtomicReference<Runnable>();
+    protected volatile boolean cancelled;
+    protected volatile boolean done;
+    protected boolean subscribed;
+    protected boolean emitting;
+    protected volatile Subscriber<? super Message> subscriber;
+    protected Throwable error;
+    protected Throwable pendingError;
+
+    protected final Subscription subscription = new Subscription() {
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                signalError(new IllegalArgumentException("Rule 3.9: request should be positive, was " + n));
+                return;
+            }
+            if (cancelled)
+                return;
+
+            long current, next;
+            do {
+                current = demand.get();
+                next = current + n;
+                if (next < 0)
+                    next = Long.MAX_VALUE;
+            } while (!demand.compareAndSet(current, next));
+            ready();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriber = null;
+            ready();
+        }
+    };
+
+    @Override
+    public void subscribe(Subscriber<? super Message> s) {
+        if (s == null)
+            throw new NullPointerException("Subscriber is null");
+
+        synchronized (this) {
+            if (subscribed) {
+                s.onSubscribe(new Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                s.onError(new IllegalStateException("Only one subscriber is allowed"));
+                return;
+            }
+
+            subscribed = true;
+            subscriber = s;
+            try {
+                s.onSubscribe(subscription);
+            } catch (Throwable t) {
+                cancelled = true;
+            }
+            if (done)
+                signalTerminal();
+        }
+    }
+
+    @Override
+    public boolean offer(Message message) {
+        if (cancelled || done) {
+            message.release();
+            return true;
+        }
+        if (demand.get() == 0)
+            return false;
+
+        Subscriber<? super Message> s;
+        synchronized (this) {
+            s = subscriber;
+            if (cancelled || done || s == null) {
+                message.release();
+                return true;
+            }
+
+            if (demand.get() != Long.MAX_VALUE)
+                demand.decrementAndGet();
+            emitting = true;
+        }
+
+        // not under the lock, the subscriber may block or call back into other threads
+        try {
+            s.onNext(message.detach());
+        } catch (Throwable t) {
+            cancelled = true;
+            subscriber = null;
+        }
+
+        synchronized (this) {
+            emitting = false;
+            if (pendingError != null) {
+                Throwable t = pendingError;
+                pendingError = null;
+                signalError(subscriber, t);
+            } else if (done && subscriber != null) {
+                signalTerminal();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void onReady(Runnable callback) {
+        readyCallback.set(callback);
+        if (cancelled || done || demand.get() > 0)
+            ready();
+    }
+
+    protected void ready() {
+        Runnable callback = readyCallback.getAndSet(null);
+        if (callback != null)
+            callback.run();
+    }
+
+    /**
+     * Signals onComplete, call it once the client is closed and is not going to reconnect
+     */
+    public void complete() {
+        terminate(null);
+    }
+
+    /**
+     * Signals onError, call it once the client failed and is not going to reconnect
+     */
+    public void error(Throwable t) {
+        terminate(t);
+    }
+
+    protected synchronized void terminate(Throwable t) {
+        if (done)
+            return;
+
+        done = true;
+        error = t;
+        if (subscriber != null && !emitting)
+            signalTerminal();
+        ready();
+    }
+
+    protected synchronized void signalError(Throwable t) {
+        if (cancelled || done || subscriber == null)
+            return;
+
+        cancelled = true;
+        if (emitting)
+            pendingError = t;
+        else
+            signalError(subscriber, t);
+        ready();
+    }
+
+    protected void signalError(Subscriber<? super Message> s, Throwable t) {
+        subscriber = null;
+        if (s == null)
+            return;
+
+        try {
+            s.onError(t);
+        } catch (Throwable ignored) {
+        }
+    }
+
+    protected void signalTerminal() {
+        Subscriber<? super Message> s = subscriber;
+        subscriber = null;
+        if (cancelled || s == null)
+            return;
+
+        try {
+            if (error != null)
+                s.onError(error);
+            else
+                s.onComplete();
+        } catch (Throwable ignored) {
+        }
+    }
+
+    /**
+     * @return number of messages the subscriber is ready to receive, reading is paused when it is 0
+     */
+    public long getDemand() {
+        return demand.get();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
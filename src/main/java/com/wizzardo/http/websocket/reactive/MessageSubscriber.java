@@ -0,0 +1,103 @@
+package com.wizzardo.http.websocket.reactive;
+
+import com.wizzardo.http.websocket.Message;
+import com.wizzardo.http.websocket.NioWebSocketClient;
+import com.wizzardo.http.websocket.SimpleWebSocketClient;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+
+/**
+ * Sends messages of a publisher through a client. Keeps up to {@code window} messages requested
+ * and asks for the next one after the previous is sent, a failed send cancels the subscription.
+ */
+public abstract class MessageSubscriber implements Subscriber<Message> {
+    protected final int window;
+    protected Subscription subscription;
+
+    public MessageSubscriber(int window) {
+        if (window < 1)
+            throw new IllegalArgumentException("window must be > 0");
+
+        this.window = window;
+    }
+
+    public static MessageSubscriber to(final SimpleWebSocketClient client, int window) {
+        return new MessageSubscriber(window) {
+            @Override
+            protected void send(Message message) throws IOException {
+                client.send(message);
+            }
+        };
+    }
+
+    /**
+     * Send only queues messages for the event loop, so the window does not limit the outbound queue of the client
+     */
+    public static MessageSubscriber to(final NioWebSocketClient client, int window) {
+        return new MessageSubscriber(window) {
+            @Override
+            protected void send(Message message) {
+                client.send(message);
+            }
+        };
+    }
+
+    protected abstract void send(Message message) throws IOException;
+
+    /**
+     * Called once the publisher completes or fails, or a send fails
+     *
+     * @param error null if the publisher completed
+     */
+    protected void onDone(Throwable error) {
+    }
+
+    @Override
+    public void onSubscribe(Subscription s) {
+        if (s == null)
+            throw new NullPointerException("Subscription is null");
+
+        if (subscription != null) {
+            s.cancel();
+            return;
+        }
+        subscription = s;
+        s.request(window);
+    }
+
+    @Override
+    public void onNext(Message message) {
+        if (message == null)
+            throw new NullPointerException("Message is null");
+
+        if (subscription == null)
+            return;
+
+        try {
+            send(message);
+        } catch (Exception e) {
+            subscription.cancel();
+            subscription = null;
+            onDone(e);
+            return;
+        }
+        subscription.request(1);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        if (t == null)
+            throw new NullPointerException("Throwable is null");
+
+        subscription = null;
+        onDone(t);
+    }
+
+    @Override
+    public void onComplete() {
+        subscription = null;
+        onDone(null);
+    }
+}
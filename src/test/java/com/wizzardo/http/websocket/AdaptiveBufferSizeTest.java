@@ -0,0 +1,41 @@
+package com.wizzardo.http.websocket;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdaptiveBufferSizeTest {
+
+    @Test
+    public void test_grow_and_shrink() {
+        AdaptiveBufferSize size = new AdaptiveBufferSize(1024, 64 * 1024);
+        Assert.assertEquals(1024, size.size());
+
+        for (int i = 0; i < AdaptiveBufferSize.WINDOW; i++) {
+            size.record(10000);
+        }
+        Assert.assertEquals(16 * 1024, size.size());
+
+        for (int i = 0; i < AdaptiveBufferSize.WINDOW; i++) {
+            size.record(1000000);
+        }
+        Assert.assertEquals(64 * 1024, size.size());
+
+        for (int i = 0; i < AdaptiveBufferSize.WINDOW * 40; i++) {
+            size.record(100);
+        }
+        Assert.assertEquals(1024, size.size());
+    }
+
+    @Test
+    public void test_percentile() {
+        AdaptiveBufferSize size = new AdaptiveBufferSize(1024, 64 * 1024);
+        for (int i = 0; i < 90; i++) {
+            size.record(100);
+        }
+        for (int i = 0; i < 10; i++) {
+            size.record(5000);
+        }
+        Assert.assertEquals(128, size.percentile(0.9));
+        Assert.assertEquals(8192, size.percentile(0.95));
+    }
+}
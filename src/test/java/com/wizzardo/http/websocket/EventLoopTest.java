@@ -0,0 +1,57 @@
+package com.wizzardo.http.websocket;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class EventLoopTest {
+
+    @Test
+    public void test_execute_and_schedule() throws IOException, InterruptedException {
+        EventLoopGroup group = new EventLoopGroup(2);
+        try {
+            final EventLoop loop = group.next();
+            Assert.assertNotSame(loop, group.next());
+            Assert.assertSame(loop, group.next());
+            Assert.assertFalse(loop.inEventLoop());
+
+            final List<Integer> order = new CopyOnWriteArrayList<Integer>();
+            final CountDownLatch latch = new CountDownLatch(101);
+            final long start = System.nanoTime();
+            final long[] delay = new long[1];
+            loop.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    delay[0] = System.nanoTime() - start;
+                    if (loop.inEventLoop())
+                        latch.countDown();
+                }
+            }, 50);
+            for (int i = 0; i < 100; i++) {
+                final int n = i;
+                loop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (loop.inEventLoop())
+                            order.add(n);
+                        latch.countDown();
+                    }
+                });
+            }
+
+            Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(100, order.size());
+            for (int i = 0; i < 100; i++) {
+                Assert.assertEquals(i, (int) order.get(i));
+            }
+            Assert.assertTrue(delay[0] >= TimeUnit.MILLISECONDS.toNanos(50));
+        } finally {
+            group.shutdown();
+        }
+    }
+}
@@ -5,6 +5,7 @@ import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Created by wizzardo on 30/03/17.
@@ -76,6 +77,188 @@ public class FrameTest {
         Assert.assertArrayEquals(data, result);
     }
 
+    @Test
+    public void test_mask() {
+        byte[] key = new byte[]{(byte) 0x8f, 0x12, (byte) 0xa4, 0x7e};
+        for (int offset = 0; offset < 9; offset++) {
+            for (int length = 0; length < 40; length++) {
+                byte[] data = new byte[offset + length + 3];
+                for (int i = 0; i < data.length; i++) {
+                    data[i] = (byte) (i * 31);
+                }
+                byte[] expected = data.clone();
+                for (int i = offset; i < offset + length; i++) {
+                    expected[i] = (byte) (expected[i] ^ key[(i - offset) % 4]);
+                }
+
+                new Frame().mask(data, key, offset, length);
+                Assert.assertArrayEquals("offset: " + offset + ", length: " + length, expected, data);
+            }
+        }
+    }
+
+    @Test
+    public void test_read_view() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new Frame("hello".getBytes("UTF-8"), 0, 5).write(out);
+        new Frame("world".getBytes("UTF-8"), 0, 5).write(out);
+        byte[] bytes = out.toByteArray();
+
+        Frame first = new Frame();
+        int offset = first.readView(bytes, 0, bytes.length);
+        Frame second = new Frame();
+        offset += second.readView(bytes, offset, bytes.length - offset);
+
+        Assert.assertEquals(bytes.length, offset);
+        Assert.assertTrue(first.isComplete());
+        Assert.assertTrue(first.isView());
+        Assert.assertSame(bytes, first.getData());
+        Assert.assertEquals("hello", first.asString());
+        Assert.assertEquals("world", second.asString());
+
+        second.detach();
+        bytes[bytes.length - 1] = 'x';
+        Assert.assertFalse(second.isView());
+        Assert.assertEquals("world", second.asString());
+
+        Frame view = new Frame();
+        Assert.assertEquals(7, view.readView(bytes, 7, 7));
+        Assert.assertEquals("worlx", view.asString());
+    }
+
+    @Test
+    public void test_read_view_incomplete() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new Frame("hello".getBytes("UTF-8"), 0, 5).write(out);
+        byte[] bytes = out.toByteArray();
+
+        Frame frame = new Frame();
+        Assert.assertEquals(4, frame.readView(bytes, 0, 4));
+        Assert.assertFalse(frame.isComplete());
+        Assert.assertFalse(frame.isView());
+        Assert.assertEquals(3, frame.read(bytes, 4, 3));
+        Assert.assertEquals("hello", frame.asString());
+    }
+
+    @Test
+    public void test_read_header_and_unmask_parts() throws IOException {
+        byte[] data = "hello world!".getBytes("UTF-8");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new Frame(data, 0, data.length).mask().write(out);
+        byte[] bytes = out.toByteArray();
+
+        Frame frame = new Frame();
+        int header = frame.readHeader(bytes, 0, bytes.length);
+        Assert.assertEquals(6, header);
+        Assert.assertEquals(data.length, frame.getLength());
+        Assert.assertFalse(frame.isComplete());
+
+        frame.unmask(bytes, header, 5, 0);
+        frame.unmask(bytes, header + 5, 2, 5);
+        frame.unmask(bytes, header + 7, 5, 7);
+        Assert.assertEquals("hello world!", new String(bytes, header, data.length, "UTF-8"));
+    }
+
+    @Test
+    public void test_long_length() throws IOException {
+        byte[] data = new byte[70000];
+        data[data.length - 1] = 42;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new Frame(data, 0, data.length).write(out);
+        byte[] bytes = out.toByteArray();
+
+        Frame frame = new Frame();
+        Assert.assertEquals(bytes.length, frame.read(bytes, 0, bytes.length));
+        Assert.assertEquals(data.length, frame.getPayloadLength());
+        Assert.assertEquals(42, frame.asBytes()[data.length - 1]);
+
+        byte[] header = new byte[]{(byte) 0x82, 127, 0, 0, 0, 1, 0, 0, 0, 0};
+        frame = new Frame();
+        Assert.assertEquals(10, frame.readHeader(header, 0, header.length));
+        Assert.assertEquals(1L << 32, frame.getPayloadLength());
+
+        try {
+            new Frame().read(header, 0, header.length);
+            Assert.fail();
+        } catch (Frame.TooBigException ignored) {
+        }
+        try {
+            new Frame(1 << 20).readHeader(header, 0, header.length);
+            Assert.fail();
+        } catch (Frame.TooBigException ignored) {
+        }
+    }
+
+    @Test
+    public void test_byte_buffer_frame() throws IOException {
+        byte[] data = "hello world, hello direct buffer".getBytes("UTF-8");
+        ByteBuffer payload = ByteBuffer.allocateDirect(data.length + 2);
+        payload.put((byte) 0).put(data).put((byte) 0);
+        payload.position(1);
+        payload.limit(data.length + 1);
+
+        Frame frame = new ByteBufferFrame(payload).mask();
+        Assert.assertEquals(2, frame.getBufferCount());
+        ByteBuffer[] buffers = new ByteBuffer[2];
+        Assert.assertEquals(2, frame.toByteBuffers(buffers, 0));
+        Assert.assertEquals(frame.getFrameLength(), buffers[0].remaining() + buffers[1].remaining());
+
+        byte[] bytes = new byte[frame.getFrameLength()];
+        Assert.assertEquals(bytes.length, frame.copyFrame(bytes, 0));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        frame.write(out);
+        Assert.assertArrayEquals(bytes, out.toByteArray());
+
+        Frame read = new Frame();
+        Assert.assertEquals(bytes.length, read.read(bytes, 0, bytes.length));
+        Assert.assertTrue(read.isMasked());
+        Assert.assertEquals(Frame.OPCODE_BINARY_FRAME, read.getOpcode());
+        Assert.assertEquals(new String(data, "UTF-8"), read.unmask().asString());
+    }
+
+    @Test
+    public void test_byte_buffer_frame_message() throws IOException {
+        String text = "direct payload, \u043f\u0440\u0438\u0432\u0435\u0442";
+        byte[] data = text.getBytes("UTF-8");
+        ByteBuffer payload = ByteBuffer.allocateDirect(data.length);
+        payload.put(data).flip();
+
+        Message message = new Message().append(payload);
+        Assert.assertEquals(text, message.asString());
+        Assert.assertEquals(text, message.asCharSequence().toString());
+        Assert.assertArrayEquals(data, message.asBytes());
+        ByteBuffer bb = message.asByteBuffer();
+        Assert.assertTrue(bb.isReadOnly());
+        byte[] bytes = new byte[bb.remaining()];
+        bb.get(bytes);
+        Assert.assertArrayEquals(data, bytes);
+
+        Frame frame = message.get(0);
+        Assert.assertEquals(data.length, frame.getLength());
+        byte[] array = frame.getData();
+        for (int i = 0; i < data.length; i++) {
+            Assert.assertEquals(data[i], array[frame.getOffset() + i]);
+        }
+
+        frame.mask();
+        Frame read = new Frame();
+        byte[] frameBytes = frame.getFrameBytes();
+        read.read(frameBytes, frame.getFrameOffset(), frame.getFrameLength());
+        Assert.assertTrue(read.isComplete());
+        Assert.assertEquals(text, read.unmask().asString());
+        Assert.assertEquals(text, new String(frame.unmask().getData(), frame.getOffset(), frame.getLength(), "UTF-8"));
+
+        Message fragmented = new Message().append(ByteBuffer.wrap(data, 0, 5)).append(ByteBuffer.wrap(data, 5, data.length - 5));
+        Assert.assertEquals(text, fragmented.asString());
+        Assert.assertEquals(text, fragmented.asCharSequence().toString());
+        Assert.assertArrayEquals(data, fragmented.asBytes());
+        bb = fragmented.asByteBuffer();
+        bytes = new byte[bb.remaining()];
+        bb.get(bytes);
+        Assert.assertArrayEquals(data, bytes);
+    }
+
     @Test
     public void test_close() throws IOException {
         Frame frame = new Frame(Frame.OPCODE_CONNECTION_CLOSE);
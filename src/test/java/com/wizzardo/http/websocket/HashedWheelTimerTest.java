@@ -0,0 +1,74 @@
+package com.wizzardo.http.websocket;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HashedWheelTimerTest {
+
+    @Test
+    public void test_schedule() throws InterruptedException {
+        HashedWheelTimer timer = new HashedWheelTimer("test-timer", 1, TimeUnit.MILLISECONDS, 8);
+        try {
+            final CountDownLatch latch = new CountDownLatch(2);
+            final long start = System.nanoTime();
+            final long[] elapsed = new long[1];
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    latch.countDown();
+                }
+            }, 0, TimeUnit.MILLISECONDS);
+            HashedWheelTimer.Timeout timeout = timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    elapsed[0] = System.nanoTime() - start;
+                    latch.countDown();
+                }
+            }, 30, TimeUnit.MILLISECONDS);
+
+            Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(timeout.isExpired());
+            Assert.assertFalse(timeout.cancel());
+            Assert.assertTrue(elapsed[0] >= TimeUnit.MILLISECONDS.toNanos(30));
+            Assert.assertEquals(0, timer.getPendingCount());
+        } finally {
+            timer.stop();
+        }
+    }
+
+    @Test
+    public void test_cancel() throws InterruptedException {
+        HashedWheelTimer timer = new HashedWheelTimer("test-timer", 1, TimeUnit.MILLISECONDS, 8);
+        try {
+            final AtomicInteger counter = new AtomicInteger();
+            Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    counter.incrementAndGet();
+                }
+            };
+
+            HashedWheelTimer.Timeout[] timeouts = new HashedWheelTimer.Timeout[100];
+            for (int i = 0; i < timeouts.length; i++) {
+                timeouts[i] = timer.schedule(task, 20 + i % 3, TimeUnit.MILLISECONDS);
+            }
+            for (int i = 0; i < timeouts.length; i += 2) {
+                Assert.assertTrue(timeouts[i].cancel());
+                Assert.assertTrue(timeouts[i].isCancelled());
+            }
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (timer.getPendingCount() != 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            Assert.assertEquals(0, timer.getPendingCount());
+            Assert.assertEquals(50, counter.get());
+        } finally {
+            timer.stop();
+        }
+    }
+}
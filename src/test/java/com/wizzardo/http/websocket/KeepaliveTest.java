@@ -0,0 +1,77 @@
+package com.wizzardo.http.websocket;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+public class KeepaliveTest {
+
+    @Test
+    public void test_pong_matching() throws InterruptedException {
+        Keepalive keepalive = new Keepalive();
+        Keepalive.Ping first = keepalive.newPing();
+        Keepalive.Ping second = keepalive.newPing();
+        Assert.assertEquals(8, first.getPayload().length);
+        Assert.assertEquals(-1, keepalive.getSmoothedRtt());
+
+        byte[] bytes = new byte[12];
+        System.arraycopy(second.getPayload(), 0, bytes, 2, 8);
+        Assert.assertTrue(keepalive.onPong(bytes, 2, 8));
+        Assert.assertFalse(keepalive.onPong(bytes, 2, 8));
+        Assert.assertFalse(keepalive.onPong(bytes, 0, 0));
+
+        Assert.assertTrue(second.isAnswered());
+        Assert.assertFalse(first.isAnswered());
+        Assert.assertTrue(second.await(0, TimeUnit.MILLISECONDS) >= 0);
+        Assert.assertEquals(-1, first.await(1, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(keepalive.getLastRtt(), keepalive.getSmoothedRtt());
+    }
+
+    @Test
+    public void test_smoothed_rtt() {
+        Keepalive keepalive = new Keepalive();
+        keepalive.updateRtt(800);
+        Assert.assertEquals(800, keepalive.getSmoothedRtt());
+        Assert.assertEquals(400, keepalive.getRttVariance());
+
+        keepalive.updateRtt(1600);
+        Assert.assertEquals(900, keepalive.getSmoothedRtt());
+        Assert.assertEquals(500, keepalive.getRttVariance());
+        Assert.assertEquals(1600, keepalive.getLastRtt());
+    }
+
+    @Test
+    public void test_missed_pongs() {
+        final int[] pings = new int[1];
+        final int[] timeouts = new int[1];
+        Keepalive.Connection connection = new Keepalive.Connection() {
+            @Override
+            public boolean isConnected() {
+                return true;
+            }
+
+            @Override
+            public void sendPing(byte[] payload) throws IOException {
+                pings[0]++;
+            }
+
+            @Override
+            public void onKeepaliveTimeout(int missedPongs) {
+                timeouts[0] = missedPongs;
+            }
+        };
+
+        Keepalive keepalive = new Keepalive();
+        keepalive.tick(connection, 0, 2);
+        Assert.assertEquals(1, pings[0]);
+        keepalive.tick(connection, 0, 2);
+        Assert.assertEquals(1, keepalive.getMissedPongs());
+        Assert.assertEquals(2, pings[0]);
+        keepalive.tick(connection, 0, 2);
+        Assert.assertEquals(2, timeouts[0]);
+        Assert.assertEquals(2, pings[0]);
+        Assert.assertEquals(0, keepalive.getMissedPongs());
+    }
+}
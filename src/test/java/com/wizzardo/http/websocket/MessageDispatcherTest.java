@@ -0,0 +1,195 @@
+package com.wizzardo.http.websocket;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class MessageDispatcherTest {
+
+    static class Recorder implements MessageDispatcher.Handler {
+        final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch latch;
+
+        Recorder(int count) {
+            latch = new CountDownLatch(count);
+        }
+
+        @Override
+        public void onMessage(Message message) {
+            messages.add(message.asString());
+            latch.countDown();
+        }
+
+        @Override
+        public void onError(Exception e) {
+        }
+    }
+
+    static class ManualExecutor implements Executor {
+        final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty())
+                tasks.poll().run();
+        }
+    }
+
+    @Test
+    public void test_order() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Recorder recorder = new Recorder(1000);
+            MessageDispatcher dispatcher = new MessageDispatcher(executor, 16, MessageDispatcher.Overflow.BLOCK, recorder);
+            for (int i = 0; i < 1000; i++) {
+                dispatcher.dispatch(new Message(String.valueOf(i)));
+            }
+
+            Assert.assertTrue(recorder.latch.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 1000; i++) {
+                Assert.assertEquals(String.valueOf(i), recorder.messages.get(i));
+            }
+            Assert.assertEquals(1000, dispatcher.getDispatched());
+            Assert.assertEquals(0, dispatcher.getDropped());
+            Assert.assertTrue(dispatcher.getMaxQueueSize() <= 16);
+            Assert.assertTrue(dispatcher.getMaxLagNanos() >= dispatcher.getAverageLagNanos());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void test_drop_oldest() throws IOException {
+        ManualExecutor executor = new ManualExecutor();
+        Recorder recorder = new Recorder(0);
+        MessageDispatcher dispatcher = new MessageDispatcher(executor, 2, MessageDispatcher.Overflow.DROP_OLDEST, recorder);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(dispatcher.offer(new Message(String.valueOf(i))));
+        }
+        Assert.assertEquals(2, dispatcher.getQueueSize());
+        Assert.assertEquals(3, dispatcher.getDropped());
+        Assert.assertTrue(dispatcher.getOldestLagNanos() >= 0);
+
+        executor.runAll();
+        Assert.assertEquals(2, recorder.messages.size());
+        Assert.assertEquals("3", recorder.messages.get(0));
+        Assert.assertEquals("4", recorder.messages.get(1));
+        Assert.assertEquals(0, dispatcher.getOldestLagNanos());
+    }
+
+    @Test
+    public void test_fail() throws IOException {
+        ManualExecutor executor = new ManualExecutor();
+        MessageDispatcher dispatcher = new MessageDispatcher(executor, 1, MessageDispatcher.Overflow.FAIL, new Recorder(0));
+        dispatcher.dispatch(new Message("0"));
+        try {
+            dispatcher.dispatch(new Message("1"));
+            Assert.fail("OverflowException expected");
+        } catch (MessageDispatcher.OverflowException ignored) {
+        }
+    }
+
+    @Test
+    public void test_ready() throws IOException {
+        ManualExecutor executor = new ManualExecutor();
+        Recorder recorder = new Recorder(0);
+        MessageDispatcher dispatcher = new MessageDispatcher(executor, 1, MessageDispatcher.Overflow.BLOCK, recorder);
+        Assert.assertTrue(dispatcher.offer(new Message("0")));
+        Assert.assertFalse(dispatcher.offer(new Message("1")));
+
+        final AtomicBoolean called = new AtomicBoolean();
+        dispatcher.onReady(new Runnable() {
+            @Override
+            public void run() {
+                called.set(true);
+            }
+        });
+        Assert.assertFalse(called.get());
+
+        executor.runAll();
+        Assert.assertTrue(called.get());
+        Assert.assertTrue(dispatcher.offer(new Message("1")));
+        executor.runAll();
+        Assert.assertEquals(2, recorder.messages.size());
+        Assert.assertEquals("1", recorder.messages.get(1));
+    }
+
+    @Test
+    public void test_rejected_task_is_scheduled_again() throws Exception {
+        final AtomicBoolean reject = new AtomicBoolean(true);
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                if (reject.get())
+                    throw new RejectedExecutionException();
+                new Thread(command).start();
+            }
+        };
+        Recorder recorder = new Recorder(2);
+        MessageDispatcher dispatcher = new MessageDispatcher(executor, 1, MessageDispatcher.Overflow.BLOCK, recorder);
+        try {
+            dispatcher.dispatch(new Message("0"));
+            Assert.fail("IOException expected");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        Assert.assertEquals(1, dispatcher.getQueueSize());
+
+        reject.set(false);
+        dispatcher.dispatch(new Message("1"));
+        Assert.assertTrue(recorder.latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals("0", recorder.messages.get(0));
+        Assert.assertEquals("1", recorder.messages.get(1));
+    }
+
+    @Test
+    public void test_failing_error_handler() throws IOException {
+        ManualExecutor executor = new ManualExecutor();
+        final List<String> messages = new ArrayList<String>();
+        MessageDispatcher dispatcher = new MessageDispatcher(executor, 4, MessageDispatcher.Overflow.BLOCK, new MessageDispatcher.Handler() {
+            @Override
+            public void onMessage(Message message) {
+                messages.add(message.asString());
+                throw new IllegalStateException("handler");
+            }
+
+            @Override
+            public void onError(Exception e) {
+                throw new IllegalStateException("error handler");
+            }
+        });
+        dispatcher.dispatch(new Message("0"));
+        dispatcher.dispatch(new Message("1"));
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                executor.tasks.poll().run();
+                Assert.fail("IllegalStateException expected");
+            } catch (IllegalStateException e) {
+                Assert.assertEquals("error handler", e.getMessage());
+            }
+        }
+        executor.runAll();
+        Assert.assertEquals(2, messages.size());
+        Assert.assertEquals(0, dispatcher.getQueueSize());
+
+        dispatcher.dispatch(new Message("2"));
+        Assert.assertEquals(1, executor.tasks.size());
+    }
+}
@@ -0,0 +1,256 @@
+package com.wizzardo.http.websocket;
+
+import com.wizzardo.http.websocket.tools.EchoServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class NioWebSocketClientTest {
+    protected EchoServer server;
+    protected EventLoopGroup group;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new EchoServer(0);
+        group = new EventLoopGroup(1);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        group.shutdown();
+        server.close();
+    }
+
+    static class StreamingClient extends NioWebSocketClient {
+        final List<String> events = new CopyOnWriteArrayList<String>();
+        final CountDownLatch ended;
+        final StringBuilder payload = new StringBuilder();
+        final Frame[] frames;
+
+        StreamingClient(EventLoopGroup group, SimpleWebSocketClient.Request request, int messages, Frame... frames) {
+            super(group, request);
+            this.frames = frames;
+            ended = new CountDownLatch(messages);
+            setStreamingMessages(true);
+        }
+
+        @Override
+        public void onConnect() {
+            for (Frame frame : frames) {
+                send(frame);
+            }
+        }
+
+        @Override
+        public void onMessageStart(byte opcode) {
+            events.add("start " + opcode + (deflate != null ? " compressed" : ""));
+        }
+
+        @Override
+        public void onMessagePart(byte[] bytes, int offset, int length) {
+            payload.append(new String(bytes, offset, length));
+        }
+
+        @Override
+        public void onMessageEnd() {
+            events.add("end " + payload);
+            payload.setLength(0);
+            ended.countDown();
+        }
+    }
+
+    @Test
+    public void test_echo() throws Exception {
+        final List<String> received = new CopyOnWriteArrayList<String>();
+        final CountDownLatch latch = new CountDownLatch(100);
+        NioWebSocketClient client = new NioWebSocketClient(group, server.getUrl()) {
+            @Override
+            public void onConnect() {
+                for (int i = 0; i < 100; i++) {
+                    send("message " + i);
+                }
+            }
+
+            @Override
+            public void onMessage(Message message) {
+                received.add(message.asString());
+                latch.countDown();
+            }
+        };
+        client.connect();
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals("message " + i, received.get(i));
+        }
+        client.close();
+    }
+
+    @Test
+    public void test_fragmented() throws Exception {
+        final List<Message> received = new CopyOnWriteArrayList<Message>();
+        final CountDownLatch latch = new CountDownLatch(2);
+        NioWebSocketClient client = new NioWebSocketClient(group, server.getUrl()) {
+            @Override
+            public void onConnect() {
+                send(new Message().append("frag").append("mented ").append("message"));
+                send(new Message().append(new byte[]{1, 2}, 0, 2, Frame.OPCODE_BINARY_FRAME).append(new byte[]{3}));
+            }
+
+            @Override
+            public void onMessage(Message message) {
+                received.add(message.detach());
+                latch.countDown();
+            }
+        };
+        client.setFrameViews(true);
+        client.connect();
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(3, received.get(0).size());
+        Assert.assertTrue(received.get(0).isTextMessage());
+        Assert.assertEquals("fragmented message", received.get(0).asString());
+        Assert.assertTrue(received.get(1).isBinaryMessage());
+        Assert.assertArrayEquals(new byte[]{1, 2, 3}, received.get(1).asBytes());
+        client.close();
+    }
+
+    @Test
+    public void test_server_close_and_reconnect() throws Exception {
+        final AtomicInteger connects = new AtomicInteger();
+        final AtomicInteger closes = new AtomicInteger();
+        final CountDownLatch echoed = new CountDownLatch(1);
+        NioWebSocketClient client = new NioWebSocketClient(group, server.getUrl()) {
+            @Override
+            public void onConnect() {
+                if (connects.incrementAndGet() == 1)
+                    send(new Frame(Frame.OPCODE_CONNECTION_CLOSE).mask());
+                else
+                    send("after reconnect");
+            }
+
+            @Override
+            public void onClose() {
+                closes.incrementAndGet();
+            }
+
+            @Override
+            public void onMessage(Message message) {
+                if (message.asString().equals("after reconnect"))
+                    echoed.countDown();
+            }
+        };
+        client.setReconnectStrategy(new ReconnectStrategy.Fixed(10));
+        client.connect();
+
+        Assert.assertTrue(echoed.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, connects.get());
+        Assert.assertEquals(1, closes.get());
+        client.close();
+    }
+
+    @Test
+    public void test_outbound_is_cleared_on_close() throws URISyntaxException {
+        NioWebSocketClient client = new NioWebSocketClient(group, server.getUrl());
+        client.send("stale");
+        client.send("stale too");
+        Assert.assertEquals(2, client.outbound.size());
+
+        client.closeChannel();
+        Assert.assertTrue(client.outbound.isEmpty());
+    }
+
+    @Test
+    public void test_streaming_fragmented() throws Exception {
+        Message message = new Message().append("frag").append("mented ").append("message");
+        StreamingClient client = new StreamingClient(group, new SimpleWebSocketClient.Request(server.getUrl()), 2,
+                message.get(0).mask(), message.get(1).mask(), message.get(2).mask(), new Frame("single".getBytes(), 0, 6).mask());
+        client.connect();
+
+        Assert.assertTrue(client.ended.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(4, client.events.size());
+        Assert.assertEquals("start " + Frame.OPCODE_TEXT_FRAME, client.events.get(0));
+        Assert.assertEquals("end fragmented message", client.events.get(1));
+        Assert.assertEquals("start " + Frame.OPCODE_TEXT_FRAME, client.events.get(2));
+        Assert.assertEquals("end single", client.events.get(3));
+        client.close();
+    }
+
+    @Test
+    public void test_streaming_with_interleaved_control_frames() throws Exception {
+        Message message = new Message().append("before ping, ").append("after ping");
+        StreamingClient client = new StreamingClient(group, new SimpleWebSocketClient.Request(server.getUrl()), 1,
+                message.get(0).mask(), new Frame(Frame.OPCODE_PING, new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, 0, 8).mask(), message.get(1).mask());
+        client.connect();
+
+        Assert.assertTrue(client.ended.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, client.events.size());
+        Assert.assertEquals("start " + Frame.OPCODE_TEXT_FRAME, client.events.get(0));
+        Assert.assertEquals("end before ping, after ping", client.events.get(1));
+        Assert.assertFalse(client.isClosed());
+        client.close();
+    }
+
+    @Test
+    public void test_streaming_compressed() throws Exception {
+        server.setPerMessageDeflate(true);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("compressed ").append(i).append(' ');
+        }
+        final String text = sb.toString();
+        StreamingClient client = new StreamingClient(group, new SimpleWebSocketClient.Request(server.getUrl()).perMessageDeflate(), 2) {
+            @Override
+            public void onConnect() {
+                send(text);
+                send(text);
+            }
+        };
+        client.connect();
+
+        Assert.assertTrue(client.ended.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(4, client.events.size());
+        Assert.assertEquals("start " + Frame.OPCODE_TEXT_FRAME + " compressed", client.events.get(0));
+        Assert.assertEquals("end " + text, client.events.get(1));
+        Assert.assertEquals("end " + text, client.events.get(3));
+        client.close();
+    }
+
+    @Test
+    public void test_too_big_frame_closes_with_1009() throws Exception {
+        SimpleWebSocketClientTest.TooBigServer server = new SimpleWebSocketClientTest.TooBigServer();
+        try {
+            final List<Exception> errors = new CopyOnWriteArrayList<Exception>();
+            final CountDownLatch closed = new CountDownLatch(1);
+            NioWebSocketClient client = new NioWebSocketClient(group, server.getUrl()) {
+                @Override
+                public void onError(Exception e) {
+                    errors.add(e);
+                }
+
+                @Override
+                public void onClose() {
+                    closed.countDown();
+                }
+            };
+            client.connect();
+
+            Assert.assertTrue(server.closed.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(Frame.STATUS_MESSAGE_TOO_BIG, server.status);
+            Assert.assertTrue(closed.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(errors.get(0) instanceof Frame.TooBigException);
+            Assert.assertFalse(client.connected);
+        } finally {
+            server.close();
+        }
+    }
+}
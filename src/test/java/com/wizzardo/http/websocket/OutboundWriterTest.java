@@ -0,0 +1,195 @@
+package com.wizzardo.http.websocket;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class OutboundWriterTest {
+
+    @Test
+    public void test_concurrent_writes() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                super.write(b, off, len);
+            }
+        };
+        final OutboundWriter writer = new OutboundWriter(256);
+        writer.setOutputStream(out);
+
+        final int threads = 4;
+        final int messages = 1000;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            final int id = i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < messages; j++) {
+                            Message message = new Message()
+                                    .append(id + ":" + j + ":")
+                                    .append("end");
+                            writer.write(new Frame[]{message.get(0), message.get(1)});
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }).start();
+        }
+        latch.await();
+
+        Assert.assertEquals(0, writer.getQueueDepth());
+        Assert.assertEquals(threads * messages * 2, writer.getFrameCount());
+        Assert.assertTrue(writer.getWriteCount() <= writer.getFrameCount());
+
+        byte[] bytes = out.toByteArray();
+        int offset = 0;
+        Set<String> received = new HashSet<String>();
+        while (offset < bytes.length) {
+            Message message = new Message();
+            do {
+                Frame frame = new Frame();
+                offset += frame.read(bytes, offset, bytes.length - offset);
+                Assert.assertTrue(frame.isComplete());
+                message.add(frame);
+            } while (!message.isComplete());
+            Assert.assertEquals(2, message.size());
+            Assert.assertEquals("end", message.get(1).asString());
+            received.add(message.get(0).asString());
+        }
+        Assert.assertEquals(threads * messages, received.size());
+    }
+
+    @Test
+    public void test_metrics() throws Exception {
+        LongAdderMetrics metrics = new LongAdderMetrics();
+        OutboundWriter writer = new OutboundWriter(64);
+        writer.setMetrics(metrics);
+        writer.write(new Frame(new byte[10], 0, 10));
+        Assert.assertEquals(1, metrics.getOutboundQueueDepth());
+        Assert.assertEquals(0, metrics.getFlushes());
+
+        writer.setOutputStream(new ByteArrayOutputStream());
+        writer.write(new Frame[]{new Frame(new byte[100], 0, 100), new Frame(Frame.OPCODE_PING)});
+
+        Assert.assertEquals(2, metrics.getFramesOut(Frame.OPCODE_TEXT_FRAME));
+        Assert.assertEquals(110, metrics.getBytesOut(Frame.OPCODE_TEXT_FRAME));
+        Assert.assertEquals(1, metrics.getFramesOut(Frame.OPCODE_PING));
+        Assert.assertEquals(1, metrics.getFlushes());
+        Assert.assertEquals(2, metrics.getOutboundQueueDepthMax());
+
+        metrics.onReconnect(new IOException());
+        metrics.onReconnect(null);
+        metrics.onReconnect(new IOException());
+        Assert.assertEquals(3, metrics.getReconnects());
+        Assert.assertEquals(Long.valueOf(2), metrics.getReconnectCauses().get(IOException.class.getName()));
+        Assert.assertEquals(Long.valueOf(1), metrics.getReconnectCauses().get("closed"));
+    }
+
+    @Test
+    public void test_failed_write_keeps_frames_of_other_callers() throws Exception {
+        final OutboundWriter writer = new OutboundWriter(256);
+        final AtomicReference<Exception> error = new AtomicReference<Exception>();
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writer.write(new Frame[]{new Message("first").get(0)});
+                } catch (IOException e) {
+                    error.set(e);
+                }
+            }
+        });
+        producer.start();
+        producer.join();
+        Assert.assertNull(error.get());
+        Assert.assertEquals(1, writer.getQueueDepth());
+
+        writer.setOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("broken pipe");
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                throw new IOException("broken pipe");
+            }
+        });
+        try {
+            writer.write(new Frame[]{new Message("second").get(0)});
+            Assert.fail("IOException expected");
+        } catch (IOException ignored) {
+        }
+        Assert.assertEquals(1, writer.getQueueDepth());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.setOutputStream(out);
+        writer.write(new Frame[]{new Message("third").get(0)});
+        Assert.assertEquals(0, writer.getQueueDepth());
+
+        byte[] bytes = out.toByteArray();
+        int offset = 0;
+        Frame frame = new Frame();
+        offset += frame.read(bytes, offset, bytes.length - offset);
+        Assert.assertEquals("first", frame.asString());
+        frame = new Frame();
+        offset += frame.read(bytes, offset, bytes.length - offset);
+        Assert.assertEquals("third", frame.asString());
+        Assert.assertEquals(bytes.length, offset);
+    }
+
+    @Test
+    public void test_enqueue_does_not_wait_for_writer() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+                super.write(b, off, len);
+            }
+        };
+        final OutboundWriter writer = new OutboundWriter(256);
+        Assert.assertTrue(writer.enqueue(new Frame[]{new Message("first").get(0)}));
+        Assert.assertEquals(0, out.size());
+
+        writer.setOutputStream(out);
+        Thread sender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writer.drain();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        sender.start();
+        Assert.assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+        Assert.assertFalse(writer.enqueue(new Frame[]{new Frame(Frame.OPCODE_PING)}));
+        Assert.assertEquals(1, writer.getQueueDepth());
+        release.countDown();
+        sender.join(5000);
+
+        Assert.assertEquals(0, writer.getQueueDepth());
+        Assert.assertEquals(2, writer.getFrameCount());
+    }
+}
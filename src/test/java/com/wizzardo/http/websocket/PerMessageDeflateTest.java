@@ -0,0 +1,139 @@
+package com.wizzardo.http.websocket;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+
+public class PerMessageDeflateTest {
+
+    @Test
+    public void test_negotiate() throws IOException {
+        PerMessageDeflate.Options options = new PerMessageDeflate.Options().serverMaxWindowBits(10);
+        Assert.assertEquals("permessage-deflate; server_max_window_bits=10", options.offer());
+
+        Assert.assertNull(PerMessageDeflate.negotiate(options, null));
+
+        PerMessageDeflate deflate = PerMessageDeflate.negotiate(options, "permessage-deflate; server_no_context_takeover; server_max_window_bits=9");
+        Assert.assertTrue(deflate.isServerNoContextTakeover());
+        Assert.assertFalse(deflate.isClientNoContextTakeover());
+
+        try {
+            PerMessageDeflate.negotiate(options, "permessage-deflate; client_max_window_bits=10");
+            Assert.fail();
+        } catch (IOException ignored) {
+        }
+
+        try {
+            PerMessageDeflate.negotiate(options, "x-webkit-deflate-frame");
+            Assert.fail();
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Test
+    public void test_negotiate_server_max_window_bits() throws IOException {
+        PerMessageDeflate.Options options = new PerMessageDeflate.Options();
+        Assert.assertNotNull(PerMessageDeflate.negotiate(options, "permessage-deflate; server_max_window_bits=8"));
+        Assert.assertNotNull(PerMessageDeflate.negotiate(options, "permessage-deflate; server_max_window_bits=15"));
+
+        String[] wrong = {"7", "16", "x", ""};
+        for (String bits : wrong) {
+            try {
+                PerMessageDeflate.negotiate(options, "permessage-deflate; server_max_window_bits=" + bits);
+                Assert.fail("server_max_window_bits=" + bits + " must be rejected");
+            } catch (IOException ignored) {
+            }
+        }
+
+        options.serverMaxWindowBits(10);
+        Assert.assertNotNull(PerMessageDeflate.negotiate(options, "permessage-deflate; server_max_window_bits=10"));
+        try {
+            PerMessageDeflate.negotiate(options, "permessage-deflate; server_max_window_bits=11");
+            Assert.fail("server_max_window_bits above the offered one must be rejected");
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Test
+    public void test_roundtrip() throws IOException {
+        PerMessageDeflate.Options options = new PerMessageDeflate.Options();
+        PerMessageDeflate client = PerMessageDeflate.negotiate(options, "permessage-deflate");
+        PerMessageDeflate server = PerMessageDeflate.negotiate(options, "permessage-deflate");
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("{\"id\":").append(i).append(",\"price\":1.25}");
+        }
+        String text = sb.toString();
+
+        for (int i = 0; i < 3; i++) {
+            Frame frame = client.deflate(new Message(text).append("!"));
+            Assert.assertTrue(frame.isRsv1());
+            Assert.assertTrue(frame.getLength() < text.length() / 8);
+
+            Message message = new Message();
+            message.add(frame);
+            Message inflated = server.inflate(message, Frame.DEFAULT_BYTE_ARRAY_SUPPLIER);
+            Assert.assertEquals(text + "!", inflated.asString());
+            Assert.assertTrue(inflated.isTextMessage());
+        }
+    }
+
+    @Test
+    public void test_inflate_parts() throws IOException {
+        PerMessageDeflate deflate = PerMessageDeflate.negotiate(new PerMessageDeflate.Options(), "permessage-deflate; server_no_context_takeover");
+
+        byte[] data = new byte[100000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 17);
+        }
+        Frame frame = deflate.deflate(new Message(data));
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PerMessageDeflate.Output output = new PerMessageDeflate.Output() {
+            @Override
+            public void write(byte[] bytes, int offset, int length) {
+                out.write(bytes, offset, length);
+            }
+        };
+        for (int i = 0; i < frame.getLength(); i += 7) {
+            deflate.inflate(frame.getData(), frame.getOffset() + i, Math.min(7, frame.getLength() - i), output);
+        }
+        deflate.inflateEnd(output);
+
+        Assert.assertArrayEquals(data, out.toByteArray());
+    }
+
+    @Test
+    public void test_release_waits_for_users() throws IOException {
+        DeflatePool pool = new DeflatePool(Deflater.DEFAULT_COMPRESSION, 4);
+        PerMessageDeflate deflate = PerMessageDeflate.negotiate(new PerMessageDeflate.Options().pool(pool), "permessage-deflate");
+        Frame frame = deflate.deflate(new Message("released while in use, released while in use"));
+        PerMessageDeflate.Output output = new PerMessageDeflate.Output() {
+            @Override
+            public void write(byte[] bytes, int offset, int length) {
+            }
+        };
+
+        Assert.assertTrue(deflate.retain());
+        deflate.inflate(frame.getData(), frame.getOffset(), frame.getLength(), output);
+        deflate.release();
+        Assert.assertEquals(0, pool.inflaters.size());
+        Assert.assertEquals(0, pool.deflaters.size());
+
+        deflate.inflateEnd(output);
+        deflate.release();
+        Assert.assertEquals(1, pool.inflaters.size());
+        Assert.assertEquals(1, pool.deflaters.size());
+
+        Assert.assertFalse(deflate.retain());
+        try {
+            deflate.inflate(frame.getData(), frame.getOffset(), frame.getLength(), output);
+            Assert.fail("IOException expected");
+        } catch (IOException ignored) {
+        }
+    }
+}
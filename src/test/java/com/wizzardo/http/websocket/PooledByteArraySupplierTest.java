@@ -0,0 +1,74 @@
+package com.wizzardo.http.websocket;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class PooledByteArraySupplierTest {
+
+    @Test
+    public void test_size_classes() {
+        PooledByteArraySupplier supplier = new PooledByteArraySupplier(64, 1024, 4);
+
+        Assert.assertEquals(64, supplier.supply(1).length);
+        Assert.assertEquals(64, supplier.supply(64).length);
+        Assert.assertEquals(128, supplier.supply(65).length);
+        Assert.assertEquals(1024, supplier.supply(1000).length);
+        Assert.assertEquals(1025, supplier.supply(1025).length);
+    }
+
+    @Test
+    public void test_reuse() {
+        PooledByteArraySupplier supplier = new PooledByteArraySupplier(64, 1024, 4);
+
+        byte[] bytes = supplier.supply(100);
+        supplier.release(bytes);
+        Assert.assertSame(bytes, supplier.supply(120));
+        Assert.assertNotSame(bytes, supplier.supply(120));
+
+        byte[] big = supplier.supply(2000);
+        supplier.release(big);
+        Assert.assertNotSame(big, supplier.supply(2000));
+    }
+
+    @Test
+    public void test_frame_release() throws IOException {
+        PooledByteArraySupplier supplier = new PooledByteArraySupplier(64, 1024, 4);
+        byte[] data = new Frame(new byte[]{1, 2, 3}, 0, 3).getFrameBytes();
+
+        Frame frame = new Frame();
+        frame.setByteArraySupplier(supplier);
+        frame.read(data, Frame.MAX_HEADER_LENGTH - 2, 5);
+        Assert.assertTrue(frame.isComplete());
+        Assert.assertEquals(3, frame.getLength());
+
+        byte[] payload = frame.getData();
+        Message message = new Message();
+        message.add(frame);
+        message.release();
+
+        Assert.assertEquals(0, message.size());
+        Assert.assertNull(frame.getData());
+        Assert.assertSame(payload, supplier.supply(3));
+    }
+
+    @Test
+    public void test_owner_keeps_arrays_released_on_other_threads() throws InterruptedException {
+        PooledByteArraySupplier supplier = new PooledByteArraySupplier(64, 1024, 4);
+        final ByteArraySupplier owner = supplier.forOwner();
+
+        final byte[] bytes = owner.supply(100);
+        Thread dispatcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                owner.release(bytes);
+            }
+        });
+        dispatcher.start();
+        dispatcher.join();
+
+        Assert.assertSame(bytes, owner.supply(100));
+        Assert.assertNotSame(owner, supplier.forOwner());
+    }
+}
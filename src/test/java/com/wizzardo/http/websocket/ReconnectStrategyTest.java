@@ -0,0 +1,45 @@
+package com.wizzardo.http.websocket;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class ReconnectStrategyTest {
+
+    @Test
+    public void test_fixed() {
+        ReconnectStrategy strategy = new ReconnectStrategy.Fixed(100, 200);
+        Assert.assertEquals(100, strategy.delay(1, null));
+        Assert.assertEquals(200, strategy.delay(5, new IOException()));
+    }
+
+    @Test
+    public void test_exponential_backoff() {
+        ReconnectStrategy.ExponentialBackoff strategy = new ReconnectStrategy.ExponentialBackoff(100, 10000, 20);
+        Assert.assertEquals(100, strategy.ceiling(1));
+        Assert.assertEquals(200, strategy.ceiling(2));
+        Assert.assertEquals(6400, strategy.ceiling(7));
+        Assert.assertEquals(10000, strategy.ceiling(8));
+        Assert.assertEquals(10000, strategy.ceiling(1000));
+
+        boolean spread = false;
+        long first = strategy.delay(10, null);
+        for (int i = 0; i < 100; i++) {
+            long delay = strategy.delay(10, null);
+            Assert.assertTrue(delay >= 0 && delay <= 10000);
+            spread |= delay != first;
+        }
+        Assert.assertTrue(spread);
+        Assert.assertEquals(-1, strategy.delay(21, null));
+    }
+
+    @Test
+    public void test_exponential_backoff_without_limit() {
+        ReconnectStrategy.ExponentialBackoff strategy = new ReconnectStrategy.ExponentialBackoff(2, Long.MAX_VALUE);
+        Assert.assertEquals(Long.MAX_VALUE, strategy.ceiling(100));
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(strategy.delay(100, null) >= 0);
+        }
+    }
+}
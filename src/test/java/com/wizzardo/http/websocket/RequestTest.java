@@ -0,0 +1,83 @@
+package com.wizzardo.http.websocket;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+public class RequestTest {
+
+    @Test
+    public void test_accept() {
+        byte[] accept = SimpleWebSocketClient.Request.accept("dGhlIHNhbXBsZSBub25jZQ==".getBytes(Charsets.ISO_8859_1));
+        Assert.assertEquals("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=", new String(accept, Charsets.ISO_8859_1));
+    }
+
+    @Test
+    public void test_build() throws URISyntaxException {
+        SimpleWebSocketClient.Request request = new SimpleWebSocketClient.Request("ws://localhost:8080/ws").param("a", "b");
+        byte[] key = SimpleWebSocketClient.Request.newKey();
+        Assert.assertEquals(24, key.length);
+        Assert.assertFalse(new String(key, Charsets.ISO_8859_1).equals(new String(SimpleWebSocketClient.Request.newKey(), Charsets.ISO_8859_1)));
+
+        String s = new String(request.build(key), Charsets.UTF_8);
+        Assert.assertTrue(s.startsWith("GET /ws?a=b HTTP/1.1\r\n"));
+        Assert.assertTrue(s.endsWith("\r\nSec-WebSocket-Key: " + new String(key, Charsets.ISO_8859_1) + "\r\n\r\n"));
+
+        request.header("X-Test", "1");
+        Assert.assertTrue(new String(request.build(key), Charsets.UTF_8).contains("\r\nX-Test: 1\r\n"));
+    }
+
+    @Test
+    public void test_build_with_new_key() throws URISyntaxException, IOException {
+        SimpleWebSocketClient.Request request = new SimpleWebSocketClient.Request("ws://localhost:8080/");
+        Assert.assertNull(request.getKey());
+
+        String first = request.build();
+        byte[] key = request.getKey();
+        Assert.assertTrue(first.endsWith("\r\nSec-WebSocket-Key: " + new String(key, Charsets.ISO_8859_1) + "\r\n\r\n"));
+        Assert.assertFalse(first.contains(SimpleWebSocketClient.Request.KEY_PLACEHOLDER));
+
+        String second = request.build();
+        Assert.assertFalse(first.equals(second));
+        Assert.assertNotSame(key, request.getKey());
+
+        byte[] response = ("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\nSec-WebSocket-Accept: "
+                + new String(SimpleWebSocketClient.Request.accept(request.getKey()), Charsets.ISO_8859_1) + "\r\n\r\n").getBytes(Charsets.ISO_8859_1);
+        request.validate(response, 0, response.length - 4);
+        try {
+            request.validate(response, 0, response.length - 4, key);
+            Assert.fail("IOException expected");
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Test
+    public void test_validate() throws URISyntaxException, IOException {
+        SimpleWebSocketClient.Request request = new SimpleWebSocketClient.Request("ws://localhost:8080/");
+        byte[] key = "dGhlIHNhbXBsZSBub25jZQ==".getBytes(Charsets.ISO_8859_1);
+
+        validate(request, key, "HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\nSec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo=");
+        validate(request, key, "HTTP/1.1 101\r\nupgrade: WebSocket\r\nconnection: keep-alive, upgrade\r\nsec-websocket-accept:s3pPLMBiTxaQ9kYGzzhZRbK+xOo=");
+
+        assertInvalid(request, key, "HTTP/1.1 404 Not Found\r\nContent-Length: 0", "Unexpected response: HTTP/1.1 404 Not Found");
+        assertInvalid(request, key, "HTTP/1.1 1010 Nope\r\nUpgrade: websocket\r\nConnection: Upgrade", "Unexpected response: HTTP/1.1 1010 Nope");
+        assertInvalid(request, key, "HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\nSec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo=", "Response has no 'Upgrade: websocket' header");
+        assertInvalid(request, key, "HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\nSec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOO=", "Wrong or missing Sec-WebSocket-Accept header");
+    }
+
+    protected void validate(SimpleWebSocketClient.Request request, byte[] key, String response) throws IOException {
+        byte[] bytes = (response + "\r\n\r\n").getBytes(Charsets.ISO_8859_1);
+        request.validate(bytes, 0, bytes.length - 4, key);
+    }
+
+    protected void assertInvalid(SimpleWebSocketClient.Request request, byte[] key, String response, String message) {
+        try {
+            validate(request, key, response);
+            Assert.fail("IOException expected");
+        } catch (IOException e) {
+            Assert.assertEquals(message, e.getMessage());
+        }
+    }
+}
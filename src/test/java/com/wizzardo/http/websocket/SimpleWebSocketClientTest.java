@@ -0,0 +1,744 @@
+package com.wizzardo.http.websocket;
+
+import com.wizzardo.http.websocket.tools.EchoServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SimpleWebSocketClientTest {
+    protected EchoServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new EchoServer(0);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    static class Client extends SimpleWebSocketClient {
+        final CountDownLatch received = new CountDownLatch(1);
+        final AtomicInteger handshakes = new AtomicInteger();
+        volatile String thread;
+
+        Client(String url) throws URISyntaxException, IOException {
+            super(url);
+        }
+
+        @Override
+        protected void doHandshake(Request request) throws IOException {
+            handshakes.incrementAndGet();
+            super.doHandshake(request);
+        }
+
+        @Override
+        public void onMessage(Message message) {
+            thread = Thread.currentThread().getName();
+            received.countDown();
+        }
+    }
+
+    static class StreamingClient extends SimpleWebSocketClient {
+        final List<String> events = new CopyOnWriteArrayList<String>();
+        final CountDownLatch ended;
+        final StringBuilder payload = new StringBuilder();
+
+        StreamingClient(Request request, int messages) throws URISyntaxException, IOException {
+            super(request);
+            ended = new CountDownLatch(messages);
+            setStreamingMessages(true);
+        }
+
+        @Override
+        public void onMessageStart(byte opcode) {
+            events.add("start " + opcode);
+        }
+
+        @Override
+        public void onMessagePart(byte[] bytes, int offset, int length) {
+            payload.append(new String(bytes, offset, length));
+        }
+
+        @Override
+        public void onMessageEnd() {
+            events.add("end " + payload);
+            payload.setLength(0);
+            ended.countDown();
+        }
+    }
+
+    /**
+     * Sends a header of a 4GB frame after the handshake and records the status of the close frame it gets back
+     */
+    static class TooBigServer extends EchoServer {
+        final CountDownLatch closed = new CountDownLatch(1);
+        volatile int status;
+
+        TooBigServer() throws IOException {
+            super(0);
+        }
+
+        @Override
+        protected void handle(Socket socket) {
+            try {
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                OutputStream out = socket.getOutputStream();
+                handshake(in, out);
+                out.write(new byte[]{(byte) 0x82, 127, 0, 0, 0, 1, 0, 0, 0, 0});
+                out.flush();
+
+                int opcode = in.readUnsignedByte() & Frame.OPCODE;
+                in.readUnsignedByte();
+                byte[] mask = new byte[4];
+                in.readFully(mask);
+                if (opcode == Frame.OPCODE_CONNECTION_CLOSE)
+                    status = ((in.readUnsignedByte() ^ (mask[0] & 0xff)) << 8) | (in.readUnsignedByte() ^ (mask[1] & 0xff));
+                closed.countDown();
+            } catch (IOException ignored) {
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test_start_with_thread_factory() throws Exception {
+        Client client = new Client(server.getUrl());
+        Thread thread = client.start(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "factory-reader");
+            }
+        });
+        client.send("test");
+
+        Assert.assertTrue(client.received.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals("factory-reader", client.thread);
+        Assert.assertEquals("factory-reader", thread.getName());
+        client.close();
+        thread.join(5000);
+        Assert.assertFalse(thread.isAlive());
+    }
+
+    @Test
+    public void test_start_on_executor() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "executor-reader");
+            }
+        });
+        try {
+            Client client = new Client(server.getUrl());
+            client.startOn(executor);
+            client.send("test");
+
+            Assert.assertTrue(client.received.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals("executor-reader", client.thread);
+            client.close();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void test_concurrent_connect_does_one_handshake() throws Exception {
+        final Client client = new Client(server.getUrl());
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(8);
+        final AtomicInteger failures = new AtomicInteger();
+        for (int i = 0; i < 8; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        if (!client.connectIfNot())
+                            failures.incrementAndGet();
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, failures.get());
+        Assert.assertEquals(1, client.handshakes.get());
+        client.close();
+    }
+
+    @Test
+    public void test_streaming_fragmented() throws Exception {
+        StreamingClient client = new StreamingClient(new SimpleWebSocketClient.Request(server.getUrl()), 2);
+        client.start();
+        client.send(new Message().append("frag").append("mented ").append("message"));
+        client.send(new Message().append("single"));
+
+        Assert.assertTrue(client.ended.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(4, client.events.size());
+        Assert.assertEquals("start " + Frame.OPCODE_TEXT_FRAME, client.events.get(0));
+        Assert.assertEquals("end fragmented message", client.events.get(1));
+        Assert.assertEquals("start " + Frame.OPCODE_TEXT_FRAME, client.events.get(2));
+        Assert.assertEquals("end single", client.events.get(3));
+        client.close();
+    }
+
+    @Test
+    public void test_streaming_with_interleaved_control_frames() throws Exception {
+        StreamingClient client = new StreamingClient(new SimpleWebSocketClient.Request(server.getUrl()), 1);
+        client.start();
+        Message message = new Message().append("before ping, ").append("after ping");
+        client.send(message.get(0).mask());
+        client.send(new Frame(Frame.OPCODE_PING, new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, 0, 8).mask());
+        client.send(message.get(1).mask());
+
+        Assert.assertTrue(client.ended.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, client.events.size());
+        Assert.assertEquals("start " + Frame.OPCODE_TEXT_FRAME, client.events.get(0));
+        Assert.assertEquals("end before ping, after ping", client.events.get(1));
+        Assert.assertFalse(client.isClosed());
+        client.close();
+    }
+
+    @Test
+    public void test_streaming_compressed() throws Exception {
+        server.setPerMessageDeflate(true);
+        StreamingClient client = new StreamingClient(new SimpleWebSocketClient.Request(server.getUrl()).perMessageDeflate(), 2);
+        Assert.assertTrue(client.connectIfNot());
+        Assert.assertNotNull(client.deflate);
+        client.start();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("compressed ").append(i).append(' ');
+        }
+        String text = sb.toString();
+        client.send(text);
+        client.send(text);
+
+        Assert.assertTrue(client.ended.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(4, client.events.size());
+        Assert.assertEquals("end " + text, client.events.get(1));
+        Assert.assertEquals("end " + text, client.events.get(3));
+        client.close();
+    }
+
+    @Test
+    public void test_idle_close_is_written_off_the_timer_thread() throws Exception {
+        final CountDownLatch closed = new CountDownLatch(1);
+        final AtomicInteger handedOff = new AtomicInteger();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            SimpleWebSocketClient client = new SimpleWebSocketClient(server.getUrl()) {
+                @Override
+                public void onClose() {
+                    closed.countDown();
+                }
+            };
+            client.setBlockingExecutor(new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    handedOff.incrementAndGet();
+                    executor.execute(command);
+                }
+            });
+            Assert.assertTrue(client.connectIfNot());
+            client.setIdleTimeout(100);
+            client.start();
+
+            Assert.assertTrue(closed.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(1, handedOff.get());
+            client.join(5000);
+            Assert.assertFalse(client.isAlive());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void test_standby_is_not_alive_after_buffered_close() throws Exception {
+        Socket socket = new Socket("localhost", server.getPort());
+        try {
+            byte[] buffer = new byte[256];
+            SimpleWebSocketClient.Upgraded upgraded = new SimpleWebSocketClient.Upgraded(socket, buffer);
+            upgraded.limit = new Frame(Frame.OPCODE_PING, new byte[]{1, 2, 3}, 0, 3).copyFrame(buffer, 0);
+            Assert.assertTrue(upgraded.isAlive());
+
+            upgraded.limit = new Frame(Frame.OPCODE_CONNECTION_CLOSE).copyFrame(buffer, upgraded.limit);
+            Assert.assertFalse(upgraded.isAlive());
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Keeps accepted sockets, so a test can break a connection from the server side
+     */
+    static class RecordingServer extends EchoServer {
+        final List<Socket> sockets = new CopyOnWriteArrayList<Socket>();
+
+        RecordingServer() throws IOException {
+            super(0);
+        }
+
+        @Override
+        protected void handle(Socket socket) {
+            sockets.add(socket);
+            super.handle(socket);
+        }
+    }
+
+    /**
+     * Accepts the upgrade and then reads everything without answering, pings included
+     */
+    static class SilentServer extends EchoServer {
+        SilentServer() throws IOException {
+            super(0);
+        }
+
+        @Override
+        protected void handle(Socket socket) {
+            try {
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                handshake(in, socket.getOutputStream());
+                while (in.read() != -1) {
+                }
+            } catch (IOException ignored) {
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test_too_big_frame_closes_with_1009() throws Exception {
+        TooBigServer server = new TooBigServer();
+        try {
+            final List<Exception> errors = new CopyOnWriteArrayList<Exception>();
+            final CountDownLatch closed = new CountDownLatch(1);
+            SimpleWebSocketClient client = new SimpleWebSocketClient(server.getUrl()) {
+                @Override
+                public void onError(Exception e) {
+                    errors.add(e);
+                }
+
+                @Override
+                public void onClose() {
+                    closed.countDown();
+                }
+            };
+            client.start();
+
+            Assert.assertTrue(server.closed.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(Frame.STATUS_MESSAGE_TOO_BIG, server.status);
+            Assert.assertTrue(closed.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(errors.get(0) instanceof Frame.TooBigException);
+            client.join(5000);
+            Assert.assertFalse(client.isAlive());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void test_spill() throws Exception {
+        final byte[] big = new byte[64 * 1024];
+        for (int i = 0; i < big.length; i++) {
+            big[i] = (byte) i;
+        }
+        final List<Message> messages = new CopyOnWriteArrayList<Message>();
+        final List<Boolean> channelsOpen = new CopyOnWriteArrayList<Boolean>();
+        final List<byte[]> payloads = new CopyOnWriteArrayList<byte[]>();
+        final CountDownLatch received = new CountDownLatch(3);
+        SimpleWebSocketClient client = new SimpleWebSocketClient(server.getUrl()) {
+            @Override
+            public void onMessage(Message message) {
+                channelsOpen.add(message.getFileChannel() != null && message.getFileChannel().isOpen());
+                try {
+                    ByteBuffer buffer = message.asByteBuffer();
+                    byte[] bytes = new byte[buffer.remaining()];
+                    buffer.get(bytes);
+                    payloads.add(bytes);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                messages.add(messages.isEmpty() ? message.detach() : message);
+                received.countDown();
+            }
+        };
+        client.setSpillThreshold(1024);
+        client.start();
+        client.send(big);
+        client.send(big);
+        client.send("small");
+
+        Assert.assertTrue(received.await(5, TimeUnit.SECONDS));
+        Message detached = messages.get(0);
+        Message released = messages.get(1);
+        Assert.assertTrue(detached.isSpilled());
+        Assert.assertTrue(released.isSpilled());
+        Assert.assertFalse(messages.get(2).isSpilled());
+        Assert.assertTrue(channelsOpen.get(0));
+        Assert.assertTrue(channelsOpen.get(1));
+        Assert.assertFalse(channelsOpen.get(2));
+        Assert.assertArrayEquals(big, payloads.get(0));
+        Assert.assertArrayEquals(big, payloads.get(1));
+        Assert.assertEquals("small", new String(payloads.get(2), "UTF-8"));
+
+        // files are opened with DELETE_ON_CLOSE, an open channel keeps the file
+        Assert.assertTrue(detached.getFileChannel().isOpen());
+        Assert.assertArrayEquals(big, detached.asBytes());
+        Assert.assertFalse(released.getFileChannel().isOpen());
+        Assert.assertFalse(Files.exists(released.getSpillFile().getPath()));
+
+        detached.release();
+        Assert.assertFalse(detached.getFileChannel().isOpen());
+        Assert.assertFalse(Files.exists(detached.getSpillFile().getPath()));
+        client.close();
+    }
+
+    @Test
+    public void test_standby_is_promoted_without_pause() throws Exception {
+        RecordingServer server = new RecordingServer();
+        try {
+            final AtomicInteger connects = new AtomicInteger();
+            final List<String> messages = new CopyOnWriteArrayList<String>();
+            final CountDownLatch received = new CountDownLatch(1);
+            SimpleWebSocketClient client = new SimpleWebSocketClient(server.getUrl()) {
+                @Override
+                public void onConnect() {
+                    connects.incrementAndGet();
+                }
+
+                @Override
+                public void onMessage(Message message) {
+                    messages.add(message.asString());
+                    received.countDown();
+                }
+            };
+            client.setReconnectOnClosePause(60000);
+            client.setReconnectOnErrorPause(60000);
+            client.setHotStandby(true);
+            client.start();
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!(client.hasStandby() && server.sockets.size() == 2) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertTrue(client.hasStandby());
+            Assert.assertEquals(1, connects.get());
+
+            long start = System.currentTimeMillis();
+            server.sockets.get(0).close();
+            while (connects.get() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(2, connects.get());
+            Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+
+            client.send("after promotion");
+            Assert.assertTrue(received.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals("after promotion", messages.get(0));
+
+            while (!(client.hasStandby() && server.sockets.size() == 3) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(3, server.sockets.size());
+            Assert.assertTrue(client.hasStandby());
+            client.close();
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void test_keepalive_updates_rtt() throws Exception {
+        final AtomicInteger pings = new AtomicInteger();
+        SimpleWebSocketClient client = new SimpleWebSocketClient(server.getUrl()) {
+            @Override
+            protected Frame pingFrame(byte[] payload) {
+                pings.incrementAndGet();
+                return super.pingFrame(payload);
+            }
+        };
+        client.start();
+        Assert.assertEquals(-1, client.getLastRtt(), 0);
+        client.setKeepalive(50, 3);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pings.get() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(pings.get() >= 3);
+        Assert.assertTrue(client.getLastRtt() >= 0);
+        Assert.assertTrue(client.getSmoothedRtt() >= 0);
+        Assert.assertEquals(0, client.getMissedPongs());
+        client.close();
+    }
+
+    @Test
+    public void test_missed_pongs_reconnect() throws Exception {
+        SilentServer server = new SilentServer();
+        try {
+            final AtomicInteger connects = new AtomicInteger();
+            final AtomicInteger timeouts = new AtomicInteger();
+            SimpleWebSocketClient client = new SimpleWebSocketClient(server.getUrl()) {
+                @Override
+                public void onConnect() {
+                    connects.incrementAndGet();
+                }
+
+                @Override
+                public void onError(Exception e) {
+                }
+
+                @Override
+                protected void onKeepaliveTimeout(int missedPongs) {
+                    timeouts.incrementAndGet();
+                    super.onKeepaliveTimeout(missedPongs);
+                }
+            };
+            client.setReconnectOnErrorPause(0);
+            client.setKeepalive(50, 2);
+            client.start();
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (connects.get() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertTrue(timeouts.get() >= 1);
+            Assert.assertTrue(connects.get() >= 2);
+            client.close();
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void test_ping_on_closed_client() throws Exception {
+        SimpleWebSocketClient client = new SimpleWebSocketClient(server.getUrl());
+        client.setPingTimeout(60000);
+        Assert.assertTrue(client.connectIfNot());
+        Assert.assertTrue(client.ping() >= 0);
+        client.close();
+
+        long start = System.currentTimeMillis();
+        try {
+            client.ping();
+            Assert.fail("IOException expected");
+        } catch (IOException ignored) {
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test
+    public void test_read_timeout_reconnects_idle_connection() throws Exception {
+        SilentServer server = new SilentServer();
+        try {
+            final AtomicInteger connects = new AtomicInteger();
+            final AtomicInteger timeouts = new AtomicInteger();
+            SimpleWebSocketClient client = new SimpleWebSocketClient(server.getUrl()) {
+                @Override
+                public void onConnect() {
+                    connects.incrementAndGet();
+                }
+
+                @Override
+                public void onError(Exception e) {
+                }
+
+                @Override
+                protected void onReadTimeout() {
+                    timeouts.incrementAndGet();
+                    super.onReadTimeout();
+                }
+            };
+            client.setReconnectOnErrorPause(0);
+            client.setReadTimeout(100);
+            client.start();
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (connects.get() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertTrue(timeouts.get() >= 1);
+            Assert.assertTrue(connects.get() >= 2);
+            client.close();
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void test_read_timeout_keeps_active_connection() throws Exception {
+        final AtomicInteger connects = new AtomicInteger();
+        final AtomicInteger timeouts = new AtomicInteger();
+        SimpleWebSocketClient client = new SimpleWebSocketClient(server.getUrl()) {
+            @Override
+            public void onConnect() {
+                connects.incrementAndGet();
+            }
+
+            @Override
+            protected void onReadTimeout() {
+                timeouts.incrementAndGet();
+                super.onReadTimeout();
+            }
+        };
+        client.setReadTimeout(300);
+        client.setKeepalive(50, 3);
+        client.start();
+
+        Thread.sleep(1000);
+        Assert.assertEquals(0, timeouts.get());
+        Assert.assertEquals(1, connects.get());
+        Assert.assertTrue(client.connected);
+        client.close();
+    }
+
+    @Test
+    public void test_send_byte_buffers() throws Exception {
+        final List<byte[]> payloads = new CopyOnWriteArrayList<byte[]>();
+        final CountDownLatch received = new CountDownLatch(4);
+        SimpleWebSocketClient client = new SimpleWebSocketClient(server.getUrl()) {
+            @Override
+            public void onMessage(Message message) {
+                payloads.add(message.asBytes());
+                received.countDown();
+            }
+        };
+        client.start();
+
+        byte[] bytes = new byte[1000];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i * 7);
+        }
+
+        client.send(ByteBuffer.wrap(bytes.clone()));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).flip();
+        client.send(direct);
+
+        ByteBuffer sliced = ByteBuffer.wrap(bytes.clone());
+        sliced.position(100).limit(900);
+        client.send(sliced);
+
+        ByteBuffer first = ByteBuffer.allocateDirect(10);
+        first.put(bytes, 0, 10).flip();
+        ByteBuffer second = ByteBuffer.wrap(bytes.clone());
+        second.position(10);
+        client.send(new Message().append(first).append(second));
+
+        Assert.assertTrue(received.await(5, TimeUnit.SECONDS));
+        Assert.assertArrayEquals(bytes, payloads.get(0));
+        Assert.assertArrayEquals(bytes, payloads.get(1));
+        Assert.assertArrayEquals(Arrays.copyOfRange(bytes, 100, 900), payloads.get(2));
+        Assert.assertArrayEquals(bytes, payloads.get(3));
+        client.close();
+    }
+
+    @Test
+    public void test_adaptive_receive_buffer_grows() throws Exception {
+        final int count = 2 * AdaptiveBufferSize.WINDOW;
+        final byte[] big = new byte[20000];
+        for (int i = 0; i < big.length; i++) {
+            big[i] = (byte) (i * 31);
+        }
+        final AtomicInteger corrupted = new AtomicInteger();
+        final CountDownLatch received = new CountDownLatch(count);
+        SimpleWebSocketClient client = new SimpleWebSocketClient(server.getUrl()) {
+            @Override
+            public void onMessage(Message message) {
+                if (!Arrays.equals(big, message.asBytes()))
+                    corrupted.incrementAndGet();
+                received.countDown();
+            }
+        };
+        client.setAdaptiveReceiveBuffer(1024, 64 * 1024);
+        Assert.assertTrue(client.connectIfNot());
+        int initial = client.getReceiveBufferSize();
+        Assert.assertEquals(1024, initial);
+        client.start();
+
+        for (int i = 0; i < count; i++) {
+            client.send(big);
+        }
+
+        Assert.assertTrue(received.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(0, corrupted.get());
+        Assert.assertTrue(client.getReceiveBufferSize() > big.length);
+        client.close();
+    }
+
+    @Test
+    public void test_frame_views() throws Exception {
+        final List<Message> messages = new CopyOnWriteArrayList<Message>();
+        final List<Boolean> views = new CopyOnWriteArrayList<Boolean>();
+        final List<String> texts = new CopyOnWriteArrayList<String>();
+        final AtomicInteger count = new AtomicInteger();
+        SimpleWebSocketClient client = new SimpleWebSocketClient(server.getUrl()) {
+            @Override
+            public void onMessage(Message message) {
+                views.add(message.get(0).isView());
+                texts.add(message.asString());
+                messages.add(messages.size() == 1 ? message.detach() : message);
+                count.incrementAndGet();
+            }
+        };
+        client.setFrameViews(true);
+        client.start();
+
+        for (int i = 1; i <= 3; i++) {
+            client.send("view-" + i);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (count.get() < i && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            Assert.assertEquals(i, count.get());
+        }
+
+        Assert.assertTrue(views.get(0));
+        Assert.assertTrue(views.get(1));
+        Assert.assertTrue(views.get(2));
+        Assert.assertEquals("view-1", texts.get(0));
+        Assert.assertEquals("view-2", texts.get(1));
+        Assert.assertEquals("view-3", texts.get(2));
+
+        // detached message owns a copy, the kept view points into the read buffer that was reused by later messages
+        Assert.assertFalse(messages.get(1).get(0).isView());
+        Assert.assertEquals("view-2", messages.get(1).asString());
+        Assert.assertTrue(messages.get(0).get(0).isView());
+        Assert.assertEquals("view-3", messages.get(0).asString());
+        client.close();
+    }
+}
@@ -0,0 +1,125 @@
+package com.wizzardo.http.websocket;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.net.ssl.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.util.Arrays;
+
+public class TlsOptionsTest {
+    protected SSLContext context;
+    protected SSLServerSocket serverSocket;
+    protected Thread acceptor;
+
+    @Before
+    public void setUp() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        InputStream in = TlsOptionsTest.class.getResourceAsStream("/localhost.p12");
+        try {
+            keyStore.load(in, "secret".toCharArray());
+        } finally {
+            in.close();
+        }
+
+        KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keys.init(keyStore, "secret".toCharArray());
+        TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trust.init(keyStore);
+        context = SSLContext.getInstance("TLS");
+        context.init(keys.getKeyManagers(), trust.getTrustManagers(), null);
+
+        serverSocket = (SSLServerSocket) context.getServerSocketFactory().createServerSocket(0);
+        acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        SSLSocket socket = (SSLSocket) serverSocket.accept();
+                        try {
+                            socket.startHandshake();
+                            while (socket.getInputStream().read() != -1) {
+                            }
+                        } catch (IOException ignored) {
+                        } finally {
+                            socket.close();
+                        }
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        serverSocket.close();
+        acceptor.join(5000);
+    }
+
+    @Test
+    public void test_default_is_read_only() throws Exception {
+        try {
+            TlsOptions.DEFAULT.sessionCacheSize(1);
+            Assert.fail("UnsupportedOperationException expected");
+        } catch (UnsupportedOperationException ignored) {
+        }
+        try {
+            TlsOptions.DEFAULT.endpointIdentification(false);
+            Assert.fail("UnsupportedOperationException expected");
+        } catch (UnsupportedOperationException ignored) {
+        }
+        Assert.assertSame(SSLContext.getDefault(), TlsOptions.DEFAULT.getContext());
+    }
+
+    @Test
+    public void test_cache_settings_do_not_change_default_context() throws Exception {
+        SSLSessionContext defaultSessions = SSLContext.getDefault().getClientSessionContext();
+        int size = defaultSessions.getSessionCacheSize();
+        int timeout = defaultSessions.getSessionTimeout();
+
+        TlsOptions options = new TlsOptions().sessionCacheSize(size + 7).sessionTimeout(timeout + 7);
+        options.factory();
+
+        Assert.assertNotSame(SSLContext.getDefault(), options.getContext());
+        Assert.assertSame(options.getContext(), options.getContext());
+        Assert.assertEquals(size + 7, options.getSessionContext().getSessionCacheSize());
+        Assert.assertEquals(timeout + 7, options.getSessionContext().getSessionTimeout());
+        Assert.assertEquals(size, defaultSessions.getSessionCacheSize());
+        Assert.assertEquals(timeout, defaultSessions.getSessionTimeout());
+    }
+
+    @Test
+    public void test_session_reuse() throws Exception {
+        TlsOptions options = new TlsOptions().context(context).protocols("TLSv1.2").sessionCacheSize(16);
+
+        SSLSocket first = options.connect("localhost", serverSocket.getLocalPort());
+        byte[] id = first.getSession().getId();
+        first.close();
+
+        SSLSocket second = options.connect("localhost", serverSocket.getLocalPort());
+        Assert.assertTrue(Arrays.equals(id, second.getSession().getId()));
+        second.close();
+    }
+
+    @Test
+    public void test_hostname_verification() throws Exception {
+        TlsOptions options = new TlsOptions().context(context);
+        options.connect("localhost", serverSocket.getLocalPort()).close();
+
+        try {
+            options.connect("127.0.0.1", serverSocket.getLocalPort()).close();
+            Assert.fail("certificate of localhost must not be accepted for 127.0.0.1");
+        } catch (SSLHandshakeException ignored) {
+        }
+
+        new TlsOptions().context(context).endpointIdentification(false)
+                .connect("127.0.0.1", serverSocket.getLocalPort()).close();
+    }
+}
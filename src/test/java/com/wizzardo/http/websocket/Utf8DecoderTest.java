@@ -0,0 +1,50 @@
+package com.wizzardo.http.websocket;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Utf8DecoderTest {
+
+    @Test
+    public void test_split_code_points() {
+        String text = "ascii, \u043a\u0438\u0440\u0438\u043b\u043b\u0438\u0446\u0430, \u4e2d\u6587, \ud83d\ude00 emoji";
+        byte[] bytes = text.getBytes(Charsets.UTF_8);
+        Utf8Decoder decoder = new Utf8Decoder(4);
+
+        for (int i = 0; i <= bytes.length; i++) {
+            for (int j = i; j <= bytes.length; j++) {
+                decoder.reset();
+                decoder.decode(bytes, 0, i)
+                        .decode(bytes, i, j - i)
+                        .decode(bytes, j, bytes.length - j)
+                        .finish();
+                Assert.assertEquals(text, decoder.toString());
+            }
+        }
+
+        decoder.reset();
+        for (int i = 0; i < bytes.length; i++) {
+            decoder.decode(bytes, i, 1);
+        }
+        Assert.assertEquals(text, decoder.finish().asCharSequence().toString());
+    }
+
+    @Test
+    public void test_malformed() {
+        byte[] bytes = new byte[]{'a', (byte) 0xe2, (byte) 0x82};
+        Utf8Decoder decoder = new Utf8Decoder();
+        decoder.decode(bytes, 0, bytes.length).finish();
+        Assert.assertEquals(new String(bytes, Charsets.UTF_8), decoder.toString());
+    }
+
+    @Test
+    public void test_message() {
+        Message message = new Message()
+                .append("\u043f\u0440\u0438\u0432\u0435\u0442, ".getBytes(Charsets.UTF_8), 0, 5)
+                .append("\u043f\u0440\u0438\u0432\u0435\u0442, ".getBytes(Charsets.UTF_8), 5, 9)
+                .append("\u043c\u0438\u0440");
+        Assert.assertTrue(message.isTextMessage());
+        Assert.assertEquals("\u043f\u0440\u0438\u0432\u0435\u0442, \u043c\u0438\u0440", message.asString());
+        Assert.assertEquals("\u043f\u0440\u0438\u0432\u0435\u0442, \u043c\u0438\u0440", message.asCharSequence().toString());
+    }
+}
@@ -0,0 +1,413 @@
+package com.wizzardo.http.websocket.extension;
+
+import com.wizzardo.http.websocket.Charsets;
+import com.wizzardo.http.websocket.Message;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SimpleCommandHandlerTest {
+
+    public static class Ping implements SimpleCommandHandler.CommandPojo {
+    }
+
+    public static class Subscribe implements SimpleCommandHandler.CommandPojo {
+    }
+
+    static class Recorder {
+        final List<String> events = new ArrayList<String>();
+        final List<Exception> errors = new ArrayList<Exception>();
+        byte[] lastBytes;
+    }
+
+    protected SimpleCommandHandler<Recorder> handler(final Recorder recorder) {
+        SimpleCommandHandler<Recorder> handler = new SimpleCommandHandler<Recorder>(new SimpleCommandHandler.Reader() {
+            @Override
+            public Object read(Class<?> clazz, byte[] bytes, int offset, int length) {
+                recorder.lastBytes = bytes;
+                recorder.events.add(clazz.getSimpleName() + ":" + new String(bytes, offset, length, Charsets.UTF_8));
+                try {
+                    return clazz.newInstance();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }, new SimpleCommandHandler.ErrorHandler() {
+            @Override
+            public void onError(Exception e) {
+                recorder.errors.add(e);
+            }
+        });
+        handler.addHandler(Ping.class, new SimpleCommandHandler.CommandHandler<Recorder, Ping>() {
+            @Override
+            public void handle(Recorder client, Ping command) {
+                client.events.add("ping");
+            }
+        });
+        handler.addHandler(Subscribe.class, new SimpleCommandHandler.CommandHandler<Recorder, Subscribe>() {
+            @Override
+            public void handle(Recorder client, Subscribe command) {
+                client.events.add("subscribe");
+            }
+        });
+        return handler;
+    }
+
+    @Test
+    public void test_lookup() {
+        Recorder recorder = new Recorder();
+        SimpleCommandHandler<Recorder> handler = handler(recorder);
+
+        byte[] bytes = "xx4Ping{}yy".getBytes(Charsets.UTF_8);
+        handler.onMessage(recorder, new Message(bytes, 2, 7));
+        Assert.assertEquals("Ping:{}", recorder.events.get(0));
+        Assert.assertEquals("ping", recorder.events.get(1));
+
+        handler.onMessage(recorder, new Message("Subscribe{\"a\":1}"));
+        Assert.assertEquals("Subscribe:{\"a\":1}", recorder.events.get(2));
+        Assert.assertEquals("subscribe", recorder.events.get(3));
+
+        handler.onMessage(recorder, new Message().append("9Subsc").append("ribe{}"));
+        Assert.assertEquals("Subscribe:{}", recorder.events.get(4));
+        Assert.assertTrue(recorder.errors.isEmpty());
+    }
+
+    public static class Legacy implements SimpleCommandHandler.CommandPojo {
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void test_deprecated_handlers_map() {
+        Recorder recorder = new Recorder();
+        SimpleCommandHandler<Recorder> handler = handler(recorder);
+        Assert.assertEquals(Ping.class, handler.handlers.get("Ping").getKey());
+
+        handler.handlers.put("Legacy", new AbstractMap.SimpleEntry<Class<? extends SimpleCommandHandler.CommandPojo>, SimpleCommandHandler.CommandHandler<? extends Recorder, ? extends SimpleCommandHandler.CommandPojo>>(Legacy.class, new SimpleCommandHandler.CommandHandler<Recorder, Legacy>() {
+            @Override
+            public void handle(Recorder client, Legacy command) {
+                client.events.add("legacy");
+            }
+        }));
+        handler.onMessage(recorder, new Message("Legacy{}"));
+        Assert.assertTrue(recorder.errors.isEmpty());
+        Assert.assertEquals("legacy", recorder.events.get(1));
+
+        int[] holder = new int[1];
+        Assert.assertEquals(2, SimpleCommandHandler.readInt(holder, "13SimpleCommand{}".getBytes(Charsets.UTF_8), 0, 17));
+        Assert.assertEquals(13, holder[0]);
+    }
+
+    @Test
+    public void test_single_frame_is_not_copied() {
+        Recorder recorder = new Recorder();
+        SimpleCommandHandler<Recorder> handler = handler(recorder);
+        Message message = new Message("Ping{}");
+        handler.onMessage(recorder, message);
+        Assert.assertSame(message.get(0).getData(), recorder.lastBytes);
+    }
+
+    @Test
+    public void test_errors() {
+        Recorder recorder = new Recorder();
+        SimpleCommandHandler<Recorder> handler = handler(recorder);
+
+        handler.onMessage(recorder, new Message("Pong{}"));
+        handler.onMessage(recorder, new Message("Ping"));
+        handler.onMessage(recorder, new Message("40Ping{}"));
+        Assert.assertEquals(3, recorder.errors.size());
+        Assert.assertEquals("Unknown command: Pong", recorder.errors.get(0).getMessage());
+        Assert.assertTrue(recorder.events.isEmpty());
+    }
+
+    @Test
+    public void test_many_handlers() {
+        final Recorder recorder = new Recorder();
+        SimpleCommandHandler<Recorder> handler = handler(recorder);
+        for (int i = 0; i < 20; i++) {
+            handler.addHandler(Ping.class, new SimpleCommandHandler.CommandHandler<Recorder, Ping>() {
+                @Override
+                public void handle(Recorder client, Ping command) {
+                    client.events.add("replaced");
+                }
+            });
+        }
+        handler.onMessage(recorder, new Message("Ping{}"));
+        handler.onMessage(recorder, new Message("Subscribe{}"));
+        Assert.assertEquals("replaced", recorder.events.get(1));
+        Assert.assertEquals("subscribe", recorder.events.get(3));
+        Assert.assertEquals(2, handler.commandsCount);
+    }
+
+    @Test
+    public void test_segmented() {
+        final List<String> read = new ArrayList<String>();
+        final int[] segmented = new int[1];
+        SimpleCommandHandler<Recorder> handler = new SimpleCommandHandler<Recorder>(new StreamingReader() {
+            @Override
+            public Object read(Class<?> clazz, InputStream in) throws IOException {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[3];
+                int r;
+                while ((r = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, r);
+                }
+                read.add(clazz.getSimpleName() + ":" + new String(out.toByteArray(), Charsets.UTF_8));
+                return new Ping();
+            }
+
+            @Override
+            public Object read(Class<?> clazz, ByteBuffer[] segments) {
+                segmented[0]++;
+                return super.read(clazz, segments);
+            }
+        }, new SimpleCommandHandler.ErrorHandler() {
+            @Override
+            public void onError(Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        handler.addHandler(Ping.class, new SimpleCommandHandler.CommandHandler<Recorder, Ping>() {
+            @Override
+            public void handle(Recorder client, Ping command) {
+            }
+        });
+
+        handler.onMessage(null, new Message().append("4Ping{\"a\"").append(":").append("").append("1}"));
+        handler.onMessage(null, new Message().append("Ping").append("{}"));
+        handler.onMessage(null, new Message().append("Pi").append("ng{}"));
+        Assert.assertEquals("Ping:{\"a\":1}", read.get(0));
+        Assert.assertEquals("Ping:{}", read.get(1));
+        Assert.assertEquals("Ping:{}", read.get(2));
+        Assert.assertEquals(1, segmented[0]);
+    }
+
+    @Test
+    public void test_segment_boundaries() {
+        final List<String> read = new ArrayList<String>();
+        SimpleCommandHandler<Recorder> handler = new SimpleCommandHandler<Recorder>(new SimpleCommandHandler.SegmentedReader() {
+            @Override
+            public Object read(Class<?> clazz, byte[] bytes, int offset, int length) {
+                read.add("joined " + clazz.getSimpleName() + ":" + new String(bytes, offset, length, Charsets.UTF_8));
+                return new Ping();
+            }
+
+            @Override
+            public Object read(Class<?> clazz, ByteBuffer[] segments) {
+                StringBuilder sb = new StringBuilder("segments " + clazz.getSimpleName() + ":");
+                for (ByteBuffer segment : segments) {
+                    Assert.assertTrue(segment.isReadOnly());
+                    byte[] bytes = new byte[segment.remaining()];
+                    segment.get(bytes);
+                    sb.append('[').append(new String(bytes, Charsets.UTF_8)).append(']');
+                }
+                read.add(sb.toString());
+                return new Ping();
+            }
+        }, new SimpleCommandHandler.ErrorHandler() {
+            @Override
+            public void onError(Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        handler.addHandler(Ping.class, new SimpleCommandHandler.CommandHandler<Recorder, Ping>() {
+            @Override
+            public void handle(Recorder client, Ping command) {
+            }
+        });
+
+        // name ends exactly at the end of the first frame, arguments are split and contain an empty frame
+        handler.onMessage(null, new Message().append("4Ping").append("{\"a\"").append("").append(":1}"));
+        // argument split in the middle of a value, empty last frame
+        handler.onMessage(null, new Message().append("Ping{\"ab").append("c\"}").append(""));
+        // names split across frames, with and without length, are joined
+        handler.onMessage(null, new Message().append("4Pi").append("ng{}"));
+        handler.onMessage(null, new Message().append("Pin").append("g").append("{}"));
+        // length of the name in its own frame
+        handler.onMessage(null, new Message().append("4").append("Ping{}"));
+        // empty first frame
+        handler.onMessage(null, new Message().append("").append("Ping{}"));
+
+        Assert.assertEquals("segments Ping:[][{\"a\"][][:1}]", read.get(0));
+        Assert.assertEquals("segments Ping:[{\"ab][c\"}][]", read.get(1));
+        Assert.assertEquals("joined Ping:{}", read.get(2));
+        Assert.assertEquals("joined Ping:{}", read.get(3));
+        Assert.assertEquals("joined Ping:{}", read.get(4));
+        Assert.assertEquals("joined Ping:{}", read.get(5));
+        Assert.assertEquals(6, read.size());
+    }
+
+    @Test
+    public void test_input_stream() {
+        ByteBuffersInputStream in = new ByteBuffersInputStream(ByteBuffer.wrap(new byte[]{1, 2}), ByteBuffer.allocate(0), ByteBuffer.wrap(new byte[]{3, 4, 5}));
+        Assert.assertEquals(5, in.available());
+        Assert.assertEquals(1, in.read());
+        Assert.assertEquals(2, in.skip(2));
+        byte[] bytes = new byte[4];
+        Assert.assertEquals(2, in.read(bytes, 0, 4));
+        Assert.assertEquals(4, bytes[0]);
+        Assert.assertEquals(5, bytes[1]);
+        Assert.assertEquals(-1, in.read());
+        Assert.assertEquals(-1, in.read(bytes, 0, 4));
+    }
+
+    public static class Order implements SimpleCommandHandler.CommandPojo {
+        int instrument;
+        int sequence;
+    }
+
+    @Test
+    public void test_parallel() throws InterruptedException {
+        final int instruments = 8;
+        final int count = 2000;
+        final int[] last = new int[instruments];
+        final AtomicInteger outOfOrder = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(count);
+        SimpleCommandHandler<Recorder> handler = new SimpleCommandHandler<Recorder>(new SimpleCommandHandler.Reader() {
+            @Override
+            public Object read(Class<?> clazz, byte[] bytes, int offset, int length) {
+                String[] parts = new String(bytes, offset + 1, length - 2, Charsets.UTF_8).split(",");
+                Order order = new Order();
+                order.instrument = Integer.parseInt(parts[0]);
+                order.sequence = Integer.parseInt(parts[1]);
+                return order;
+            }
+        }, new SimpleCommandHandler.ErrorHandler() {
+            @Override
+            public void onError(Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        handler.addHandler(Order.class, new SimpleCommandHandler.CommandHandler<Recorder, Order>() {
+            @Override
+            public void handle(Recorder client, Order command) {
+                if (last[command.instrument] != command.sequence - 1)
+                    outOfOrder.incrementAndGet();
+                last[command.instrument] = command.sequence;
+                latch.countDown();
+            }
+        }, new SimpleCommandHandler.KeyExtractor<Recorder, Order>() {
+            @Override
+            public Object key(Recorder client, Order command) {
+                return command.instrument;
+            }
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            handler.setParallel(executor, 4, null);
+            Assert.assertTrue(handler.isParallel());
+            int[] sequences = new int[instruments];
+            for (int i = 0; i < count; i++) {
+                int instrument = i % instruments;
+                handler.onMessage(null, new Message("Order{" + instrument + "," + (++sequences[instrument]) + "}"));
+            }
+
+            Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(0, outOfOrder.get());
+
+            CommandStats stats = handler.getStats(Order.class);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (stats.getExecuted() != count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            Assert.assertEquals(count, stats.getExecuted());
+            Assert.assertEquals(0, stats.getQueueSize());
+            Assert.assertTrue(stats.getMaxQueueSize() > 0);
+            Assert.assertTrue(stats.getMaxWaitNanos() >= stats.getAverageWaitNanos());
+            Assert.assertSame(stats, handler.getStats().get(Order.class));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void test_rejected_command_is_not_counted() {
+        final Recorder recorder = new Recorder();
+        SimpleCommandHandler<Recorder> handler = handler(recorder);
+        final AtomicInteger accepted = new AtomicInteger();
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        handler.setParallel(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                if (accepted.get() == 0)
+                    throw new RejectedExecutionException();
+                tasks.add(command);
+            }
+        }, 1, null);
+
+        handler.onMessage(recorder, new Message("Ping{}"));
+        Assert.assertTrue(recorder.errors.get(0) instanceof RejectedExecutionException);
+        Assert.assertEquals(0, handler.getStats(Ping.class).getQueueSize());
+
+        accepted.set(1);
+        handler.onMessage(recorder, new Message("Ping{}"));
+        Assert.assertEquals(1, handler.getStats(Ping.class).getQueueSize());
+        Assert.assertEquals(1, tasks.size());
+        tasks.remove(0).run();
+        Assert.assertEquals(1, handler.getStats(Ping.class).getExecuted());
+        Assert.assertEquals(0, handler.getStats(Ping.class).getQueueSize());
+    }
+
+    @Test
+    public void test_lane_survives_failed_task() {
+        Recorder recorder = new Recorder();
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        SimpleCommandHandler.Lane lane = new SimpleCommandHandler.Lane(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+        final AtomicInteger runs = new AtomicInteger();
+        lane.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException();
+            }
+        });
+        lane.execute(new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        });
+
+        try {
+            tasks.remove(0).run();
+            Assert.fail("IllegalStateException expected");
+        } catch (IllegalStateException ignored) {
+        }
+        Assert.assertEquals(1, tasks.size());
+        tasks.remove(0).run();
+        Assert.assertEquals(1, runs.get());
+        Assert.assertFalse(lane.scheduled.get());
+    }
+
+    @Test
+    public void test_mode_is_fixed_after_first_command() {
+        Recorder recorder = new Recorder();
+        SimpleCommandHandler<Recorder> handler = handler(recorder);
+        handler.setSequential();
+        handler.onMessage(recorder, new Message("Ping{}"));
+        try {
+            handler.setParallel(Executors.newSingleThreadExecutor(), 1, null);
+            Assert.fail("IllegalStateException expected");
+        } catch (IllegalStateException ignored) {
+        }
+        Assert.assertFalse(handler.isParallel());
+    }
+}
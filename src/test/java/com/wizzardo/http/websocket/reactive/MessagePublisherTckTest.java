@@ -0,0 +1,77 @@
+package com.wizzardo.http.websocket.reactive;
+
+import com.wizzardo.http.websocket.Message;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.tck.PublisherVerification;
+import org.reactivestreams.tck.TestEnvironment;
+import org.testng.annotations.AfterClass;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Reactive-streams TCK, runs with TestNG by the tckTest task
+ */
+public class MessagePublisherTckTest extends PublisherVerification<Message> {
+    protected final ExecutorService executor = Executors.newCachedThreadPool();
+
+    public MessagePublisherTckTest() {
+        super(new TestEnvironment());
+    }
+
+    @AfterClass
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Offers messages the way a client does: stops when there is no demand and continues on the ready callback
+     */
+    static class Source implements Runnable {
+        final MessagePublisher publisher;
+        final ExecutorService executor;
+        final long elements;
+        long offered;
+
+        Source(MessagePublisher publisher, ExecutorService executor, long elements) {
+            this.publisher = publisher;
+            this.executor = executor;
+            this.elements = elements;
+        }
+
+        @Override
+        public void run() {
+            while (offered < elements) {
+                if (publisher.isCancelled())
+                    return;
+
+                if (!publisher.offer(new Message(String.valueOf(offered)))) {
+                    publisher.onReady(new Runnable() {
+                        @Override
+                        public void run() {
+                            executor.execute(Source.this);
+                        }
+                    });
+                    return;
+                }
+                offered++;
+            }
+            publisher.complete();
+        }
+    }
+
+    @Override
+    public Publisher<Message> createPublisher(long elements) {
+        MessagePublisher publisher = new MessagePublisher();
+        executor.execute(new Source(publisher, executor, elements));
+        return publisher;
+    }
+
+    @Override
+    public Publisher<Message> createFailedPublisher() {
+        MessagePublisher publisher = new MessagePublisher();
+        publisher.error(new IOException("connection failed"));
+        return publisher;
+    }
+}
@@ -0,0 +1,185 @@
+package com.wizzardo.http.websocket.reactive;
+
+import com.wizzardo.http.websocket.Message;
+import com.wizzardo.http.websocket.SimpleWebSocketClient;
+import com.wizzardo.http.websocket.tools.EchoServer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MessagePublisherTest {
+
+    static class Recorder implements Subscriber<Message> {
+        final List<String> messages = new ArrayList<String>();
+        Subscription subscription;
+        Throwable error;
+        boolean completed;
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            subscription = s;
+        }
+
+        @Override
+        public void onNext(Message message) {
+            messages.add(message.asString());
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+
+    @Test
+    public void test_demand() {
+        MessagePublisher publisher = new MessagePublisher();
+        final AtomicInteger ready = new AtomicInteger();
+        Runnable callback = new Runnable() {
+            @Override
+            public void run() {
+                ready.incrementAndGet();
+            }
+        };
+
+        Assert.assertFalse(publisher.offer(new Message("0")));
+        publisher.onReady(callback);
+        Assert.assertEquals(0, ready.get());
+
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        Assert.assertEquals(0, ready.get());
+
+        recorder.subscription.request(2);
+        Assert.assertEquals(1, ready.get());
+        Assert.assertTrue(publisher.offer(new Message("0")));
+        Assert.assertTrue(publisher.offer(new Message("1")));
+        Assert.assertFalse(publisher.offer(new Message("2")));
+        Assert.assertEquals(0, publisher.getDemand());
+
+        publisher.onReady(callback);
+        recorder.subscription.request(Long.MAX_VALUE);
+        recorder.subscription.request(Long.MAX_VALUE);
+        Assert.assertEquals(2, ready.get());
+        Assert.assertEquals(Long.MAX_VALUE, publisher.getDemand());
+        Assert.assertTrue(publisher.offer(new Message("2")));
+        Assert.assertEquals(Long.MAX_VALUE, publisher.getDemand());
+
+        publisher.complete();
+        Assert.assertTrue(recorder.completed);
+        Assert.assertTrue(publisher.offer(new Message("3")));
+        Assert.assertEquals(3, recorder.messages.size());
+        Assert.assertEquals("2", recorder.messages.get(2));
+    }
+
+    @Test
+    public void test_rules() {
+        MessagePublisher publisher = new MessagePublisher();
+        try {
+            publisher.subscribe(null);
+            Assert.fail("NullPointerException expected");
+        } catch (NullPointerException ignored) {
+        }
+
+        Recorder first = new Recorder();
+        publisher.subscribe(first);
+        Recorder second = new Recorder();
+        publisher.subscribe(second);
+        Assert.assertTrue(second.error instanceof IllegalStateException);
+
+        first.subscription.request(0);
+        Assert.assertTrue(first.error instanceof IllegalArgumentException);
+        Assert.assertTrue(publisher.isCancelled());
+        Assert.assertTrue(publisher.offer(new Message("0")));
+        Assert.assertTrue(first.messages.isEmpty());
+    }
+
+    @Test
+    public void test_terminated_before_subscribe() {
+        MessagePublisher publisher = new MessagePublisher();
+        publisher.error(new IllegalStateException("closed"));
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        Assert.assertNotNull(recorder.subscription);
+        Assert.assertEquals("closed", recorder.error.getMessage());
+    }
+
+    static void await(List<?> list, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (list.size() < size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        Assert.assertEquals(size, list.size());
+    }
+
+    @Test
+    public void test_client_reads_on_demand() throws Exception {
+        EchoServer server = new EchoServer(0);
+        try {
+            final List<String> received = new CopyOnWriteArrayList<String>();
+            Recorder subscriber = new Recorder() {
+                @Override
+                public void onSubscribe(Subscription s) {
+                    super.onSubscribe(s);
+                    s.request(1);
+                }
+
+                @Override
+                public void onNext(Message message) {
+                    received.add(message.asString());
+                }
+            };
+            MessagePublisher publisher = new MessagePublisher();
+            publisher.subscribe(subscriber);
+
+            SimpleWebSocketClient client = new SimpleWebSocketClient(server.getUrl());
+            client.setMessageSink(publisher);
+            Thread reader = client.start(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, "paused-reader");
+                }
+            });
+            for (int i = 0; i < 5; i++) {
+                client.send("message " + i);
+            }
+
+            await(received, 1);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (reader.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            Assert.assertEquals(Thread.State.WAITING, reader.getState());
+            Thread.sleep(100);
+            Assert.assertEquals(1, received.size());
+            Assert.assertEquals(0, publisher.getDemand());
+
+            subscriber.subscription.request(2);
+            await(received, 3);
+            Thread.sleep(100);
+            Assert.assertEquals(3, received.size());
+
+            subscriber.subscription.request(10);
+            await(received, 5);
+            Assert.assertEquals("message 4", received.get(4));
+
+            client.close();
+            reader.join(5000);
+            Assert.assertFalse(reader.isAlive());
+        } finally {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.wizzardo.http.websocket.reactive;
+
+import com.wizzardo.http.websocket.Message;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.tck.SubscriberBlackboxVerification;
+import org.reactivestreams.tck.TestEnvironment;
+
+/**
+ * Reactive-streams TCK, runs with TestNG by the tckTest task
+ */
+public class MessageSubscriberTckTest extends SubscriberBlackboxVerification<Message> {
+
+    public MessageSubscriberTckTest() {
+        super(new TestEnvironment());
+    }
+
+    @Override
+    public Subscriber<Message> createSubscriber() {
+        return new MessageSubscriber(4) {
+            @Override
+            protected void send(Message message) {
+            }
+        };
+    }
+
+    @Override
+    public Message createElement(int element) {
+        return new Message(String.valueOf(element));
+    }
+}
@@ -0,0 +1,199 @@
+package com.wizzardo.http.websocket.tools;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * Minimal blocking WebSocket server that sends every data frame back as is, without a mask.
+ * Answers pings with pongs and closes connection on close frame. One thread per connection.
+ * With {@link #setPerMessageDeflate(boolean)} it accepts permessage-deflate without context takeover,
+ * compressed frames are echoed as is and the client inflates its own output.
+ */
+public class EchoServer implements Closeable {
+    protected static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    protected final ServerSocket serverSocket;
+    protected volatile boolean running = true;
+    protected volatile boolean perMessageDeflate;
+
+    /**
+     * @param port 0 to pick any free port
+     */
+    public EchoServer(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "echo-server-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public String getUrl() {
+        return "ws://localhost:" + getPort() + "/";
+    }
+
+    public void setPerMessageDeflate(boolean perMessageDeflate) {
+        this.perMessageDeflate = perMessageDeflate;
+    }
+
+    protected void accept() {
+        while (running) {
+            try {
+                final Socket socket = serverSocket.accept();
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        handle(socket);
+                    }
+                }, "echo-server-connection");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (running)
+                    e.printStackTrace();
+            }
+        }
+    }
+
+    protected void handle(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+            handshake(in, out);
+
+            byte[] header = new byte[10];
+            byte[] mask = new byte[4];
+            byte[] payload = new byte[64 * 1024];
+            while (running) {
+                int b0 = in.read();
+                if (b0 == -1)
+                    break;
+                int b1 = in.readUnsignedByte();
+                long length = b1 & 0x7f;
+                if (length == 126)
+                    length = in.readUnsignedShort();
+                else if (length == 127)
+                    length = in.readLong();
+                if ((b1 & 0x80) != 0)
+                    in.readFully(mask);
+                else
+                    mask[0] = mask[1] = mask[2] = mask[3] = 0;
+
+                int opcode = b0 & 0x0f;
+                if (opcode == 9)
+                    b0 = (b0 & 0xf0) | 10;
+
+                int h = 0;
+                header[h++] = (byte) b0;
+                if (length < 126) {
+                    header[h++] = (byte) length;
+                } else if (length < 65536) {
+                    header[h++] = 126;
+                    header[h++] = (byte) (length >> 8);
+                    header[h++] = (byte) length;
+                } else {
+                    header[h++] = 127;
+                    for (int i = 7; i >= 0; i--) {
+                        header[h++] = (byte) (length >> (i * 8));
+                    }
+                }
+                out.write(header, 0, h);
+
+                long position = 0;
+                while (position < length) {
+                    int l = (int) Math.min(payload.length, length - position);
+                    in.readFully(payload, 0, l);
+                    for (int i = 0; i < l; i++) {
+                        payload[i] ^= mask[(int) ((position + i) & 3)];
+                    }
+                    out.write(payload, 0, l);
+                    position += l;
+                }
+
+                if (in.available() == 0 || opcode == 8)
+                    out.flush();
+                if (opcode == 8)
+                    break;
+            }
+        } catch (IOException ignored) {
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    protected void handshake(InputStream in, OutputStream out) throws IOException {
+        String key = null;
+        boolean deflate = false;
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon == -1)
+                continue;
+            String name = line.substring(0, colon).trim();
+            if (name.equalsIgnoreCase("Sec-WebSocket-Key"))
+                key = line.substring(colon + 1).trim();
+            else if (name.equalsIgnoreCase("Sec-WebSocket-Extensions") && line.contains("permessage-deflate"))
+                deflate = perMessageDeflate;
+        }
+        if (key == null)
+            throw new IOException("Sec-WebSocket-Key is missing");
+
+        String response = "HTTP/1.1 101 Switching Protocols\r\n" +
+                "Upgrade: websocket\r\n" +
+                "Connection: Upgrade\r\n" +
+                "Sec-WebSocket-Accept: " + accept(key) + "\r\n" +
+                (deflate ? "Sec-WebSocket-Extensions: permessage-deflate; server_no_context_takeover; client_no_context_takeover\r\n" : "") +
+                "\r\n";
+        out.write(response.getBytes("ISO-8859-1"));
+        out.flush();
+    }
+
+    protected static String accept(String key) throws IOException {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            return Base64.getEncoder().encodeToString(sha1.digest((key + GUID).getBytes("ISO-8859-1")));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    protected static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1 && c != '\n') {
+            if (c != '\r')
+                sb.append((char) c);
+        }
+        if (c == -1)
+            throw new EOFException("Connection closed during handshake");
+        return sb.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        EchoServer server = new EchoServer(args.length > 0 ? Integer.parseInt(args[0]) : 8080);
+        System.out.println("echo server is listening on " + server.getUrl());
+        Thread.sleep(Long.MAX_VALUE);
+    }
+}
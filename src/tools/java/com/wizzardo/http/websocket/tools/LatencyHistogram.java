@@ -0,0 +1,82 @@
+package com.wizzardo.http.websocket.tools;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * HDR-style histogram: values below 256 are counted exactly, bigger ones in log-linear buckets
+ * with 128 sub-buckets per power of two, so relative error stays under 1%.
+ * Recording is lock-free and can be done from any thread.
+ */
+public class LatencyHistogram {
+    protected static final int BITS = 8;
+    protected static final int SUB_BUCKETS = 1 << BITS;
+    protected static final int HALF = SUB_BUCKETS >> 1;
+
+    protected final AtomicLongArray counts = new AtomicLongArray(SUB_BUCKETS + (64 - BITS) * HALF);
+    protected final AtomicLong total = new AtomicLong();
+    protected final AtomicLong max = new AtomicLong();
+    protected final AtomicLong sum = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+
+        counts.incrementAndGet(index(value));
+        total.incrementAndGet();
+        sum.addAndGet(value);
+        long m;
+        while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+        }
+    }
+
+    public long getCount() {
+        return total.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long count = total.get();
+        return count == 0 ? 0 : (double) sum.get() / count;
+    }
+
+    /**
+     * @param p from 0 to 1
+     * @return highest value of the bucket that contains given percentile
+     */
+    public long percentile(double p) {
+        long count = total.get();
+        if (count == 0)
+            return 0;
+
+        long threshold = Math.max(1, (long) Math.ceil(count * p));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= threshold)
+                return Math.min(highestValue(i), max.get());
+        }
+        return max.get();
+    }
+
+    protected static int index(long value) {
+        int bits = 64 - Long.numberOfLeadingZeros(value);
+        if (bits <= BITS)
+            return (int) value;
+
+        int shift = bits - BITS;
+        return SUB_BUCKETS + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+    }
+
+    protected static long highestValue(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+
+        int shift = (index - SUB_BUCKETS) / HALF + 1;
+        long sub = (index - SUB_BUCKETS) % HALF + HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,202 @@
+package com.wizzardo.http.websocket.tools;
+
+import com.wizzardo.http.websocket.Message;
+import com.wizzardo.http.websocket.SimpleWebSocketClient;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Opens N connections, sends messages at a fixed total rate and measures echo latency.
+ * Latency is counted from the moment a message was scheduled to be sent, not from the actual send,
+ * so stalls of the sender are not hidden (coordinated omission).
+ * Without --url a bundled {@link EchoServer} is started.
+ * <p>
+ * Usage: LoadGenerator [--url ws://host:port/path] [--connections 10] [--rate 1000] [--duration 10] [--size 64]
+ */
+public class LoadGenerator {
+    protected String url;
+    protected int connections = 10;
+    protected int rate = 1000;
+    protected int duration = 10;
+    protected int size = 64;
+
+    protected final LatencyHistogram latency = new LatencyHistogram();
+    protected final LatencyHistogram connectTime = new LatencyHistogram();
+    protected final LatencyHistogram handshakeTime = new LatencyHistogram();
+    protected final AtomicLong sent = new AtomicLong();
+    protected final AtomicLong received = new AtomicLong();
+    protected final AtomicLong errors = new AtomicLong();
+    protected final List<SimpleWebSocketClient> clients = new ArrayList<SimpleWebSocketClient>();
+    protected long elapsed;
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        generator.parse(args);
+
+        EchoServer server = null;
+        if (generator.url == null) {
+            server = new EchoServer(0);
+            generator.url = server.getUrl();
+        }
+        try {
+            generator.run();
+            generator.report(System.out);
+        } finally {
+            if (server != null)
+                server.close();
+        }
+        System.exit(0);
+    }
+
+    protected void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 == args.length)
+                throw new IllegalArgumentException("No value for " + arg);
+
+            String value = args[++i];
+            if (arg.equals("--url"))
+                url = value;
+            else if (arg.equals("--connections"))
+                connections = Integer.parseInt(value);
+            else if (arg.equals("--rate"))
+                rate = Integer.parseInt(value);
+            else if (arg.equals("--duration"))
+                duration = Integer.parseInt(value);
+            else if (arg.equals("--size"))
+                size = Integer.parseInt(value);
+            else
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+        }
+        if (connections < 1 || rate < 1 || duration < 1)
+            throw new IllegalArgumentException("connections, rate and duration must be positive");
+        if (size < 8)
+            throw new IllegalArgumentException("size must be >= 8 to fit a timestamp");
+    }
+
+    public void run() throws IOException, URISyntaxException, InterruptedException {
+        for (int i = 0; i < connections; i++) {
+            SimpleWebSocketClient client = connect();
+            clients.add(client);
+            client.start();
+        }
+
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long count = (long) rate * duration;
+        byte[] payload = new byte[size];
+        long start = System.nanoTime();
+        for (long i = 0; i < count; i++) {
+            long scheduled = start + i * interval;
+            long delay = scheduled - System.nanoTime();
+            if (delay > 0)
+                LockSupport.parkNanos(delay);
+
+            writeLong(payload, scheduled);
+            try {
+                clients.get((int) (i % connections)).send(new Message(payload));
+                sent.incrementAndGet();
+            } catch (IOException e) {
+                errors.incrementAndGet();
+            }
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (received.get() < sent.get() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        elapsed = System.nanoTime() - start;
+
+        for (SimpleWebSocketClient client : clients) {
+            try {
+                client.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    protected SimpleWebSocketClient connect() throws IOException, URISyntaxException {
+        final long[] timestamps = new long[2];
+        SimpleWebSocketClient.Request request = new SimpleWebSocketClient.Request(url) {
+            @Override
+            public Socket connect() throws IOException {
+                timestamps[0] = System.nanoTime();
+                Socket socket = super.connect();
+                timestamps[1] = System.nanoTime();
+                return socket;
+            }
+        };
+
+        SimpleWebSocketClient client = new SimpleWebSocketClient(request) {
+            @Override
+            public void onConnect() {
+                connectTime.record(timestamps[1] - timestamps[0]);
+                handshakeTime.record(System.nanoTime() - timestamps[1]);
+            }
+
+            @Override
+            public void onMessage(Message message) {
+                byte[] bytes = message.asBytes();
+                if (bytes.length < 8) {
+                    errors.incrementAndGet();
+                    return;
+                }
+                latency.record(System.nanoTime() - readLong(bytes));
+                received.incrementAndGet();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                errors.incrementAndGet();
+            }
+        };
+        client.connectIfNot();
+        return client;
+    }
+
+    public void report(PrintStream out) {
+        double seconds = elapsed / 1e9;
+        out.println("url:         " + url);
+        out.println("connections: " + connections + ", target rate: " + rate + " msg/s, size: " + size + " bytes");
+        out.printf("sent:        %d, received: %d, errors: %d%n", sent.get(), received.get(), errors.get());
+        out.printf("throughput:  %.1f msg/s%n", received.get() / seconds);
+        print(out, "latency    ", latency);
+        print(out, "connect    ", connectTime);
+        print(out, "handshake  ", handshakeTime);
+    }
+
+    protected static void print(PrintStream out, String name, LatencyHistogram histogram) {
+        out.printf("%s p50: %s, p99: %s, p99.9: %s, max: %s, mean: %s%n", name,
+                micros(histogram.percentile(0.5)),
+                micros(histogram.percentile(0.99)),
+                micros(histogram.percentile(0.999)),
+                micros(histogram.getMax()),
+                micros((long) histogram.getMean()));
+    }
+
+    protected static String micros(long nanos) {
+        return String.format("%.1fus", nanos / 1000.0);
+    }
+
+    protected static void writeLong(byte[] bytes, long value) {
+        for (int i = 7; i >= 0; i--) {
+            bytes[i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    protected static long readLong(byte[] bytes) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[i] & 0xff);
+        }
+        return value;
+    }
+}